@@ -0,0 +1,153 @@
+package org.bananarama.crud.redis;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.bananarama.crud.redis.entities.GoogleHost;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * Pipelined create, read and delete of {@value #OBJECTS} objects, with chunks of different sizes.
+ * The objects have set and range indexes, so writes and deletes read the indexed values first
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CrudBenchmark {
+
+    static final int OBJECTS = 1000;
+
+    @Param({ "1", "50", "500" })
+    private int batchSize;
+
+    private InProcessRedis embedded;
+    private JedisPool pool;
+    private RedisAdapter adapter;
+    private List<GoogleHost> hosts;
+    private List<String> ids;
+
+    @Setup
+    public void setup() {
+
+        String address = System.getProperty("bench.redis", "localhost:6379");
+        if (address.equals("embedded")) {
+            embedded = InProcessRedis.start();
+            address = "localhost:" + embedded.getPort();
+        }
+        pool = new JedisPool(new JedisPoolConfig(), address.split(":")[0], Integer.parseInt(address.split(":")[1]));
+
+        int size = batchSize;
+        adapter = new RedisAdapter() {
+            @Override
+            protected Jedis getJedis() {
+                return pool.getResource();
+            }
+
+            @Override
+            protected int getReadBatchSize() {
+                return size;
+            }
+
+            @Override
+            protected int getWriteBatchSize() {
+                return size;
+            }
+        };
+
+        ids = IntStream.range(0, OBJECTS).mapToObj(i -> "bench-" + i).collect(Collectors.toList());
+        hosts = ids.stream().map(Utils::generateGoogleHost).collect(Collectors.toList());
+        
+        // The adapter logs the errors of redis and goes on: fail now rather than timing operations that did nothing
+        adapter.create(GoogleHost.class).from(hosts.stream());
+        check(OBJECTS, "create");
+        adapter.delete(GoogleHost.class).from(hosts.stream());
+        check(0, "delete");
+        adapter.create(GoogleHost.class).from(hosts.stream());
+    }
+
+    private void check(int expected, String operation) {
+        long found;
+        try (Stream<GoogleHost> stored = adapter.read(GoogleHost.class).fromKeys(ids)) {
+            found = stored.count();
+        }
+        if (found != expected) {
+            throw new IllegalStateException(String.format("After the %s %d objects are stored instead of %d, is the server supported?", operation, found, expected));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        adapter.delete(GoogleHost.class).from(hosts.stream());
+        pool.close();
+        if (embedded != null) {
+            embedded.close();
+        }
+    }
+
+    /**
+     * Overwrite existing objects, as the indexed values do not change only the hashes are written
+     */
+    @Benchmark
+    public void create() {
+        adapter.create(GoogleHost.class).from(hosts.stream());
+    }
+
+    @Benchmark
+    public void fromKeys(Blackhole blackhole) {
+        try (Stream<GoogleHost> found = adapter.read(GoogleHost.class).fromKeys(ids)) {
+            found.forEach(blackhole::consume);
+        }
+    }
+
+    /**
+     * Delete the objects and write them again, updating the indexes both times
+     */
+    @Benchmark
+    public void createAndDelete() {
+        adapter.delete(GoogleHost.class).from(hosts.stream());
+        adapter.create(GoogleHost.class).from(hosts.stream());
+    }
+
+    /**
+     * The objects stored again before each invocation of {@link CrudBenchmark#delete(Stored)}, out of its timing
+     */
+    @State(Scope.Thread)
+    public static class Stored {
+
+        @Setup(Level.Invocation)
+        public void store(CrudBenchmark benchmark) {
+            benchmark.adapter.create(GoogleHost.class).from(benchmark.hosts.stream());
+        }
+    }
+
+    /**
+     * Delete the stored objects, reading their indexed values and removing them from the indexes
+     */
+    @Benchmark
+    public void delete(Stored stored) {
+        adapter.delete(GoogleHost.class).from(hosts.stream());
+    }
+}
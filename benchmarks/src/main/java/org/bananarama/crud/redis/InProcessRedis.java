@@ -0,0 +1,429 @@
+package org.bananarama.crud.redis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A stand-in for redis-server, to run the benchmarks where redis is not installed. It speaks
+ * RESP on a local port and implements only the commands sent by the adapter (hashes, strings,
+ * sets and sorted sets without range queries), all in memory and under a single lock.
+ * Lua is not available: the scripts of the adapter are recognized by their source, and run in Java;
+ * any other script is an error.
+ *
+ * The numbers measure the client side: the latency of a real server is not simulated.
+ */
+class InProcessRedis implements Closeable {
+
+    private final ServerSocket server;
+    private final Map<String, Object> data = new HashMap<>();
+    
+    // The source of the scripts, by SHA1
+    private final Map<String, String> scripts = new HashMap<>();
+    private volatile boolean closed = false;
+
+    private InProcessRedis(ServerSocket server) {
+        this.server = server;
+    }
+
+    static InProcessRedis start() {
+
+        try {
+            InProcessRedis redis = new InProcessRedis(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()));
+            Thread acceptor = new Thread(redis::accept, "in-process-redis");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            return redis;
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Can not start the in-process redis", e);
+        }
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        }
+        catch (IOException e) {
+            // Nothing to do
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                Thread connection = new Thread(() -> serve(socket), "in-process-redis-connection");
+                connection.setDaemon(true);
+                connection.start();
+            }
+            catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+            while (!closed) {
+                List<byte[]> command = readCommand(in);
+                synchronized (data) {
+                    execute(command, out);
+                }
+                // Pipelines are answered in a single write
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        }
+        catch (IOException e) {
+            // The client closed the connection
+        }
+    }
+
+    private static List<byte[]> readCommand(InputStream in) throws IOException {
+
+        expect(in, '*');
+        int size = readInt(in);
+        List<byte[]> command = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            expect(in, '$');
+            byte[] bulk = new byte[readInt(in)];
+            int read = 0;
+            while (read < bulk.length) {
+                int n = in.read(bulk, read, bulk.length - read);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                read += n;
+            }
+            in.read();
+            in.read();
+            command.add(bulk);
+        }
+        return command;
+    }
+
+    private static void expect(InputStream in, char type) throws IOException {
+        int c = in.read();
+        if (c < 0) {
+            throw new EOFException();
+        }
+        if (c != type) {
+            throw new IOException("Unexpected " + (char) c + ", expected " + type);
+        }
+    }
+
+    private static int readInt(InputStream in) throws IOException {
+        int value = 0;
+        boolean negative = false;
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c < 0) {
+                throw new EOFException();
+            }
+            if (c == '-') {
+                negative = true;
+            }
+            else {
+                value = value * 10 + (c - '0');
+            }
+        }
+        in.read();
+        return negative ? -value : value;
+    }
+
+    // Keys, fields and members are kept as ISO-8859-1 strings, that map each byte to a char
+    private static String str(byte[] bytes) {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> V get(String key, Class<V> type) {
+        Object value = data.get(key);
+        return type.isInstance(value) ? (V) value : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> V getOrCreate(String key, Class<V> type) {
+        return (V) data.computeIfAbsent(key, k -> {
+            try {
+                return type.newInstance();
+            }
+            catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private void execute(List<byte[]> command, OutputStream out) throws IOException {
+
+        String name = str(command.get(0)).toUpperCase();
+        List<String> args = new ArrayList<>(command.size());
+        for (int i = 1; i < command.size(); i++) {
+            args.add(str(command.get(i)));
+        }
+
+        switch (name) {
+            case "PING":
+                status(out, "PONG");
+                break;
+            case "SELECT":
+            case "ASKING":
+                status(out, "OK");
+                break;
+            case "FLUSHALL":
+            case "FLUSHDB":
+                data.clear();
+                status(out, "OK");
+                break;
+            case "DEL": {
+                long removed = args.stream().filter(key -> data.remove(key) != null).count();
+                integer(out, removed);
+                break;
+            }
+            case "EXISTS":
+                integer(out, args.stream().filter(data::containsKey).count());
+                break;
+            case "SET":
+                data.put(args.get(0), command.get(2));
+                status(out, "OK");
+                break;
+            case "GET":
+                bulk(out, get(args.get(0), byte[].class));
+                break;
+            case "MGET": {
+                List<byte[]> values = new ArrayList<>(args.size());
+                args.forEach(key -> values.add(get(key, byte[].class)));
+                array(out, values);
+                break;
+            }
+            case "HSET":
+            case "HMSET": {
+                HashMap<String, String> hash = getOrCreate(args.get(0), HashMap.class);
+                long added = 0;
+                for (int i = 1; i + 1 < args.size(); i += 2) {
+                    added += hash.put(args.get(i), args.get(i + 1)) == null ? 1 : 0;
+                }
+                if (name.equals("HSET")) {
+                    integer(out, added);
+                }
+                else {
+                    status(out, "OK");
+                }
+                break;
+            }
+            case "HDEL": {
+                Map<String, String> hash = get(args.get(0), HashMap.class);
+                long removed = hash == null ? 0 : args.subList(1, args.size()).stream().filter(field -> hash.remove(field) != null).count();
+                dropIfEmpty(args.get(0), hash);
+                integer(out, removed);
+                break;
+            }
+            case "HGETALL": {
+                Map<String, String> hash = get(args.get(0), HashMap.class);
+                List<byte[]> values = new ArrayList<>();
+                if (hash != null) {
+                    hash.forEach((field, value) -> {
+                        values.add(bytes(field));
+                        values.add(bytes(value));
+                    });
+                }
+                array(out, values);
+                break;
+            }
+            case "HMGET": {
+                Map<String, String> hash = get(args.get(0), HashMap.class);
+                List<byte[]> values = new ArrayList<>();
+                for (String field : args.subList(1, args.size())) {
+                    String value = hash == null ? null : hash.get(field);
+                    values.add(value == null ? null : bytes(value));
+                }
+                array(out, values);
+                break;
+            }
+            case "SADD": {
+                Set<String> set = getOrCreate(args.get(0), HashSet.class);
+                integer(out, args.subList(1, args.size()).stream().filter(set::add).count());
+                break;
+            }
+            case "SREM": {
+                Set<String> set = get(args.get(0), HashSet.class);
+                long removed = set == null ? 0 : args.subList(1, args.size()).stream().filter(set::remove).count();
+                dropIfEmpty(args.get(0), set);
+                integer(out, removed);
+                break;
+            }
+            case "ZADD": {
+                Map<String, Double> zset = getOrCreate(args.get(0), ZSet.class);
+                long added = 0;
+                for (int i = 1; i + 1 < args.size(); i += 2) {
+                    added += zset.put(args.get(i + 1), Double.parseDouble(args.get(i))) == null ? 1 : 0;
+                }
+                integer(out, added);
+                break;
+            }
+            case "EVAL":
+                scripts.put(Script.sha1(str(command.get(1))), str(command.get(1)));
+                eval(str(command.get(1)), command, out);
+                break;
+            case "EVALSHA": {
+                String script = scripts.get(args.get(0));
+                if (script == null) {
+                    out.write(bytes("-NOSCRIPT No matching script. Please use EVAL.\r\n"));
+                }
+                else {
+                    eval(script, command, out);
+                }
+                break;
+            }
+            case "SCRIPT":
+                if (args.get(0).equalsIgnoreCase("LOAD")) {
+                    String sha = Script.sha1(args.get(1));
+                    scripts.put(sha, args.get(1));
+                    bulk(out, bytes(sha));
+                }
+                else {
+                    scripts.clear();
+                    status(out, "OK");
+                }
+                break;
+            case "ZREM": {
+                Map<String, Double> zset = get(args.get(0), ZSet.class);
+                long removed = zset == null ? 0 : args.subList(1, args.size()).stream().filter(member -> zset.remove(member) != null).count();
+                dropIfEmpty(args.get(0), zset);
+                integer(out, removed);
+                break;
+            }
+            default:
+                out.write(bytes("-ERR unknown command '" + name + "' in the in-process redis\r\n"));
+        }
+    }
+
+    /**
+     * Run one of the scripts of the adapter
+     *
+     * @param command EVAL or EVALSHA, the script, the number of keys, the keys and the arguments
+     */
+    private void eval(String script, List<byte[]> command, OutputStream out) throws IOException {
+
+        int size = Integer.parseInt(str(command.get(2)));
+        List<String> keys = new ArrayList<>(size);
+        for (int i = 3; i < 3 + size; i++) {
+            keys.add(str(command.get(i)));
+        }
+
+        if (script.equals(str(Unlink.SCRIPT))) {
+            integer(out, keys.stream().filter(key -> data.remove(key) != null).count());
+        }
+        else if (script.equals(TypeFilter.SCRIPT.source)) {
+            // The whole hash of the accepted classes, the class name of the others
+            Set<String> accepted = new HashSet<>();
+            for (int i = 3 + size; i < command.size(); i++) {
+                accepted.add(str(command.get(i)));
+            }
+            List<Object> result = new ArrayList<>(size);
+            for (String key : keys) {
+                Map<String, String> hash = get(key, HashMap.class);
+                String type = hash == null ? null : hash.get("class");
+                if (type == null) {
+                    result.add(null);
+                }
+                else if (accepted.contains(type)) {
+                    List<byte[]> fields = new ArrayList<>(hash.size() * 2);
+                    hash.forEach((field, value) -> {
+                        fields.add(bytes(field));
+                        fields.add(bytes(value));
+                    });
+                    result.add(fields);
+                }
+                else {
+                    result.add(bytes(type));
+                }
+            }
+            reply(out, result);
+        }
+        else {
+            out.write(bytes("-ERR unsupported script in the in-process redis\r\n"));
+        }
+    }
+
+    private void dropIfEmpty(String key, Object value) {
+        if ((value instanceof Map && ((Map<?, ?>) value).isEmpty()) || (value instanceof Set && ((Set<?>) value).isEmpty())) {
+            data.remove(key);
+        }
+    }
+
+    private static void status(OutputStream out, String status) throws IOException {
+        out.write(bytes("+" + status + "\r\n"));
+    }
+
+    private static void integer(OutputStream out, long value) throws IOException {
+        out.write(bytes(":" + value + "\r\n"));
+    }
+
+    private static void bulk(OutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.write(bytes("$-1\r\n"));
+            return;
+        }
+        out.write(bytes("$" + value.length + "\r\n"));
+        out.write(value);
+        out.write(bytes("\r\n"));
+    }
+
+    /**
+     * Write a bulk string, or an array of replies
+     */
+    private static void reply(OutputStream out, Object value) throws IOException {
+        if (value instanceof List) {
+            out.write(bytes("*" + ((List<?>) value).size() + "\r\n"));
+            for (Object element : (List<?>) value) {
+                reply(out, element);
+            }
+        }
+        else {
+            bulk(out, (byte[]) value);
+        }
+    }
+
+    private static void array(OutputStream out, List<byte[]> values) throws IOException {
+        out.write(bytes("*" + values.size() + "\r\n"));
+        for (byte[] value : values) {
+            bulk(out, value);
+        }
+    }
+
+    // The members of a sorted set and their scores; the order is not needed by the commands above
+    @SuppressWarnings("serial")
+    static class ZSet extends HashMap<String, Double> {
+    }
+}
@@ -0,0 +1,56 @@
+package org.bananarama.crud.redis;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bananarama.crud.redis.entities.GoogleHost;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javaslang.control.Either;
+
+/**
+ * The conversion of a single object, without I/O
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+
+    private GoogleHost host;
+    private Map<String, String> hash;
+    private String redisKey;
+
+    @Setup
+    public void setup() {
+        host = Utils.generateGoogleHost("www.google.com");
+        hash = RedisAdapter.objToMap(host).get();
+        redisKey = hash.get("@key");
+    }
+
+    @Benchmark
+    public Either<Exception, Map<String, String>> objToMap() {
+        return RedisAdapter.objToMap(host);
+    }
+
+    @Benchmark
+    public Either<Exception, GoogleHost> mapToObject() {
+        return RedisAdapter.mapToObject(hash);
+    }
+
+    @Benchmark
+    public String extractKey() {
+        return RedisAdapter.extractKey(redisKey, "host:$");
+    }
+}
@@ -0,0 +1,78 @@
+package org.bananarama.crud.redis;
+
+import java.util.Map;
+
+/**
+ * The count, sum, min and max of a numeric property, computed by {@link RedisAdapter#aggregate(Class, String)}
+ * without reading the instances. The instances that do not have the property, or whose value is not a
+ * number, are not counted
+ */
+public class Aggregates {
+
+    static final Aggregates EMPTY = new Aggregates(0, 0, Double.NaN, Double.NaN);
+
+    private final long count;
+    private final double sum;
+    private final double min;
+    private final double max;
+
+    private Aggregates(long count, double sum, double min, double max) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * @param partial the aggregates of a page, as returned by the script
+     */
+    static Aggregates of(Map<String, String> partial) {
+        long count = Long.parseLong(partial.get("count"));
+        return count == 0 ? EMPTY : new Aggregates(count, Double.parseDouble(partial.get("sum")), 
+                Double.parseDouble(partial.get("min")), Double.parseDouble(partial.get("max")));
+    }
+
+    Aggregates merge(Aggregates other) {
+        if (other.count == 0) {
+            return this;
+        }
+        if (count == 0) {
+            return other;
+        }
+        return new Aggregates(count + other.count, sum + other.sum, Math.min(min, other.min), Math.max(max, other.max));
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the min value, or NaN if no value has been counted
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * @return the max value, or NaN if no value has been counted
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * @return the mean value, or NaN if no value has been counted
+     */
+    public double getMean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    @Override
+    public String toString() {
+        return "Aggregates{count=" + count + ", sum=" + sum + ", min=" + min + ", max=" + max + '}';
+    }
+}
@@ -0,0 +1,126 @@
+package org.bananarama.crud.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * The Lua scripts that aggregate a property over a page of keys, so that only the aggregates
+ * leave the server. Both read the "class" and the property of each key with HMGET; if some 
+ * class names are given, only the instances of these classes are aggregated.
+ *
+ * The scripts are sent with EVALSHA. The functions returned here have the signature of the fetchers, so that the pages are found
+ * by the same scans of the reads: each page is turned into a single record with its partial result.
+ */
+final class Aggregation {
+
+    // KEYS: the instances; ARGV: the field, the accepted class names if any
+    private static final String ACCEPTED = 
+            "local accepted = nil "
+            + "if #ARGV > 1 then "
+            + "  accepted = {} "
+            + "  for i = 2, #ARGV do accepted[ARGV[i]] = true end "
+            + "end ";
+
+    private static final Script STATS = new Script(ACCEPTED
+            + "local count, sum, min, max = 0, 0, nil, nil "
+            + "for _, key in ipairs(KEYS) do "
+            + "  local values = redis.call('HMGET', key, 'class', ARGV[1]) "
+            + "  local n = tonumber(values[2]) "
+            + "  if values[1] and n and (not accepted or accepted[values[1]]) then "
+            + "    count = count + 1 "
+            + "    sum = sum + n "
+            + "    if not min or n < min then min = n end "
+            + "    if not max or n > max then max = n end "
+            + "  end "
+            + "end "
+            + "return {tostring(count), string.format('%.17g', sum), string.format('%.17g', min or 0), string.format('%.17g', max or 0)}");
+
+    private static final Script COUNTS = new Script(ACCEPTED
+            + "local counts = {} "
+            + "for _, key in ipairs(KEYS) do "
+            + "  local values = redis.call('HMGET', key, 'class', ARGV[1]) "
+            + "  if values[1] and values[2] and (not accepted or accepted[values[1]]) then "
+            + "    counts[values[2]] = (counts[values[2]] or 0) + 1 "
+            + "  end "
+            + "end "
+            + "local result = {} "
+            + "for value, n in pairs(counts) do "
+            + "  table.insert(result, value) "
+            + "  table.insert(result, tostring(n)) "
+            + "end "
+            + "return result");
+
+    private Aggregation() {
+    }
+
+    /**
+     * @return the field of the hashes that holds the property
+     * @throws IllegalArgumentException if the property is not stored in the hashes of the class
+     * @throws UnsupportedOperationException if the class is stored as a blob
+     */
+    static String field(EntityCodec codec, String property) {
+
+        if (codec.blob) {
+            throw new UnsupportedOperationException(String.format("%s is stored as a blob, its properties can not be aggregated", codec.type.getName()));
+        }
+        return codec.properties.stream()
+                .filter(p -> p.name.equals(property) && p.companion == null)
+                .map(p -> p.name)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown property " + property + " of " + codec.type.getName()));
+    }
+
+    /**
+     * @param accepted the class names to aggregate, or none to aggregate all the instances
+     * @return the function that computes the count, sum, min and max of the field over a page of keys
+     */
+    static BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> stats(String field, byte[][] accepted) {
+        return (jedis, keys) -> {
+            List<String> reply = eval(jedis, STATS, keys, field, accepted);
+            Map<String, String> partial = new HashMap<>();
+            partial.put("count", reply.get(0));
+            partial.put("sum", reply.get(1));
+            partial.put("min", reply.get(2));
+            partial.put("max", reply.get(3));
+            return Collections.singletonList(partial).iterator();
+        };
+    }
+
+    /**
+     * @param accepted the class names to aggregate, or none to aggregate all the instances
+     * @return the function that counts the instances by value of the field over a page of keys
+     */
+    static BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> counts(String field, byte[][] accepted) {
+        return (jedis, keys) -> {
+            List<String> reply = eval(jedis, COUNTS, keys, field, accepted);
+            Map<String, String> partial = new HashMap<>();
+            for (int i = 0; i + 1 < reply.size(); i += 2) {
+                partial.put(reply.get(i), reply.get(i + 1));
+            }
+            return Collections.singletonList(partial).iterator();
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> eval(Jedis jedis, Script script, List<String> keys, String field, byte[][] accepted) {
+
+        List<byte[]> rawKeys = new ArrayList<>(keys.size());
+        keys.forEach(key -> rawKeys.add(SafeEncoder.encode(key)));
+        List<byte[]> args = new ArrayList<>(accepted.length + 1);
+        args.add(SafeEncoder.encode(field));
+        args.addAll(Arrays.asList(accepted));
+
+        List<String> reply = new ArrayList<>();
+        ((List<byte[]>) script.eval(jedis, rawKeys, args)).forEach(value -> reply.add(SafeEncoder.encode(value)));
+        return reply;
+    }
+}
@@ -0,0 +1,217 @@
+package org.bananarama.crud.redis;
+
+import redis.clients.util.SafeEncoder;
+
+/**
+ * Numbers and booleans formatted to, and parsed from, the ASCII bytes stored in redis without an
+ * intermediate String. The bytes are the same as the text of {@link Object#toString()}, and any text
+ * accepted by the String converters of {@link RedisAdapter} is accepted: what is not handled here,
+ * eg an exponent or a number with many digits, goes through the text conversion.
+ */
+enum AsciiFormat {
+
+    LONG {
+        @Override
+        byte[] format(Object value) {
+            return digits(((Number) value).longValue());
+        }
+
+        @Override
+        Object parse(byte[] bytes) {
+            long value = integer(bytes, Long.MIN_VALUE, Long.MAX_VALUE);
+            return value == INVALID ? null : Long.valueOf(value);
+        }
+    },
+
+    INT {
+        @Override
+        byte[] format(Object value) {
+            return digits(((Number) value).longValue());
+        }
+
+        @Override
+        Object parse(byte[] bytes) {
+            long value = integer(bytes, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            return value == INVALID ? null : Integer.valueOf((int) value);
+        }
+    },
+
+    BOOLEAN {
+        @Override
+        byte[] format(Object value) {
+            return (Boolean) value ? TRUE : FALSE;
+        }
+
+        @Override
+        Object parse(byte[] bytes) {
+            // As Boolean.valueOf: anything but "true", in any case, is false
+            if (bytes.length != TRUE.length) {
+                return Boolean.FALSE;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if ((bytes[i] | 0x20) != TRUE[i]) {
+                    return Boolean.FALSE;
+                }
+            }
+            return Boolean.TRUE;
+        }
+    },
+
+    DOUBLE {
+        @Override
+        byte[] format(Object value) {
+
+            // Double.toString writes the integral values below 10^7 as digits followed by ".0"
+            double d = (Double) value;
+            if (d == Math.rint(d) && Math.abs(d) < 1e7 && Double.doubleToRawLongBits(d) != NEGATIVE_ZERO) {
+                byte[] digits = digits((long) d);
+                byte[] bytes = new byte[digits.length + 2];
+                System.arraycopy(digits, 0, bytes, 0, digits.length);
+                bytes[digits.length] = '.';
+                bytes[digits.length + 1] = '0';
+                return bytes;
+            }
+            return SafeEncoder.encode(value.toString());
+        }
+
+        @Override
+        Object parse(byte[] bytes) {
+
+            // Up to 15 digits and 22 decimals, both the digits and the power of ten are exact doubles,
+            // so their quotient is the correctly rounded value, as Double.parseDouble returns
+            int i = 0;
+            boolean negative = bytes.length > 0 && (bytes[0] == '-' || bytes[0] == '+');
+            if (negative) {
+                negative = bytes[0] == '-';
+                i++;
+            }
+
+            long mantissa = 0;
+            int digits = 0;
+            int decimals = -1;
+            for (; i < bytes.length; i++) {
+                byte b = bytes[i];
+                if (b == '.' && decimals < 0) {
+                    decimals = 0;
+                    continue;
+                }
+                if (b < '0' || b > '9' || ++digits > 15) {
+                    return null;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            }
+            if (digits == 0 || decimals > 22) {
+                return null;
+            }
+
+            double value = decimals > 0 ? mantissa / POWERS[decimals] : mantissa;
+            return negative ? -value : value;
+        }
+    };
+
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+    // Returned for the bytes that are not an integer; Long.MIN_VALUE itself is parsed as text
+    private static final long INVALID = Long.MIN_VALUE;
+    private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+    private static final double[] POWERS = new double[23];
+
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++) {
+            POWERS[i] = POWERS[i - 1] * 10;
+        }
+    }
+
+    /**
+     * @return the ASCII bytes of a value, that must not be modified
+     */
+    abstract byte[] format(Object value);
+
+    /**
+     * @return the value, or null if the bytes must be converted as text
+     */
+    abstract Object parse(byte[] bytes);
+
+    /**
+     * @param typeName the name of the type of a property
+     * @return the format of the values of the type, or null if they are converted as text
+     */
+    static AsciiFormat of(String typeName) {
+        if (typeName == null) {
+            return null;
+        }
+        switch (typeName) {
+            case "long":
+            case "java.lang.Long":
+                return LONG;
+            case "int":
+            case "java.lang.Integer":
+                return INT;
+            case "boolean":
+            case "java.lang.Boolean":
+                return BOOLEAN;
+            case "double":
+            case "java.lang.Double":
+                return DOUBLE;
+            default:
+                return null;
+        }
+    }
+
+    private static byte[] digits(long value) {
+
+        // Counted on the negative value, that also holds Long.MIN_VALUE
+        long negative = value < 0 ? value : -value;
+        int length = value < 0 ? 2 : 1;
+        for (long rest = negative / 10; rest != 0; rest /= 10) {
+            length++;
+        }
+
+        byte[] bytes = new byte[length];
+        for (int i = length - 1; i >= (value < 0 ? 1 : 0); i--) {
+            bytes[i] = (byte) ('0' - negative % 10);
+            negative /= 10;
+        }
+        if (value < 0) {
+            bytes[0] = '-';
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the value of an optionally signed sequence of decimal digits in the range, or {@link #INVALID}
+     */
+    private static long integer(byte[] bytes, long min, long max) {
+
+        int i = 0;
+        boolean negative = false;
+        if (bytes.length > 0 && (bytes[0] == '-' || bytes[0] == '+')) {
+            negative = bytes[0] == '-';
+            i++;
+        }
+        if (i == bytes.length) {
+            return INVALID;
+        }
+
+        // Accumulated as a negative number, as Long.parseLong does, so that the min value fits
+        long limit = negative ? min : -max;
+        long multiplied = limit / 10;
+        long value = 0;
+        for (; i < bytes.length; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || value < multiplied) {
+                return INVALID;
+            }
+            value *= 10;
+            if (value < limit + digit) {
+                return INVALID;
+            }
+            value -= digit;
+        }
+        return negative ? value : -value;
+    }
+}
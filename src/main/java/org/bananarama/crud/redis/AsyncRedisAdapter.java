@@ -0,0 +1,425 @@
+package org.bananarama.crud.redis;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javaslang.control.Either;
+import redis.clients.jedis.Jedis;
+
+/**
+ * Non-blocking counterpart of a {@link RedisAdapter}: create, fromKeys and delete
+ * return a {@link CompletableFuture} instead of waiting for redis.
+ *
+ * The requests are queued and sent by a single I/O thread. Each time it wakes up, the
+ * thread takes all the pending requests and merges the consecutive ones of the same kind,
+ * so that concurrent callers share the same pipelines (and the same keys are read once).
+ * The pipelines are sent as the wrapped adapter does, so a {@link RedisClusterAdapter} can be wrapped too.
+ * The order of the requests is kept: a read submitted after a create sees the created objects.
+ * When some versioned objects are not written, only the creates they belong to fail with a
+ * {@link VersionConflictException}, holding their own keys; the other creates of the pipeline complete.
+ * In the same way a chunk that can not be written fails only the creates that have objects in it,
+ * and the next chunks are written anyway.
+ *
+ * Under a load of many small requests, eg single-key reads from request handlers, the thread can
+ * wait a short linger window after the first request, so that more of them share a pipeline; it
+ * stops waiting as soon as maxRequests are pending. Without a window only the requests already
+ * queued are merged.
+ *
+ * The futures are completed, and the records converted to objects, on the callbacks executor,
+ * so slow callbacks do not delay the I/O. The configuration of the wrapped adapter (connections,
+ * batch sizes, near cache) is used as is.
+ */
+public class AsyncRedisAdapter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncRedisAdapter.class);
+
+    private static final Request SHUTDOWN = new Request(null, null, null, null, null, null);
+
+    private final RedisAdapter adapter;
+    private final Executor callbacks;
+    private final long lingerNanos;
+    private final int maxRequests;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread io;
+    private volatile boolean closed = false;
+
+    /**
+     * Complete the futures on the common {@link ForkJoinPool}
+     */
+    public AsyncRedisAdapter(RedisAdapter adapter) {
+        this(adapter, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param adapter the adapter that provides the connections and the configuration
+     * @param callbacks the executor that completes the futures
+     */
+    public AsyncRedisAdapter(RedisAdapter adapter, Executor callbacks) {
+        this(adapter, callbacks, 0, TimeUnit.NANOSECONDS, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param adapter the adapter that provides the connections and the configuration
+     * @param callbacks the executor that completes the futures
+     * @param linger how long to wait for more requests after the first one, 0 to send them right away
+     * @param maxRequests the max number of requests sent together
+     */
+    public AsyncRedisAdapter(RedisAdapter adapter, Executor callbacks, long linger, TimeUnit unit, int maxRequests) {
+
+        if (linger < 0) {
+            throw new IllegalArgumentException("The linger window can not be negative, got " + linger);
+        }
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("The max number of requests must be greater than 0, got " + maxRequests);
+        }
+
+        this.adapter = adapter;
+        this.callbacks = callbacks;
+        this.lingerNanos = unit.toNanos(linger);
+        this.maxRequests = maxRequests;
+        this.io = new Thread(this::run, "redis-async-io");
+        this.io.setDaemon(true);
+        this.io.start();
+    }
+
+    /**
+     * Store the objects, as {@link org.bananarama.crud.CreateOperation#from(java.util.stream.Stream)} does.
+     * The objects are converted when the method is called; if one of them can not be converted, none is
+     * stored and the future fails with the conversion error
+     */
+    public <T> CompletableFuture<Void> create(Collection<? extends T> data) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        submit(future, () -> {
+            List<EntityCodec> codecs = new ArrayList<>(data.size());
+            List<Map<String, String>> hashes = new ArrayList<>(data.size());
+            for (Object obj : data) {
+                Either<Exception, Map<String, String>> hash = RedisAdapter.objToMap(obj);
+                if (hash.isLeft()) {
+                    throw hash.getLeft();
+                }
+                codecs.add(RedisAdapter.getCodec(obj.getClass()));
+                hashes.add(hash.get());
+            }
+            return new Request(Kind.WRITE, null, codecs, null, hashes, future);
+        });
+        return future;
+    }
+
+    /**
+     * Read the instances with the given ids, as {@link org.bananarama.crud.ReadOperation#fromKeys(List)} does.
+     *
+     * @return the instances found, in the order of the ids
+     */
+    public <T> CompletableFuture<List<T>> fromKeys(Class<T> type, List<?> ids) {
+
+        CompletableFuture<List<Map<String, String>>> records = new CompletableFuture<>();
+        submit(records, () -> {
+            EntityCodec codec = RedisAdapter.getCodec(type);
+            List<String> keys = ids.stream().map(id -> codec.key.regex.replace("$", id.toString())).collect(Collectors.toList());
+            return new Request(Kind.READ, codec, null, keys, null, records);
+        });
+
+        return records.thenApply(found -> adapter.toEntities(type, found.stream(), null).collect(Collectors.toList()));
+    }
+
+    /**
+     * Delete the objects, as {@link org.bananarama.crud.DeleteOperation#from(java.util.stream.Stream)} does.
+     * Only the keys of the objects are computed, when the method is called
+     */
+    public <T> CompletableFuture<Void> delete(Collection<? extends T> data) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        submit(future, () -> {
+            List<EntityCodec> codecs = new ArrayList<>(data.size());
+            List<String> keys = new ArrayList<>(data.size());
+            for (Object obj : data) {
+                EntityCodec codec = RedisAdapter.getCodec(obj.getClass());
+                try {
+                    keys.add(codec.keyOf(obj));
+                }
+                catch (Throwable e) {
+                    throw e instanceof Exception ? (Exception) e : EntityCodec.unchecked(e);
+                }
+                codecs.add(codec);
+            }
+            return new Request(Kind.DELETE, null, codecs, keys, null, future);
+        });
+        return future;
+    }
+
+    private void submit(CompletableFuture<?> future, RequestFactory factory) {
+
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("The adapter has been closed"));
+            return;
+        }
+
+        try {
+            queue.add(factory.create());
+        }
+        catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * The loop of the I/O thread
+     */
+    private void run() {
+
+        List<Request> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+                collect(batch);
+            }
+            catch (InterruptedException e) {
+                if (batch.isEmpty()) {
+                    continue;
+                }
+            }
+
+            running = !batch.remove(SHUTDOWN);
+            if (running && batch.isEmpty()) {
+                continue;
+            }
+
+            execute(batch);
+            batch.clear();
+        }
+
+        // Whatever has been queued while closing
+        queue.drainTo(batch);
+        batch.remove(SHUTDOWN);
+        batch.forEach(r -> fail(r, new IllegalStateException("The adapter has been closed")));
+    }
+
+    /**
+     * Add the pending requests to the batch, waiting for the linger window if any,
+     * until there are maxRequests or the adapter is being closed
+     */
+    private void collect(List<Request> batch) throws InterruptedException {
+
+        queue.drainTo(batch, maxRequests - batch.size());
+
+        long deadline = System.nanoTime() + lingerNanos;
+        while (lingerNanos > 0 && batch.size() < maxRequests && !closed) {
+            long remaining = deadline - System.nanoTime();
+            Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+            queue.drainTo(batch, maxRequests - batch.size());
+        }
+    }
+
+    /**
+     * Send the requests, merging the consecutive ones of the same kind
+     */
+    private void execute(List<Request> batch) {
+
+        int start = 0;
+        while (start < batch.size()) {
+            int end = start + 1;
+            while (end < batch.size() && batch.get(end).kind == batch.get(start).kind) {
+                end++;
+            }
+
+            List<Request> run = batch.subList(start, end);
+            try {
+                switch (run.get(0).kind) {
+                    case READ:
+                        read(run);
+                        break;
+                    case WRITE:
+                        write(run);
+                        break;
+                    case DELETE:
+                        delete(run);
+                        break;
+                }
+            }
+            catch (Exception e) {
+                log.warn("Error executing " + run.size() + " requests", e);
+                run.forEach(r -> fail(r, e));
+            }
+            start = end;
+        }
+    }
+
+    private void read(List<Request> requests) throws Exception {
+
+        // Each distinct key is read once; hashes and blobs are read with different commands
+        Map<Boolean, LinkedHashSet<String>> keys = new HashMap<>();
+        Map<Boolean, EntityCodec> codecs = new HashMap<>();
+        for (Request request : requests) {
+            keys.computeIfAbsent(request.codec.blob, blob -> new LinkedHashSet<>()).addAll(request.keys);
+            codecs.putIfAbsent(request.codec.blob, request.codec);
+        }
+
+        NearCache cache = adapter.getNearCache();
+        Map<String, Map<String, String>> found = new HashMap<>();
+        try (Jedis jedis = adapter.getJedis()) {
+            for (Map.Entry<Boolean, LinkedHashSet<String>> group : keys.entrySet()) {
+                BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher = adapter.instrumented(codecs.get(group.getKey()).type, adapter.fetcher(codecs.get(group.getKey())));
+                if (cache != null) {
+                    fetcher = cache.around(fetcher);
+                }
+
+                Iterator<List<String>> chunks = Batches.chunked(group.getValue().iterator(), adapter.getReadBatchSize());
+                while (chunks.hasNext()) {
+                    fetcher.apply(jedis, chunks.next()).forEachRemaining(record -> found.put(record.get("@key"), record));
+                }
+            }
+        }
+
+        for (Request request : requests) {
+            List<Map<String, String>> records = request.keys.stream()
+                    .map(found::get)
+                    .filter(record -> record != null)
+                    .collect(Collectors.toList());
+            callbacks.execute(() -> request.records.complete(records));
+        }
+    }
+
+    private void write(List<Request> requests) throws Exception {
+
+        // The request of each hash, so that the errors fail only the requests they belong to
+        List<Request> owners = new ArrayList<>();
+        requests.forEach(r -> r.hashes.forEach(hash -> owners.add(r)));
+        Map<Request, List<String>> conflicts = new HashMap<>();
+        Map<Request, Exception> errors = new HashMap<>();
+
+        Iterator<List<Map<String, String>>> chunks = Batches.chunked(requests.stream()
+                .flatMap(r -> r.hashes.stream())
+                .iterator(), adapter.getWriteBatchSize());
+
+        // The aliases are recorded here rather than on the threads of the callers, as the sync creates do
+        requests.stream().flatMap(r -> r.codecs.stream()).map(codec -> codec.type).distinct().forEach(adapter::publish);
+
+        int offset = 0;
+        while (chunks.hasNext()) {
+            List<Map<String, String>> chunk = chunks.next();
+            List<String> keys = chunk.stream().map(hash -> hash.get("@key")).collect(Collectors.toList());
+            try {
+                adapter.writeChunk(chunk);
+            }
+            catch (VersionConflictException e) {
+                for (int i = 0; i < keys.size(); i++) {
+                    if (e.getKeys().contains(keys.get(i))) {
+                        conflicts.computeIfAbsent(owners.get(offset + i), r -> new ArrayList<>()).add(keys.get(i));
+                    }
+                }
+            }
+            catch (Exception e) {
+                // The other chunks are written anyway
+                log.warn("Error writing " + chunk.size() + " objects", e);
+                for (int i = 0; i < keys.size(); i++) {
+                    errors.putIfAbsent(owners.get(offset + i), e);
+                }
+            }
+            finally {
+                adapter.invalidate(keys);
+            }
+            offset += chunk.size();
+        }
+
+        for (Request request : requests) {
+            List<String> conflicted = conflicts.get(request);
+            if (errors.containsKey(request)) {
+                fail(request, errors.get(request));
+            }
+            else if (conflicted != null) {
+                fail(request, new VersionConflictException(conflicted));
+            }
+            else {
+                callbacks.execute(() -> request.done.complete(null));
+            }
+        }
+    }
+
+    private void delete(List<Request> requests) throws Exception {
+
+        List<String> keys = new ArrayList<>();
+        List<EntityCodec> codecs = new ArrayList<>();
+        requests.forEach(r -> {
+            keys.addAll(r.keys);
+            codecs.addAll(r.codecs);
+        });
+
+        int batchSize = adapter.getWriteBatchSize();
+        for (int start = 0; start < keys.size(); start += batchSize) {
+            int end = Math.min(start + batchSize, keys.size());
+            List<String> chunk = keys.subList(start, end);
+            adapter.discardPending(chunk);
+            adapter.deleteChunk(codecs.subList(start, end), chunk);
+            adapter.invalidate(chunk);
+        }
+        requests.forEach(r -> callbacks.execute(() -> r.done.complete(null)));
+    }
+
+    private void fail(Request request, Exception e) {
+        CompletableFuture<?> future = request.records != null ? request.records : request.done;
+        callbacks.execute(() -> future.completeExceptionally(e));
+    }
+
+    /**
+     * Stop accepting requests. The requests already queued are sent, then the I/O thread stops
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            queue.add(SHUTDOWN);
+        }
+    }
+
+    private enum Kind {
+        READ, WRITE, DELETE
+    }
+
+    @FunctionalInterface
+    private interface RequestFactory {
+        Request create() throws Exception;
+    }
+
+    private static class Request {
+
+        final Kind kind;
+        final EntityCodec codec;
+        final List<EntityCodec> codecs;
+        final List<String> keys;
+        final List<Map<String, String>> hashes;
+        final CompletableFuture<List<Map<String, String>>> records;
+        final CompletableFuture<Void> done;
+
+        @SuppressWarnings("unchecked")
+        Request(Kind kind, EntityCodec codec, List<EntityCodec> codecs, List<String> keys, List<Map<String, String>> hashes, CompletableFuture<?> future) {
+            this.kind = kind;
+            this.codec = codec;
+            this.codecs = codecs;
+            this.keys = keys;
+            this.hashes = hashes;
+            this.records = kind == Kind.READ ? (CompletableFuture<List<Map<String, String>>>) future : null;
+            this.done = kind == Kind.READ ? null : (CompletableFuture<Void>) future;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.bananarama.crud.redis;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Helpers to split a (possibly lazy) sequence of elements in fixed-size chunks,
+ * that are then sent to redis in a single pipeline
+ */
+final class Batches {
+
+    // The initial capacity of the chunks limited by weight, that are often smaller than their max size
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private Batches() {
+    }
+
+    /**
+     * Group the elements of an iterator in lists of at most size elements.
+     * The source is consumed lazily, one chunk at time
+     *
+     * @param source the elements to group
+     * @param size the max number of elements in each chunk
+     * @return an iterator over the chunks
+     */
+    static <E> Iterator<List<E>> chunked(Iterator<E> source, int size) {
+
+        if (size < 1) {
+            throw new IllegalArgumentException("The size of a chunk must be greater than 0, got " + size);
+        }
+
+        return new Iterator<List<E>>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public List<E> next() {
+                if (!source.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                List<E> chunk = new ArrayList<>(size);
+                while (chunk.size() < size && source.hasNext()) {
+                    chunk.add(source.next());
+                }
+                return chunk;
+            }
+        };
+    }
+
+    /**
+     * Group the elements of an iterator in lists of at most size elements, whose total weight
+     * is at most maxWeight. An element heavier than maxWeight is returned in a chunk of its own.
+     * The source is consumed lazily, one chunk at time
+     *
+     * @param source the elements to group
+     * @param size the max number of elements in each chunk
+     * @param maxWeight the max total weight of each chunk
+     * @param weight the weight of an element
+     * @return an iterator over the chunks
+     */
+    static <E> Iterator<List<E>> chunked(Iterator<E> source, int size, long maxWeight, ToLongFunction<? super E> weight) {
+
+        if (size < 1) {
+            throw new IllegalArgumentException("The size of a chunk must be greater than 0, got " + size);
+        }
+
+        return new Iterator<List<E>>() {
+
+            // The element that did not fit in the previous chunk
+            private E next;
+            private long nextWeight;
+            private boolean pending = false;
+
+            @Override
+            public boolean hasNext() {
+                return pending || source.hasNext();
+            }
+
+            @Override
+            public List<E> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                List<E> chunk = new ArrayList<>(Math.min(size, DEFAULT_CAPACITY));
+                long total = 0;
+                while (chunk.size() < size && (pending || source.hasNext())) {
+                    if (!pending) {
+                        next = source.next();
+                        nextWeight = weight.applyAsLong(next);
+                    }
+                    if (!chunk.isEmpty() && total + nextWeight > maxWeight) {
+                        pending = true;
+                        break;
+                    }
+                    chunk.add(next);
+                    total += nextWeight;
+                    pending = false;
+                    next = null;
+                }
+                return chunk;
+            }
+        };
+    }
+
+    /**
+     * Lazily apply a function to the elements of an iterator
+     */
+    static <E, R> Iterator<R> map(Iterator<E> source, Function<? super E, ? extends R> mapper) {
+        return new Iterator<R>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public R next() {
+                return mapper.apply(source.next());
+            }
+        };
+    }
+}
@@ -0,0 +1,145 @@
+package org.bananarama.crud.redis;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import redis.clients.util.SafeEncoder;
+
+/**
+ * A hash whose values are kept as the UTF-8 bytes read from redis, or written to it, and decoded
+ * to Strings only when they are asked for. {@link EntityCodec} formats and parses the numbers and
+ * booleans directly to and from the bytes, see {@link AsciiFormat}, and {@link HashFormat} sends
+ * and receives the bytes as they are: the values that no one reads as text are never decoded.
+ *
+ * A value is decoded once, the first time it is read as a String. As a {@link HashMap}, the hash
+ * is not thread safe; the arrays it holds can be shared and must not be modified.
+ */
+class BinaryHash extends AbstractMap<String, String> {
+
+    // field -> byte[] or String
+    private final HashMap<String, Object> values;
+
+    BinaryHash(int capacity) {
+        this.values = new HashMap<>(capacity);
+    }
+
+    /**
+     * @return the bytes of a value, or a String if it has been set or read as text, or null if there is no such field
+     */
+    Object raw(String field) {
+        return values.get(field);
+    }
+
+    /**
+     * @return the UTF-8 bytes of a value, or null if there is no such field
+     */
+    byte[] bytes(String field) {
+        return bytes(values.get(field));
+    }
+
+    void putBytes(String field, byte[] value) {
+        values.put(field, value);
+    }
+
+    /**
+     * Iterate the fields with the bytes of their values, without decoding them
+     */
+    void forEachBytes(BiConsumer<String, byte[]> action) {
+        values.forEach((field, value) -> action.accept(field, bytes(value)));
+    }
+
+    @Override
+    public String get(Object field) {
+        Object value = values.get(field);
+        if (value instanceof byte[]) {
+            String text = SafeEncoder.encode((byte[]) value);
+            values.put((String) field, text);
+            return text;
+        }
+        return (String) value;
+    }
+
+    @Override
+    public String put(String field, String value) {
+        return text(values.put(field, value));
+    }
+
+    @Override
+    public String remove(Object field) {
+        return text(values.remove(field));
+    }
+
+    @Override
+    public boolean containsKey(Object field) {
+        return values.containsKey(field);
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public void clear() {
+        values.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                Iterator<Map.Entry<String, Object>> entries = values.entrySet().iterator();
+                return new Iterator<Map.Entry<String, String>>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        Map.Entry<String, Object> entry = entries.next();
+                        if (entry.getValue() instanceof byte[]) {
+                            entry.setValue(SafeEncoder.encode((byte[]) entry.getValue()));
+                        }
+                        return new SimpleEntry<String, String>(entry.getKey(), (String) entry.getValue()) {
+
+                            private static final long serialVersionUID = 1L;
+
+                            @Override
+                            public String setValue(String value) {
+                                entry.setValue(value);
+                                return super.setValue(value);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        entries.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.size();
+            }
+        };
+    }
+
+    private static byte[] bytes(Object value) {
+        return value == null || value instanceof byte[] ? (byte[]) value : SafeEncoder.encode((String) value);
+    }
+
+    private static String text(Object value) {
+        return value == null || value instanceof String ? (String) value : SafeEncoder.encode((byte[]) value);
+    }
+}
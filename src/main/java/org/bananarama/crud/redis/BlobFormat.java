@@ -0,0 +1,202 @@
+package org.bananarama.crud.redis;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * The binary layout of the instances of the classes stored as 
+ * {@link org.bananarama.crud.redis.annotations.RedisStorage.Mode#BLOB}.
+ *
+ * A blob is made of a format version byte, the 4 bytes of the schema fingerprint of the 
+ * class, the class name, or its {@link org.bananarama.crud.redis.annotations.RedisType} alias, and then the values of the stored properties, in the order of 
+ * {@link EntityCodec#stored}. Strings are prefixed by their length as a varint; 
+ * the length of a value is incremented by one, so that 0 marks a null.
+ */
+final class BlobFormat {
+
+    private static final Logger log = LoggerFactory.getLogger(BlobFormat.class);
+    
+    private static final int VERSION = 1;
+
+    private BlobFormat() {
+    }
+
+    /**
+     * @param codec the codec of the class of the instance
+     * @param hash the instance converted to a map
+     */
+    static byte[] encode(EntityCodec codec, Map<String, String> hash) {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(VERSION);
+        out.write(codec.schema >>> 24);
+        out.write(codec.schema >>> 16);
+        out.write(codec.schema >>> 8);
+        out.write(codec.schema);
+        writeString(out, codec.discriminator, 0);
+
+        for (EntityCodec.Property p : codec.stored) {
+            String value = hash.get(p.name);
+            if (value == null) {
+                writeVarint(out, 0);
+            }
+            else {
+                writeString(out, value, 1);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Convert a blob of a class whose alias, if any, is known by this client
+     *
+     * @see #decode(byte[], String, Types)
+     */
+    static Map<String, String> decode(byte[] blob, String redisKey) throws Exception {
+        return decode(blob, redisKey, RedisAdapter::classForName);
+    }
+
+    /**
+     * Convert a blob in the same map that is read from a hash, with the class name and the @key
+     *
+     * @param types resolves the class name or alias of the blob, see {@link TypeRegistry}
+     * @throws IllegalStateException if the blob was written by a different version of the class
+     */
+    static Map<String, String> decode(byte[] blob, String redisKey, Types types) throws Exception {
+
+        if (blob.length < 5 || blob[0] != VERSION) {
+            throw new IllegalStateException("The value at " + redisKey + " is not a blob written by this adapter");
+        }
+        int schema = ((blob[1] & 0xff) << 24) | ((blob[2] & 0xff) << 16) | ((blob[3] & 0xff) << 8) | (blob[4] & 0xff);
+        int[] position = { 5 };
+        
+        String className = readString(blob, position, 0);
+        EntityCodec codec = RedisAdapter.getCodec(types.resolve(className));
+        if (codec.schema != schema) {
+            throw new IllegalStateException(String.format("The blob at %s was written by a different version of %s", redisKey, className));
+        }
+
+        Map<String, String> hash = new HashMap<>(codec.stored.size() * 2 + 4);
+        for (EntityCodec.Property p : codec.stored) {
+            String value = readString(blob, position, 1);
+            if (value != null) {
+                hash.put(p.name, value);
+            }
+        }
+        hash.put("class", className);
+        hash.put("@key", redisKey);
+        return hash;
+    }
+
+    /**
+     * Read the blobs at the given keys with a single MGET. Keys that do not exist are skipped;
+     * blobs that can not be decoded are logged and skipped
+     *
+     * @see PipelinedHashReader#fetch(Jedis, List)
+     */
+    static Iterator<Map<String, String>> fetch(Jedis jedis, List<String> keys) {
+
+        byte[][] raw = new byte[keys.size()][];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = SafeEncoder.encode(keys.get(i));
+        }
+        List<byte[]> blobs = keys.isEmpty() ? new ArrayList<>() : jedis.mget(raw);
+
+        return new Iterator<Map<String, String>>() {
+
+            private int position = 0;
+            private Map<String, String> next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && position < blobs.size()) {
+                    byte[] blob = blobs.get(position);
+                    if (blob != null) {
+                        try {
+                            next = decode(blob, keys.get(position), name -> TypeRegistry.resolve(name, jedis));
+                        }
+                        catch (Exception e) {
+                            log.warn("Can not decode the blob at " + keys.get(position), e);
+                        }
+                    }
+                    position++;
+                }
+                return next != null;
+            }
+
+            @Override
+            public Map<String, String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                Map<String, String> result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    @FunctionalInterface
+    interface Types {
+        Class<?> resolve(String name) throws ClassNotFoundException;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value, int offset) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length + offset);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * @return the string at the position, or null if the length is 0 and the offset is 1
+     */
+    private static String readString(byte[] blob, int[] position, int offset) {
+        int length = readVarint(blob, position) - offset;
+        if (length < 0) {
+            return null;
+        }
+        if (position[0] + length > blob.length) {
+            throw new IllegalStateException("Truncated blob");
+        }
+
+        String value = new String(blob, position[0], length, StandardCharsets.UTF_8);
+        position[0] += length;
+        return value;
+    }
+
+    private static int readVarint(byte[] blob, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position[0] >= blob.length) {
+                throw new IllegalStateException("Truncated blob");
+            }
+            byte b = blob[position[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint in blob");
+    }
+}
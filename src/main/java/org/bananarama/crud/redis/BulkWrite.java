@@ -0,0 +1,187 @@
+package org.bananarama.crud.redis;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.bananarama.crud.redis.RedisMetrics.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A create or an update of a stream of objects, written one chunk at a time. A chunk that
+ * fails is reported and the write goes on with the next one. The chunks are written by the
+ * calling thread, or concurrently as set by {@link ParallelWrites}
+ */
+class BulkWrite {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkWrite.class);
+
+    // Shared by all the adapters; the threads wait for the replies of redis
+    private static final ExecutorService executor = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "redis-bulk-write");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Sends a chunk of hashes, see {@link RedisAdapter#writeChunk(List)}
+     */
+    @FunctionalInterface
+    interface ChunkWriter {
+        void write(List<Map<String, String>> hashes) throws Exception;
+    }
+
+    private final Operation operation;
+    private final Class<?> type;
+    private final ChunkWriter writer;
+    private final RedisMetrics metrics;
+    private final ChunkedWrites.Listener listener;
+    private final Consumer<List<String>> invalidate;
+
+    private final AtomicInteger chunks = new AtomicInteger();
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicReference<Exception> error = new AtomicReference<>();
+
+    /**
+     * @param listener told the outcome of each chunk, or null
+     * @param invalidate drops the written keys from the near cache
+     */
+    BulkWrite(Operation operation, Class<?> type, ChunkWriter writer, RedisMetrics metrics, ChunkedWrites.Listener listener, Consumer<List<String>> invalidate) {
+        this.operation = operation;
+        this.type = type;
+        this.writer = writer;
+        this.metrics = metrics;
+        this.listener = listener;
+        this.invalidate = invalidate;
+    }
+
+    /**
+     * Write the chunks on the calling thread
+     */
+    void run(Iterator<List<Map<String, String>>> source) {
+        try {
+            while (source.hasNext()) {
+                send(source.next());
+            }
+        }
+        catch (RuntimeException e) {
+            failed(e, "Error reading the objects of {} to write");
+        }
+    }
+
+    /**
+     * Pull the objects on the calling thread, convert and write them on other threads
+     *
+     * @param source the chunks of objects
+     * @param converter converts an object to a hash, or returns null if the object must be skipped
+     * @param split splits the hashes of a chunk of objects in the chunks that are sent
+     */
+    <T> void run(Iterator<List<T>> source, Function<T, Map<String, String>> converter, 
+            Function<List<Map<String, String>>, Iterator<List<Map<String, String>>>> split, ParallelWrites parallel) {
+        
+        Semaphore running = new Semaphore(parallel.getConnections());
+        try {
+            while (true) {
+                running.acquire();
+                List<T> objects;
+                try {
+                    if (!source.hasNext()) {
+                        running.release();
+                        break;
+                    }
+                    objects = source.next();
+                }
+                catch (RuntimeException e) {
+                    running.release();
+                    failed(e, "Error reading the objects of {} to write");
+                    break;
+                }
+                
+                CompletableFuture
+                        .supplyAsync(() -> objects.stream().map(converter).filter(hash -> hash != null).collect(Collectors.toList()), parallel.getConversions())
+                        .thenAcceptAsync(hashes -> split.apply(hashes).forEachRemaining(this::send), executor)
+                        .whenComplete((nothing, e) -> {
+                            if (e != null) {
+                                Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                                failed(cause instanceof Exception ? (Exception) cause : new IllegalStateException(cause), "Error converting the objects of {}");
+                            }
+                            running.release();
+                        });
+            }
+            
+            // Wait for the last chunks
+            running.acquire(parallel.getConnections());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed(e, "Interrupted while writing the objects of {}");
+        }
+    }
+
+    /**
+     * Write a chunk, reporting its outcome; the method is thread-safe
+     */
+    private void send(List<Map<String, String>> chunk) {
+
+        if (chunk.isEmpty()) {
+            return;
+        }
+        
+        int i = chunks.getAndIncrement();
+        List<String> keys = chunk.stream().map(hash -> hash.get("@key")).collect(Collectors.toList());
+        long bytes = metrics != RedisMetrics.NONE || listener != null ? Payloads.ofHashes(chunk) : 0;
+        if (metrics != RedisMetrics.NONE) {
+            metrics.pipeline(operation, chunk.size());
+            metrics.bytes(operation, bytes, 0);
+        }
+
+        try {
+            writer.write(chunk);
+            written.addAndGet(chunk.size());
+            if (listener != null) {
+                listener.written(i, keys, bytes);
+            }
+        }
+        catch (Exception e) {
+            error.compareAndSet(null, e);
+            log.warn("Error writing a chunk of {} objects of {}", chunk.size(), type.getName(), e);
+            if (listener != null) {
+                listener.failed(i, keys, e);
+            }
+        }
+        finally {
+            // Some keys of a failed chunk may have been written
+            invalidate.accept(keys);
+        }
+    }
+
+    private void failed(Exception e, String message) {
+        error.compareAndSet(null, e);
+        log.warn(message, type.getName(), e);
+    }
+
+    /**
+     * @return the number of objects in the chunks that have been written
+     */
+    int getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return the first error of the write, or null
+     */
+    Exception getError() {
+        return error.get();
+    }
+}
@@ -0,0 +1,105 @@
+package org.bananarama.crud.redis;
+
+import java.util.List;
+
+import com.googlecode.cqengine.query.option.QueryOptions;
+
+/**
+ * The size of the pipelines sent by {@link RedisAdapter#create(Class)} and {@link RedisAdapter#update(Class)},
+ * and a listener that is told the outcome of each of them.
+ *
+ * The source stream is consumed one chunk at a time: a chunk is closed when it holds
+ * maxObjects objects or when its payload reaches maxBytes, and the next objects are pulled
+ * from the stream only after the chunk has been written. A chunk that fails is reported to
+ * the listener and the write goes on with the next one, so large imports run in bounded
+ * memory and a single error does not lose the rest of the stream.
+ *
+ * Pass an instance in the {@link QueryOptions} of the write; without it the chunks hold
+ * {@link RedisAdapter#getWriteBatchSize()} objects and the failures are only logged.
+ *
+ * <pre>
+ * ChunkedWrites chunks = new ChunkedWrites(1000, 4 * 1024 * 1024, new ChunkedWrites.Listener() {
+ *     public void failed(int chunk, List&lt;String&gt; keys, Exception error) {
+ *         retry.addAll(keys);
+ *     }
+ * });
+ * banana.create(Host.class).from(hosts, QueryFactory.queryOptions(chunks));
+ * </pre>
+ */
+public class ChunkedWrites {
+
+    /**
+     * Told the outcome of each chunk, by the thread that runs the write. All the methods do nothing by default
+     */
+    public interface Listener {
+
+        /**
+         * @param chunk the number of the chunk in the write, starting from 0
+         * @param keys the redis keys of the objects in the chunk
+         * @param bytes the payload of the chunk, see {@link RedisMetrics#bytes(RedisMetrics.Operation, long, long)}
+         */
+        default void written(int chunk, List<String> keys, long bytes) {
+        }
+
+        /**
+         * @param chunk the number of the chunk in the write, starting from 0
+         * @param keys the redis keys of the objects in the chunk; some of them may have been written
+         * @param error the cause of the failure
+         */
+        default void failed(int chunk, List<String> keys, Exception error) {
+        }
+    }
+
+    private static final Listener NONE = new Listener() {
+    };
+
+    private final int maxObjects;
+    private final long maxBytes;
+    private final Listener listener;
+
+    /**
+     * @param maxObjects the max number of objects in a chunk
+     * @param maxBytes the max payload of a chunk; a single object larger than this is sent alone
+     */
+    public ChunkedWrites(int maxObjects, long maxBytes) {
+        this(maxObjects, maxBytes, NONE);
+    }
+
+    /**
+     * @param maxObjects the max number of objects in a chunk
+     * @param maxBytes the max payload of a chunk; a single object larger than this is sent alone
+     * @param listener told the outcome of each chunk
+     */
+    public ChunkedWrites(int maxObjects, long maxBytes, Listener listener) {
+
+        if (maxObjects < 1) {
+            throw new IllegalArgumentException("The size of a chunk must be greater than 0, got " + maxObjects);
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("The payload of a chunk must be greater than 0, got " + maxBytes);
+        }
+
+        this.maxObjects = maxObjects;
+        this.maxBytes = maxBytes;
+        this.listener = listener == null ? NONE : listener;
+    }
+
+    /**
+     * @return the chunks in the options, or null
+     */
+    static ChunkedWrites of(QueryOptions options) {
+        return options == null ? null : options.get(ChunkedWrites.class);
+    }
+
+    public int getMaxObjects() {
+        return maxObjects;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    Listener getListener() {
+        return listener;
+    }
+}
@@ -0,0 +1,74 @@
+package org.bananarama.crud.redis;
+
+import java.util.List;
+import java.util.Map;
+
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+
+/**
+ * A pipeline on a node of a cluster, that reports the keys served by other nodes.
+ *
+ * {@link #sync()} throws the first MOVED or ASK redirection found among the replies,
+ * so that the caller can send the pipeline again to the right node; the other errors
+ * are thrown as usual by {@link Response#get()}. In asking mode each read is preceded
+ * by ASKING, to follow the keys of a slot that is being imported by the node.
+ */
+class ClusterPipeline extends Pipeline {
+
+    private final boolean asking;
+
+    ClusterPipeline(Jedis jedis, boolean asking) {
+        setClient(jedis.getClient());
+        this.asking = asking;
+    }
+
+    @Override
+    public void sync() {
+        for (Object reply : syncAndReturnAll()) {
+            if (reply instanceof JedisRedirectionException) {
+                throw (JedisRedirectionException) reply;
+            }
+        }
+    }
+
+    @Override
+    public Response<Map<String, String>> hgetAll(String key) {
+        asking();
+        return super.hgetAll(key);
+    }
+
+    @Override
+    public Response<Map<byte[], byte[]>> hgetAll(byte[] key) {
+        asking();
+        return super.hgetAll(key);
+    }
+
+    @Override
+    public Response<List<String>> hmget(String key, String... fields) {
+        asking();
+        return super.hmget(key, fields);
+    }
+
+    @Override
+    public Response<List<byte[]>> hmget(byte[] key, byte[]... fields) {
+        asking();
+        return super.hmget(key, fields);
+    }
+
+    @Override
+    public Response<byte[]> get(byte[] key) {
+        asking();
+        return super.get(key);
+    }
+
+    private void asking() {
+        if (asking) {
+            getClient("").asking();
+            getResponse(BuilderFactory.STRING);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package org.bananarama.crud.redis;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.bananarama.crud.redis.EntityCodec.Companion;
+import org.bananarama.crud.redis.EntityCodec.Property;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+/**
+ * The lists, sets and maps of the instances, that are stored in their own redis list, set
+ * or hash instead of the hash of the instance. The hash holds the companion key in the field
+ * of the property, or nothing if the collection is null.
+ *
+ * The companion key contains the key of the instance as a hash tag, or its hash tag if it has
+ * one, so that in a cluster the collections are in the same slot as their instance; and it starts
+ * with {@link #PREFIX}, so that it is not matched by the patterns that scan the instances.
+ *
+ * The collections read from redis are proxies, that read their key the first time they are used.
+ * A proxy that has not been read is not written again by create or update.
+ */
+final class Companions {
+
+    static final String PREFIX = "sub:";
+
+    private Companions() {
+    }
+
+    /**
+     * @return the companion key of a property of the instance at the given key, eg "sub:{host:a}:tags"
+     */
+    static String key(String redisKey, String property) {
+
+        int open = redisKey.indexOf('{');
+        int close = open < 0 ? -1 : redisKey.indexOf('}', open + 1);
+        boolean tagged = close > open + 1;
+
+        return PREFIX + (tagged ? redisKey : "{" + redisKey + "}") + ":" + property;
+    }
+
+    /**
+     * @return the companion keys of all the collections of the class, for the instance at the given key
+     */
+    static List<String> keys(EntityCodec codec, String redisKey) {
+        List<String> keys = new ArrayList<>(codec.companions.size());
+        codec.companions.forEach(p -> keys.add(key(redisKey, p.name)));
+        return keys;
+    }
+
+    /**
+     * @return the companion keys found in a stored hash, ie the collections that are not null
+     */
+    static List<String> stored(EntityCodec codec, Map<String, String> hash) {
+        List<String> keys = new ArrayList<>(codec.companions.size());
+        for (Property p : codec.companions) {
+            if (hash.containsKey(p.name)) {
+                keys.add(key(hash.get("@key"), p.name));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Queue the commands that replace the collections of an instance with their current values,
+     * and delete the ones that are null. Nothing is written for the hashes that have been copied,
+     * as they have lost the collections
+     */
+    static void write(Pipeline pipeline, EntityCodec codec, Map<String, String> hash) {
+
+        if (codec.companions.isEmpty() || !(hash instanceof EntityCodec.Encoded)) {
+            return;
+        }
+
+        Map<String, Object> values = ((EntityCodec.Encoded) hash).companions;
+        String redisKey = hash.get("@key");
+        for (Property p : codec.companions) {
+            String key = key(redisKey, p.name);
+            Object value = values.get(p.name);
+
+            // Unchanged, as it has not even been read
+            if (value instanceof Lazy && !((Lazy) value).isLoaded() && ((Lazy) value).key().equals(key)) {
+                continue;
+            }
+
+            pipeline.del(key);
+            if (value instanceof Map && !((Map<?, ?>) value).isEmpty()) {
+                Map<String, String> fields = new HashMap<>();
+                ((Map<?, ?>) value).forEach((k, v) -> fields.put(String.valueOf(k), String.valueOf(v)));
+                pipeline.hmset(key, fields);
+            }
+            else if (value instanceof Collection && !((Collection<?>) value).isEmpty()) {
+                String[] elements = ((Collection<?>) value).stream().map(String::valueOf).toArray(String[]::new);
+                if (p.companion.kind == Companion.Kind.SET) {
+                    pipeline.sadd(key, elements);
+                }
+                else {
+                    pipeline.rpush(key, elements);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param connections the connection to the node that serves a key, or null if the collection can not be read
+     * @return a proxy that reads the collection at the key the first time it is used
+     */
+    static Object lazy(Companion companion, String key, Function<String, Jedis> connections) {
+        switch (companion.kind) {
+            case LIST:
+                return new LazyList<>(key, connections, companion);
+            case SET:
+                return new LazySet<>(key, connections, companion);
+            default:
+                return new LazyMap<>(key, connections, companion);
+        }
+    }
+
+    /**
+     * A collection read from a companion key
+     */
+    interface Lazy {
+
+        String key();
+
+        boolean isLoaded();
+    }
+
+    private static Jedis connect(String key, Function<String, Jedis> connections) {
+        if (connections == null) {
+            throw new IllegalStateException("The collection at " + key + " can not be read, the instance has not been read by an adapter");
+        }
+        return connections.apply(key);
+    }
+
+    private static final class LazyList<E> extends AbstractList<E> implements Lazy, RandomAccess {
+
+        private final String key;
+        private final Function<String, Jedis> connections;
+        private final Companion companion;
+        private List<E> list;
+
+        LazyList(String key, Function<String, Jedis> connections, Companion companion) {
+            this.key = key;
+            this.connections = connections;
+            this.companion = companion;
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized List<E> list() {
+            if (list == null) {
+                try (Jedis jedis = connect(key, connections)) {
+                    List<E> elements = new ArrayList<>();
+                    jedis.lrange(key, 0, -1).forEach(e -> elements.add((E) companion.elements.apply(e)));
+                    list = elements;
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public String key() {
+            return key;
+        }
+
+        @Override
+        public synchronized boolean isLoaded() {
+            return list != null;
+        }
+
+        @Override
+        public E get(int index) {
+            return list().get(index);
+        }
+
+        @Override
+        public int size() {
+            return list().size();
+        }
+
+        @Override
+        public E set(int index, E element) {
+            return list().set(index, element);
+        }
+
+        @Override
+        public void add(int index, E element) {
+            list().add(index, element);
+        }
+
+        @Override
+        public E remove(int index) {
+            return list().remove(index);
+        }
+    }
+
+    private static final class LazySet<E> extends AbstractSet<E> implements Lazy {
+
+        private final String key;
+        private final Function<String, Jedis> connections;
+        private final Companion companion;
+        private Set<E> set;
+
+        LazySet(String key, Function<String, Jedis> connections, Companion companion) {
+            this.key = key;
+            this.connections = connections;
+            this.companion = companion;
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized Set<E> set() {
+            if (set == null) {
+                try (Jedis jedis = connect(key, connections)) {
+                    Set<E> elements = new LinkedHashSet<>();
+                    jedis.smembers(key).forEach(e -> elements.add((E) companion.elements.apply(e)));
+                    set = elements;
+                }
+            }
+            return set;
+        }
+
+        @Override
+        public String key() {
+            return key;
+        }
+
+        @Override
+        public synchronized boolean isLoaded() {
+            return set != null;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return set().iterator();
+        }
+
+        @Override
+        public int size() {
+            return set().size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return set().contains(o);
+        }
+
+        @Override
+        public boolean add(E e) {
+            return set().add(e);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return set().remove(o);
+        }
+    }
+
+    private static final class LazyMap<K, V> extends AbstractMap<K, V> implements Lazy {
+
+        private final String key;
+        private final Function<String, Jedis> connections;
+        private final Companion companion;
+        private Map<K, V> map;
+
+        LazyMap(String key, Function<String, Jedis> connections, Companion companion) {
+            this.key = key;
+            this.connections = connections;
+            this.companion = companion;
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized Map<K, V> map() {
+            if (map == null) {
+                try (Jedis jedis = connect(key, connections)) {
+                    Map<K, V> entries = new LinkedHashMap<>();
+                    jedis.hgetAll(key).forEach((k, v) -> entries.put((K) companion.elements.apply(k), (V) companion.values.apply(v)));
+                    map = entries;
+                }
+            }
+            return map;
+        }
+
+        @Override
+        public String key() {
+            return key;
+        }
+
+        @Override
+        public synchronized boolean isLoaded() {
+            return map != null;
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return map().entrySet();
+        }
+
+        @Override
+        public V get(Object k) {
+            return map().get(k);
+        }
+
+        @Override
+        public boolean containsKey(Object k) {
+            return map().containsKey(k);
+        }
+
+        @Override
+        public V put(K k, V v) {
+            return map().put(k, v);
+        }
+
+        @Override
+        public V remove(Object k) {
+            return map().remove(k);
+        }
+    }
+}
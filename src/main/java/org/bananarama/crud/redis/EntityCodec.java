@@ -0,0 +1,576 @@
+package org.bananarama.crud.redis;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+import org.bananarama.crud.redis.annotations.RedisIndex;
+import org.bananarama.crud.redis.annotations.RedisRangeIndex;
+import org.bananarama.crud.redis.annotations.RedisStorage;
+import org.bananarama.crud.redis.annotations.RedisVersion;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * The compiled form of the mapping between a class and a redis hash.
+ *
+ * The bean properties of the class are introspected only once, when the codec is
+ * built; getters, setters, the no-args constructor and the field annotated with
+ * {@link org.bananarama.crud.redis.annotations.RedisKey} are bound to
+ * {@link MethodHandle}s, and each property gets its string converter ahead of time.
+ * Codecs are immutable and can be shared between threads.
+ *
+ * The properties of nested beans are flattened in the same hash, with dotted names
+ * (eg "address.city"); lists, sets and maps are stored in companion keys, see {@link Companions}.
+ */
+class EntityCodec {
+
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+    final Class<?> type;
+    // The value of the "class" field: the alias of the class, or its name
+    final String discriminator;
+    final InstanceKey key;
+    final List<Property> properties;
+    final List<Property> indexes;
+    final List<RangeIndex> ranges;
+    final List<Property> companions;
+    // null if the instances do not expire
+    final Expiration expiration;
+    // null if the class is not versioned
+    final Property version;
+
+    // Only for the classes stored as blobs: the properties that are written, and a fingerprint of their names
+    final boolean blob;
+    final List<Property> stored;
+    final int schema;
+
+    private final MethodHandle constructor;
+    private final MethodHandle keyGetter;
+    private final MethodHandle keySetter;
+
+    private EntityCodec(Class<?> type, InstanceKey key, List<Property> properties, List<Property> indexes, List<RangeIndex> ranges,
+            Property version, boolean blob, Expiration expiration, MethodHandle constructor, MethodHandle keyGetter, MethodHandle keySetter) {
+        this.type = type;
+        this.discriminator = TypeRegistry.register(type);
+        this.key = key;
+        this.properties = properties;
+        this.indexes = indexes;
+        this.ranges = ranges;
+        this.companions = properties.stream().filter(p -> p.companion != null).collect(Collectors.toList());
+        this.blob = blob;
+        this.expiration = expiration;
+        this.version = version;
+        this.stored = properties.stream()
+                .filter(p -> p.getter != null)
+                .sorted(Comparator.comparing((Property p) -> p.name))
+                .collect(Collectors.toList());
+        this.schema = stored.stream().map(p -> p.name).collect(Collectors.toList()).hashCode();
+        this.constructor = constructor;
+        this.keyGetter = keyGetter;
+        this.keySetter = keySetter;
+    }
+
+    /**
+     * Build the codec for a class
+     *
+     * @param clazz the class to map
+     * @param key the redis key definition for the class
+     * @param converters the available converters from string, indexed by type name
+     */
+    static EntityCodec of(Class<?> clazz, InstanceKey key, Map<String, Function<String, Object>> converters)
+            throws IntrospectionException, IllegalAccessException {
+
+        List<Property> properties = new ArrayList<>();
+        Set<Class<?>> visiting = new HashSet<>();
+        visiting.add(clazz);
+        collect(clazz, key.fieldName, null, visiting, converters, properties);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        // Indexed fields can be declared anywhere in the hierarchy, but must be readable properties
+        List<Property> indexes = new ArrayList<>();
+        List<RangeIndex> ranges = new ArrayList<>();
+        Property version = null;
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (field.isAnnotationPresent(RedisVersion.class)) {
+                    version = versioned(properties, field, clazz, version);
+                }
+                if (field.isAnnotationPresent(RedisIndex.class)) {
+                    indexes.add(indexed(properties, field, clazz));
+                }
+                if (field.isAnnotationPresent(RedisRangeIndex.class)) {
+                    ranges.add(RangeIndex.of(indexed(properties, field, clazz), field.getType()));
+                }
+            }
+        }
+
+        MethodHandle constructor = null;
+        try {
+            constructor = lookup.findConstructor(clazz, MethodType.methodType(void.class)).asType(MethodType.methodType(Object.class));
+        }
+        catch (NoSuchMethodException | IllegalAccessException e) {
+            // Not an error until someone tries to read an instance of this class
+        }
+
+        // The id is read and written **bypassing the getter/setter** (easier, and currently it seems what we need....)
+        key.field.setAccessible(true);
+        MethodHandle keyGetter = lookup.unreflectGetter(key.field).asType(GETTER);
+        MethodHandle keySetter = lookup.unreflectSetter(key.field).asType(SETTER);
+
+        RedisStorage storage = clazz.getAnnotation(RedisStorage.class);
+        boolean blob = storage != null && storage.value() == RedisStorage.Mode.BLOB;
+        if (blob && version != null) {
+            throw new IllegalArgumentException(String.format("%s is stored as a blob, it can not be versioned", clazz.getName()));
+        }
+
+        // Redis does not remove the ids of the expired instances from the indexes
+        Expiration expiration = Expiration.of(clazz);
+        if (expiration != null && (!indexes.isEmpty() || !ranges.isEmpty())) {
+            throw new IllegalArgumentException(String.format("The instances of %s expire, they can not be indexed", clazz.getName()));
+        }
+
+        return new EntityCodec(clazz, key, Collections.unmodifiableList(properties), Collections.unmodifiableList(indexes), 
+                Collections.unmodifiableList(ranges), version, blob, expiration, constructor, keyGetter, keySetter);
+    }
+
+    /**
+     * Add the properties of a class to the list; the properties of nested beans are added
+     * in place of the bean, with its name as prefix
+     *
+     * @param skip the name of the property mapped as @key, or null
+     * @param parent the property that holds the nested bean, or null
+     * @param visiting the classes of the enclosing beans, that are not nested again
+     */
+    private static void collect(Class<?> clazz, String skip, Property parent, Set<Class<?>> visiting, 
+            Map<String, Function<String, Object>> converters, List<Property> properties) throws IntrospectionException, IllegalAccessException {
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        String prefix = parent == null ? "" : parent.name + ".";
+        
+        for (PropertyDescriptor pd : Introspector.getBeanInfo(clazz).getPropertyDescriptors()) {
+
+            // "class" is written by the codec itself; the key field is mapped as @key
+            if (pd.getName().equals("class") || pd.getName().equals(skip)) {
+                continue;
+            }
+
+            Method reader = pd.getReadMethod();
+            Method writer = pd.getWriteMethod();
+            if (reader == null && writer == null) {
+                continue;
+            }
+
+            String name = prefix + pd.getName();
+            MethodHandle getter = reader == null ? null : lookup.unreflect(reader).asType(GETTER);
+            MethodHandle setter = writer == null ? null : lookup.unreflect(writer).asType(SETTER);
+            Type type = writer == null ? reader.getGenericReturnType() : writer.getGenericParameterTypes()[0];
+            String typeName = writer == null ? null : type.getTypeName();
+            Function<String, Object> converter = writer == null ? null : converters.get(typeName);
+            Class<?> raw = pd.getPropertyType();
+
+            Companion companion = converter == null ? Companion.of(name, type, converters) : null;
+            if (companion != null && parent != null) {
+                throw new IllegalArgumentException(String.format("The property [%s] of %s is a collection in a nested bean, "
+                        + "only the collections of the stored class are supported", name, clazz.getName()));
+            }
+            
+            Constructor<?> bean = converter == null && companion == null && getter != null && setter != null ? beanConstructor(raw, converters) : null;
+            if (bean != null && visiting.add(raw)) {
+                MethodHandle constructor = lookup.unreflectConstructor(bean).asType(MethodType.methodType(Object.class));
+                collect(raw, null, new Property(name, typeName, getter, setter, null, null, parent, constructor), visiting, converters, properties);
+                visiting.remove(raw);
+                continue;
+            }
+
+            properties.add(new Property(name, typeName, getter, setter, converter, companion, parent, null));
+        }
+    }
+
+    /**
+     * @return the public no-args constructor of a type that can be mapped as a nested bean, or null
+     */
+    private static Constructor<?> beanConstructor(Class<?> type, Map<String, Function<String, Object>> converters) {
+
+        if (type.isPrimitive() || type.isArray() || type.isEnum() || type.isInterface() || Modifier.isAbstract(type.getModifiers())
+                || type.getName().startsWith("java.") || converters.containsKey(type.getName())) {
+            return null;
+        }
+        try {
+            return type.getConstructor();
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Property indexed(List<Property> properties, Field field, Class<?> clazz) {
+        return properties.stream()
+                .filter(p -> p.name.equals(field.getName()) && p.getter != null)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(String.format("The indexed field [%s] of %s has no getter", field.getName(), clazz.getName())));
+    }
+
+    private static Property versioned(List<Property> properties, Field field, Class<?> clazz, Property found) {
+
+        if (found != null) {
+            throw new IllegalArgumentException(String.format("%s has more than one version field", clazz.getName()));
+        }
+        Class<?> type = field.getType();
+        if (type != long.class && type != Long.class && type != int.class && type != Integer.class) {
+            throw new IllegalArgumentException(String.format("The version field [%s] of %s must be a long or an int", field.getName(), clazz.getName()));
+        }
+
+        Property version = indexed(properties, field, clazz);
+        if (version.setter == null) {
+            throw new IllegalArgumentException(String.format("The version field [%s] of %s has no setter", field.getName(), clazz.getName()));
+        }
+        return version;
+    }
+
+    /**
+     * @return true if some property is indexed, with a set or a sorted set 
+     */
+    boolean hasIndexes() {
+        return !indexes.isEmpty() || !ranges.isEmpty();
+    }
+
+    /**
+     * @return the redis key of the instance, as defined by the {@link org.bananarama.crud.redis.annotations.RedisKey} pattern
+     */
+    String keyOf(Object obj) throws Throwable {
+        return key.regex.replace("$", keyGetter.invokeExact(obj).toString());
+    }
+
+    /**
+     * The methods of the codec invoke method handles, that are declared to throw anything: the callers
+     * catch the exceptions they handle, and throw what this method returns for the rest
+     *
+     * @return the unchecked exception to throw for a failure of the codec; errors are thrown as is
+     */
+    static RuntimeException unchecked(Throwable e) {
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return e instanceof RuntimeException ? (RuntimeException) e : new IllegalStateException(e);
+    }
+
+    /**
+     * @return the id of the instance that has the given redis key
+     */
+    String idOf(String redisKey) {
+        return RedisAdapter.extractKey(redisKey, key.regex);
+    }
+
+    /**
+     * The fields of the stored hash that are not properties of the class, eg left by an older version of 
+     * the class or written by another client, are not included
+     *
+     * @return the properties found in the stored hash that are null in the new one, that is missing
+     */
+    List<String> cleared(Map<String, String> previous, Map<String, String> hash) {
+        return properties.stream()
+                .filter(p -> p.getter != null && previous.containsKey(p.name) && !hash.containsKey(p.name))
+                .map(p -> p.name)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Convert an instance to a map; null properties are not included
+     */
+    Map<String, String> encode(Object obj) throws Throwable {
+
+        Encoded map = new Encoded(properties.size() * 2 + 4);
+        String redisKey = keyOf(obj);
+        for (Property p : properties) {
+            if (p.getter == null) {
+                continue;
+            }
+            
+            Object value = p.get(obj);
+            if (p.companion != null) {
+                // The hash tells where the collection is stored, or that it is null
+                map.companions.put(p.name, value);
+                if (value != null) {
+                    map.put(p.name, Companions.key(redisKey, p.name));
+                }
+            }
+            else if (value != null && p.ascii != null) {
+                map.putBytes(p.name, p.ascii.format(value));
+            }
+            else if (value != null) {
+                map.put(p.name, value.toString());
+            }
+        }
+
+        map.put("class", discriminator);
+        map.put("@key", redisKey);
+        if (expiration != null) {
+            expiration.encode(obj, map);
+        }
+        if (version != null) {
+            map.source = obj;
+        }
+        return map;
+    }
+
+    /**
+     * Create a new instance and set the properties that are found in the map. The 
+     * collections can not be loaded, see {@link #decode(Map, Function)}
+     */
+    Object decode(Map<String, String> map) throws Throwable {
+        return decode(map, null);
+    }
+
+    /**
+     * Create a new instance and set the properties that are found in the map. The collections 
+     * are set to proxies, that read their companion key the first time they are used
+     *
+     * @param connections the connection to the node that serves a key
+     */
+    Object decode(Map<String, String> map, Function<String, Jedis> connections) throws Throwable {
+
+        if (constructor == null) {
+            throw new InstantiationException("Can not instantiate " + type.getName() + "; does it have a public noargs constructor?");
+        }
+
+        Object obj = constructor.invokeExact();
+        for (Property p : properties) {
+            if (p.setter == null) {
+                continue;
+            }
+            if (p.companion != null) {
+                String companionKey = map.get(p.name);
+                if (companionKey != null) {
+                    p.set(obj, Companions.lazy(p.companion, companionKey, connections));
+                }
+                continue;
+            }
+            if (p.converter == null) {
+                throw new RuntimeException(String.format("Missing mapping for objectType [%s]", p.typeName));
+            }
+
+            Object value = p.ascii != null && map instanceof BinaryHash ? parse(p, ((BinaryHash) map).raw(p.name)) : convert(p, map.get(p.name));
+            if (value != null) {
+                p.set(obj, value);
+            }
+        }
+
+        keySetter.invokeExact(obj, (Object) idOf(map.get("@key")));
+        return obj;
+    }
+
+    /**
+     * @param raw the bytes of a value, or its text
+     */
+    private static Object parse(Property p, Object raw) {
+        if (raw instanceof byte[]) {
+            Object value = p.ascii.parse((byte[]) raw);
+            return value != null ? value : p.converter.apply(SafeEncoder.encode((byte[]) raw));
+        }
+        return convert(p, (String) raw);
+    }
+
+    private static Object convert(Property p, String raw) {
+        return raw == null ? null : p.converter.apply(raw);
+    }
+
+    /**
+     * A bean property, with its accessors and converter already resolved. The properties of
+     * nested beans are reached through the property that holds the bean
+     */
+    static class Property {
+
+        final String name;
+        final String typeName;
+        final MethodHandle getter;
+        final MethodHandle setter;
+        final Function<String, Object> converter;
+        // Only for the numbers and booleans that are converted without text
+        final AsciiFormat ascii;
+        final Companion companion;
+        
+        private final Property parent;
+        // Only for the properties that hold a nested bean
+        private final MethodHandle constructor;
+
+        Property(String name, String typeName, MethodHandle getter, MethodHandle setter, Function<String, Object> converter, 
+                Companion companion, Property parent, MethodHandle constructor) {
+            this.name = name;
+            this.typeName = typeName;
+            this.getter = getter;
+            this.setter = setter;
+            this.converter = converter;
+            this.ascii = converter == null ? null : AsciiFormat.of(typeName);
+            this.companion = companion;
+            this.parent = parent;
+            this.constructor = constructor;
+        }
+
+        /**
+         * @return the value of the property, or null if a nested bean on the path is null
+         */
+        Object get(Object obj) throws Throwable {
+            Object holder = parent == null ? obj : parent.get(obj);
+            return holder == null ? null : getter.invokeExact(holder);
+        }
+
+        /**
+         * Set the value of the property, creating the nested beans on the path that are null
+         */
+        void set(Object obj, Object value) throws Throwable {
+            setter.invokeExact(parent == null ? obj : parent.bean(obj), value);
+        }
+
+        private Object bean(Object obj) throws Throwable {
+            Object holder = parent == null ? obj : parent.bean(obj);
+            Object bean = getter.invokeExact(holder);
+            if (bean == null) {
+                bean = constructor.invokeExact();
+                setter.invokeExact(holder, bean);
+            }
+            return bean;
+        }
+    }
+
+    /**
+     * A list, set or map property, stored in a companion key with the conversion of its elements
+     */
+    static class Companion {
+
+        enum Kind {
+            LIST, SET, MAP
+        }
+
+        final Kind kind;
+        // The elements of lists and sets, or the keys of maps
+        final Function<String, Object> elements;
+        final Function<String, Object> values;
+
+        private Companion(Kind kind, Function<String, Object> elements, Function<String, Object> values) {
+            this.kind = kind;
+            this.elements = elements;
+            this.values = values;
+        }
+
+        /**
+         * @return the companion of a property declared as a List, Collection, Set or Map, or null for the other types 
+         * @throws IllegalArgumentException if the type of the elements has no converter
+         */
+        static Companion of(String property, Type type, Map<String, Function<String, Object>> converters) {
+
+            Type raw = type instanceof ParameterizedType ? ((ParameterizedType) type).getRawType() : type;
+            Type[] arguments = type instanceof ParameterizedType ? ((ParameterizedType) type).getActualTypeArguments() : new Type[0];
+            
+            if (raw == List.class || raw == Collection.class) {
+                return new Companion(Kind.LIST, converter(property, arguments, 0, converters), null);
+            }
+            if (raw == Set.class) {
+                return new Companion(Kind.SET, converter(property, arguments, 0, converters), null);
+            }
+            if (raw == Map.class) {
+                return new Companion(Kind.MAP, converter(property, arguments, 0, converters), converter(property, arguments, 1, converters));
+            }
+            return null;
+        }
+
+        private static Function<String, Object> converter(String property, Type[] arguments, int i, Map<String, Function<String, Object>> converters) {
+
+            // Raw collections hold strings
+            String typeName = arguments.length > i ? arguments[i].getTypeName() : String.class.getName();
+            Function<String, Object> converter = converters.get(typeName);
+            if (converter == null) {
+                throw new IllegalArgumentException(String.format("Missing mapping for the elements of [%s], of type [%s]", property, typeName));
+            }
+            return converter;
+        }
+    }
+
+    /**
+     * An instance converted to a map, with the values of its collections, that are written in their companion keys
+     */
+    static class Encoded extends BinaryHash {
+
+        // property name -> collection, or null
+        final Map<String, Object> companions = new HashMap<>();
+        // When the instance expires, in epoch millis or as a TTL in millis; 0 if not set
+        long expireAt;
+        long ttl;
+        // The object, only if its version is set once it is written
+        Object source;
+
+        Encoded(int capacity) {
+            super(capacity);
+        }
+    }
+
+    /**
+     * A property indexed in a sorted set, with the conversion of its values to scores
+     */
+    static class RangeIndex {
+
+        final String name;
+        private final ToDoubleFunction<String> score;
+
+        private RangeIndex(String name, ToDoubleFunction<String> score) {
+            this.name = name;
+            this.score = score;
+        }
+
+        static RangeIndex of(Property property, Class<?> type) {
+
+            if (type == ZonedDateTime.class) {
+                return new RangeIndex(property.name, s -> ZonedDateTime.parse(s).toInstant().toEpochMilli());
+            }
+            if (Number.class.isAssignableFrom(type) || (type.isPrimitive() && type != boolean.class && type != char.class)) {
+                return new RangeIndex(property.name, Double::parseDouble);
+            }
+
+            throw new IllegalArgumentException(String.format("The range indexed property [%s] must be a number or a ZonedDateTime, not %s", property.name, type.getName()));
+        }
+
+        /**
+         * @return the score of a value as stored in redis
+         */
+        double score(String value) {
+            return score.applyAsDouble(value);
+        }
+
+        /**
+         * @return the score of a value used in a query
+         */
+        double score(Object value) {
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            if (value instanceof ZonedDateTime) {
+                return ((ZonedDateTime) value).toInstant().toEpochMilli();
+            }
+            return score(String.valueOf(value));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.bananarama.crud.redis;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bananarama.crud.redis.annotations.RedisExpireAt;
+import org.bananarama.crud.redis.annotations.RedisTtl;
+
+import redis.clients.jedis.Pipeline;
+
+/**
+ * When the instances of a class expire, as declared by {@link RedisTtl} and {@link RedisExpireAt}.
+ * The expiration of an instance is computed when it is encoded, and sent after the commands 
+ * that write it, to its key and to the keys of its collections.
+ */
+final class Expiration {
+
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+
+    // The TTL of the class in millis, 0 if none
+    private final long ttl;
+    private final MethodHandle ttlGetter;
+    private final TimeUnit ttlUnit;
+    private final MethodHandle expireAtGetter;
+
+    private Expiration(long ttl, MethodHandle ttlGetter, TimeUnit ttlUnit, MethodHandle expireAtGetter) {
+        this.ttl = ttl;
+        this.ttlGetter = ttlGetter;
+        this.ttlUnit = ttlUnit;
+        this.expireAtGetter = expireAtGetter;
+    }
+
+    /**
+     * @return the expiration of the instances of the class, or null if they do not expire
+     * @throws IllegalArgumentException if the annotations are not used as documented
+     */
+    static Expiration of(Class<?> clazz) throws IllegalAccessException {
+
+        RedisTtl ttl = clazz.getAnnotation(RedisTtl.class);
+        if (ttl != null && ttl.value() <= 0) {
+            throw new IllegalArgumentException(String.format("The TTL of %s must be greater than 0, got %d", clazz.getName(), ttl.value()));
+        }
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle ttlGetter = null;
+        TimeUnit ttlUnit = null;
+        MethodHandle expireAtGetter = null;
+        for (Method method : clazz.getMethods()) {
+            if (method.isAnnotationPresent(RedisTtl.class)) {
+                check(clazz, method, Number.class, long.class, int.class);
+                ttlGetter = lookup.unreflect(method).asType(GETTER);
+                ttlUnit = method.getAnnotation(RedisTtl.class).unit();
+            }
+            if (method.isAnnotationPresent(RedisExpireAt.class)) {
+                check(clazz, method, Instant.class, ZonedDateTime.class, Date.class, Long.class, long.class);
+                expireAtGetter = lookup.unreflect(method).asType(GETTER);
+            }
+        }
+
+        if (ttl == null && ttlGetter == null && expireAtGetter == null) {
+            return null;
+        }
+        return new Expiration(ttl == null ? 0 : ttl.unit().toMillis(ttl.value()), ttlGetter, ttlUnit, expireAtGetter);
+    }
+
+    private static void check(Class<?> clazz, Method method, Class<?>... types) {
+
+        boolean getter = method.getParameterCount() == 0;
+        for (Class<?> type : types) {
+            if (getter && type.isAssignableFrom(method.getReturnType())) {
+                return;
+            }
+        }
+        throw new IllegalArgumentException(String.format("The expiration of %s can not be read from %s", clazz.getName(), method));
+    }
+
+    /**
+     * Record in the map when the instance expires
+     */
+    void encode(Object obj, EntityCodec.Encoded map) throws Throwable {
+
+        Object at = expireAtGetter == null ? null : expireAtGetter.invokeExact(obj);
+        if (at != null) {
+            map.expireAt = toMillis(at);
+            return;
+        }
+
+        Object amount = ttlGetter == null ? null : ttlGetter.invokeExact(obj);
+        long millis = amount == null ? 0 : ttlUnit.toMillis(((Number) amount).longValue());
+        map.ttl = millis > 0 ? millis : ttl;
+    }
+
+    private static long toMillis(Object at) {
+        if (at instanceof Instant) {
+            return ((Instant) at).toEpochMilli();
+        }
+        if (at instanceof ZonedDateTime) {
+            return ((ZonedDateTime) at).toInstant().toEpochMilli();
+        }
+        if (at instanceof Date) {
+            return ((Date) at).getTime();
+        }
+        return (Long) at;
+    }
+
+    /**
+     * Queue the commands that set the expiration of an instance and of its collections. 
+     * Nothing is sent for the hashes that have been copied, as they have lost the expiration
+     */
+    static void write(Pipeline pipeline, EntityCodec codec, Map<String, String> hash) {
+
+        if (!(hash instanceof EntityCodec.Encoded)) {
+            return;
+        }
+
+        EntityCodec.Encoded encoded = (EntityCodec.Encoded) hash;
+        if (encoded.ttl == 0 && encoded.expireAt == 0) {
+            return;
+        }
+
+        List<String> keys = Companions.stored(codec, hash);
+        keys.add(hash.get("@key"));
+        for (String key : keys) {
+            if (encoded.expireAt != 0) {
+                pipeline.pexpireAt(key, encoded.expireAt);
+            }
+            else {
+                pipeline.pexpire(key, encoded.ttl);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.bananarama.crud.redis;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import redis.clients.jedis.Pipeline;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * The binary form of the instances stored as hashes, sent and read with the byte[] commands of Jedis.
+ *
+ * The values are stored as UTF-8 text, as the String commands do, so that indexes, scripts and other
+ * clients read them as before; they are sent and read as bytes, see {@link BinaryHash}. The field names are the same few strings for all the instances of a class:
+ * they are encoded once and reused by the writes, and the names read back are resolved to the same String
+ * instances without decoding them.
+ */
+final class HashFormat {
+
+    // The field names cached, beyond which the names are encoded and decoded every time
+    private static final int MAX_NAMES = 4096;
+
+    private static final ConcurrentHashMap<String, byte[]> encoded = new ConcurrentHashMap<>();
+    private static volatile Names names = new Names(64);
+
+    private HashFormat() {
+    }
+
+    /**
+     * Queue a single HMSET with all the fields of the hash, except @key
+     */
+    static void write(Pipeline pipeline, String key, Map<String, String> hash) {
+
+        Map<byte[], byte[]> fields = new HashMap<>(hash.size() * 2);
+        if (hash instanceof BinaryHash) {
+            ((BinaryHash) hash).forEachBytes((field, value) -> {
+                if (!field.equals("@key")) {
+                    fields.put(name(field), value);
+                }
+            });
+        }
+        else {
+            hash.forEach((field, value) -> {
+                if (!field.equals("@key")) {
+                    fields.put(name(field), SafeEncoder.encode(value));
+                }
+            });
+        }
+
+        if (!fields.isEmpty()) {
+            pipeline.hmset(SafeEncoder.encode(key), fields);
+        }
+    }
+
+    /**
+     * @return the hash read with a binary HGETALL, whose values are decoded when they are read, or null if it is empty
+     */
+    static Map<String, String> decode(Map<byte[], byte[]> raw) {
+
+        if (raw == null || raw.isEmpty()) {
+            return null;
+        }
+
+        BinaryHash hash = new BinaryHash(raw.size() * 2);
+        raw.forEach((field, value) -> hash.putBytes(name(field), value));
+        return hash;
+    }
+
+    /**
+     * @return the UTF-8 bytes of a field name. The array is shared and must not be modified
+     */
+    static byte[] name(String field) {
+
+        byte[] bytes = encoded.get(field);
+        if (bytes != null) {
+            return bytes;
+        }
+
+        bytes = SafeEncoder.encode(field);
+        if (encoded.size() < MAX_NAMES) {
+            byte[] previous = encoded.putIfAbsent(field, bytes);
+            if (previous != null) {
+                return previous;
+            }
+            remember(bytes, field);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the field name with the given UTF-8 bytes
+     */
+    static String name(byte[] bytes) {
+
+        String field = names.get(bytes);
+        if (field != null) {
+            return field;
+        }
+
+        field = SafeEncoder.encode(bytes);
+        if (encoded.size() < MAX_NAMES && encoded.putIfAbsent(field, bytes) == null) {
+            remember(bytes, field);
+        }
+        return field;
+    }
+
+    private static synchronized void remember(byte[] bytes, String field) {
+        names = names.with(bytes, field);
+    }
+
+    /**
+     * An open addressing table from the bytes of the names to the names, that is looked up
+     * without allocating. It is copied on each insert, that only happen the first time a name is seen
+     */
+    private static final class Names {
+
+        private final byte[][] keys;
+        private final String[] values;
+        private final int size;
+
+        Names(int capacity) {
+            this(new byte[capacity][], new String[capacity], 0);
+        }
+
+        private Names(byte[][] keys, String[] values, int size) {
+            this.keys = keys;
+            this.values = values;
+            this.size = size;
+        }
+
+        String get(byte[] bytes) {
+            int mask = keys.length - 1;
+            for (int i = Arrays.hashCode(bytes) & mask; keys[i] != null; i = (i + 1) & mask) {
+                if (Arrays.equals(keys[i], bytes)) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        Names with(byte[] bytes, String value) {
+
+            if (get(bytes) != null) {
+                return this;
+            }
+
+            // Kept at most half full, so that the probes stay short
+            int capacity = (size + 1) * 2 > keys.length ? keys.length * 2 : keys.length;
+            Names copy = new Names(capacity);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    copy.put(keys[i], values[i]);
+                }
+            }
+            copy.put(bytes, value);
+            return new Names(copy.keys, copy.values, size + 1);
+        }
+
+        private void put(byte[] bytes, String value) {
+            int mask = keys.length - 1;
+            int i = Arrays.hashCode(bytes) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = bytes;
+            values[i] = value;
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package org.bananarama.crud.redis;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import com.googlecode.cqengine.query.Query;
+import com.googlecode.cqengine.query.logical.And;
+import com.googlecode.cqengine.query.logical.Not;
+import com.googlecode.cqengine.query.logical.Or;
+import com.googlecode.cqengine.query.simple.Between;
+import com.googlecode.cqengine.query.simple.Equal;
+import com.googlecode.cqengine.query.simple.GreaterThan;
+import com.googlecode.cqengine.query.simple.In;
+import com.googlecode.cqengine.query.simple.LessThan;
+import com.googlecode.cqengine.query.simple.SimpleQuery;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.ZParams;
+
+/**
+ * Resolve a CQEngine query to the ids of the matching instances, using the
+ * indexes maintained by {@link SecondaryIndexes}. The supported queries are:
+ * <ul>
+ * <li>equal(attribute, value), that is the index set itself</li>
+ * <li>in(attribute, values...), resolved with SUNIONSTORE; on a range indexed property the ids of each
+ * value are read with ZRANGEBYSCORE value value, and stored in a set</li>
+ * <li>between, greaterThan and lessThan on range indexed properties, that are a score range of the sorted set</li>
+ * <li>and(...), resolved with SINTERSTORE, or ZINTERSTORE if some terms are ranges; the not(...)
+ * terms of an and are resolved with SDIFFSTORE (or an equivalent sequence of sorted set commands)</li>
+ * <li>or(...), resolved with SUNIONSTORE, or ZUNIONSTORE if some terms are ranges</li>
+ * </ul>
+ * The attribute names must be the names of properties annotated with
+ * {@link org.bananarama.crud.redis.annotations.RedisIndex} or
+ * {@link org.bananarama.crud.redis.annotations.RedisRangeIndex}; a not() of a range is not supported.
+ *
+ * The whole plan is sent in a single pipeline; intermediate results are stored in temporary
+ * keys, that are deleted once the ids have been read or on {@link #close()}. The temporary keys
+ * contain the namespace of the class, so that a {hash tag} in the namespace keeps them in the
+ * same cluster slot of the indexes.
+ */
+class IndexQuery implements Closeable {
+
+    static final String TEMPORARY_PREFIX = SecondaryIndexes.PREFIX + "tmp:";
+
+    // In case the client dies before deleting them
+    private static final long TEMPORARY_TTL_MILLIS = 10 * 60 * 1000;
+
+    private static final String MIN = "-inf";
+    private static final String MAX = "+inf";
+
+    private final Jedis jedis;
+    private final List<String> temporary = new ArrayList<>();
+    private final String temporaryPrefix;
+    private final Target result;
+
+    private IndexQuery(Jedis jedis, EntityCodec codec, Query<?> query) {
+        this.jedis = jedis;
+        this.temporaryPrefix = TEMPORARY_PREFIX + codec.key.namespace() + ":";
+
+        List<Consumer<Pipeline>> commands = new ArrayList<>();
+        this.result = resolve(codec, query, commands);
+
+        if (!commands.isEmpty()) {
+            Pipeline pipeline = jedis.pipelined();
+            commands.forEach(c -> c.accept(pipeline));
+            temporary.forEach(key -> pipeline.pexpire(key, TEMPORARY_TTL_MILLIS));
+            pipeline.sync();
+        }
+    }
+
+    /**
+     * Resolve a query. Nothing is sent to redis if the query is not supported
+     *
+     * @param jedis the connection to use; it is not closed by this class
+     * @param codec the codec of the class that is queried
+     * @param query the where clause
+     * @throws UnsupportedOperationException if the query can not be resolved with the indexes
+     */
+    static IndexQuery of(Jedis jedis, EntityCodec codec, Object query) {
+        if (!(query instanceof Query)) {
+            throw new UnsupportedOperationException("Only CQEngine queries are supported in where clauses, got " + query);
+        }
+
+        return new IndexQuery(jedis, codec, (Query<?>) query);
+    }
+
+    /**
+     * Lazily read the matching ids, with SSCAN or with ZRANGEBYSCORE ... LIMIT if the result is a sorted set
+     * (in this case the ids are sorted by score). When the last page has been read the temporary keys are deleted
+     *
+     * @param count the size of a page (for sets, the SSCAN COUNT hint)
+     * @return the ids, one page at time
+     */
+    Iterator<List<String>> ids(int count) {
+
+        return new Iterator<List<String>>() {
+
+            private final ScanParams params = new ScanParams().count(count);
+            private String cursor = ScanParams.SCAN_POINTER_START;
+
+            // Sorted sets are paged by score: the next page starts from the last score, skipping the members already read
+            private String min = result.min;
+            private double last = Double.NaN;
+            private int offset = 0;
+
+            private boolean completed = false;
+            private List<String> next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && !completed) {
+                    if (result.sorted) {
+                        nextRange();
+                    }
+                    else {
+                        nextScan();
+                    }
+                }
+
+                if (next == null) {
+                    close();
+                }
+                return next != null;
+            }
+
+            private void nextScan() {
+                ScanResult<String> page = jedis.sscan(result.key, cursor, params);
+                cursor = page.getStringCursor();
+                completed = ScanParams.SCAN_POINTER_START.equals(cursor);
+                if (!page.getResult().isEmpty()) {
+                    next = page.getResult();
+                }
+            }
+
+            private void nextRange() {
+                Set<Tuple> page = jedis.zrangeByScoreWithScores(result.key, min, result.max, offset, count);
+                completed = page.size() < count;
+                if (page.isEmpty()) {
+                    return;
+                }
+
+                next = new ArrayList<>(page.size());
+                for (Tuple tuple : page) {
+                    next.add(tuple.getElement());
+                    offset = tuple.getScore() == last ? offset + 1 : 1;
+                    last = tuple.getScore();
+                }
+                min = score(last);
+            }
+
+            @Override
+            public List<String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                List<String> page = next;
+                next = null;
+                return page;
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        if (!temporary.isEmpty()) {
+            jedis.del(temporary.toArray(new String[temporary.size()]));
+            temporary.clear();
+        }
+    }
+
+    /**
+     * @return where the ids matching the query will be, once the commands are executed
+     */
+    private Target resolve(EntityCodec codec, Query<?> query, List<Consumer<Pipeline>> commands) {
+
+        if (query instanceof Equal) {
+            Equal<?, ?> equal = (Equal<?, ?>) query;
+            if (isIndexed(codec, equal)) {
+                return Target.set(SecondaryIndexes.key(codec.key, equal.getAttributeName(), String.valueOf(equal.getValue())));
+            }
+
+            EntityCodec.RangeIndex range = range(codec, equal);
+            String score = score(range.score(equal.getValue()));
+            return Target.range(SecondaryIndexes.key(codec.key, range.name), score, score);
+        }
+
+        if (query instanceof In) {
+            In<?, ?> in = (In<?, ?>) query;
+            if (isIndexed(codec, in)) {
+                String[] sets = in.getValues().stream()
+                        .map(value -> SecondaryIndexes.key(codec.key, in.getAttributeName(), String.valueOf(value)))
+                        .toArray(String[]::new);
+
+                String target = temporary();
+                commands.add(p -> p.sunionstore(target, sets));
+                return Target.set(target);
+            }
+
+            EntityCodec.RangeIndex range = range(codec, in);
+            List<String> scores = in.getValues().stream()
+                    .map(value -> score(range.score(value)))
+                    .collect(Collectors.toList());
+            return points(SecondaryIndexes.key(codec.key, range.name), scores, commands);
+        }
+
+        if (query instanceof Between) {
+            Between<?, ?> between = (Between<?, ?>) query;
+            EntityCodec.RangeIndex range = range(codec, between);
+            return Target.range(SecondaryIndexes.key(codec.key, range.name),
+                    bound(range.score(between.getLowerValue()), between.isLowerInclusive()),
+                    bound(range.score(between.getUpperValue()), between.isUpperInclusive()));
+        }
+
+        if (query instanceof GreaterThan) {
+            GreaterThan<?, ?> greater = (GreaterThan<?, ?>) query;
+            EntityCodec.RangeIndex range = range(codec, greater);
+            return Target.range(SecondaryIndexes.key(codec.key, range.name), bound(range.score(greater.getValue()), greater.isValueInclusive()), MAX);
+        }
+
+        if (query instanceof LessThan) {
+            LessThan<?, ?> less = (LessThan<?, ?>) query;
+            EntityCodec.RangeIndex range = range(codec, less);
+            return Target.range(SecondaryIndexes.key(codec.key, range.name), MIN, bound(range.score(less.getValue()), less.isValueInclusive()));
+        }
+
+        if (query instanceof Or) {
+            return union(resolveAll(codec, ((Or<?>) query).getChildQueries(), commands), commands);
+        }
+
+        if (query instanceof And) {
+            Collection<? extends Query<?>> children = ((And<?>) query).getChildQueries();
+            List<Query<?>> included = children.stream().filter(q -> !(q instanceof Not)).collect(Collectors.toList());
+            List<Query<?>> excluded = children.stream().filter(q -> q instanceof Not).map(q -> ((Not<?>) q).getNegatedQuery()).collect(Collectors.toList());
+
+            if (included.isEmpty()) {
+                throw new UnsupportedOperationException("An and() clause must have at least one term that is not negated: " + query);
+            }
+
+            List<Target> others = resolveAll(codec, excluded, commands);
+            if (others.stream().anyMatch(t -> t.sorted)) {
+                throw new UnsupportedOperationException("A not() of a range is not supported, invert the bounds of the range: " + query);
+            }
+
+            return intersection(resolveAll(codec, included, commands), keys(others), commands);
+        }
+
+        if (query instanceof Not) {
+            throw new UnsupportedOperationException("A not() clause is supported only as a term of an and(): " + query);
+        }
+
+        throw new UnsupportedOperationException("Query not supported by the redis indexes: " + query);
+    }
+
+    private List<Target> resolveAll(EntityCodec codec, Collection<? extends Query<?>> queries, List<Consumer<Pipeline>> commands) {
+        return queries.stream().map(q -> resolve(codec, q, commands)).collect(Collectors.toList());
+    }
+
+    private Target union(List<Target> targets, List<Consumer<Pipeline>> commands) {
+
+        String target = temporary();
+        if (targets.stream().noneMatch(t -> t.sorted)) {
+            String[] sets = keys(targets);
+            commands.add(p -> p.sunionstore(target, sets));
+            return Target.set(target);
+        }
+
+        // ZUNIONSTORE accepts sets too; the scores of the result are meaningless, all its members match
+        String[] sets = targets.stream().map(t -> materialize(t, commands)).toArray(String[]::new);
+        commands.add(p -> p.zunionstore(target, sets));
+        return Target.range(target, MIN, MAX);
+    }
+
+    private Target intersection(List<Target> included, String[] excluded, List<Consumer<Pipeline>> commands) {
+
+        List<Target> sets = included.stream().filter(t -> !t.sorted).collect(Collectors.toList());
+        Optional<Target> primary = included.stream().filter(t -> t.sorted && !t.isFull()).findFirst();
+        if (!primary.isPresent()) {
+            primary = included.stream().filter(t -> t.sorted).findFirst();
+        }
+
+        if (!primary.isPresent()) {
+            String target = temporary();
+            String[] keys = keys(sets);
+            commands.add(p -> p.sinterstore(target, keys));
+            if (excluded.length > 0) {
+                String[] difference = concat(target, excluded);
+                commands.add(p -> p.sdiffstore(target, difference));
+            }
+            return Target.set(target);
+        }
+
+        // The range of one sorted set is applied when the ids are read; the other ranges are materialized
+        // and everything is intersected with the scores of the primary sorted set (the others have weight 0)
+        Target range = primary.get();
+        List<String> keys = new ArrayList<>();
+        keys.add(range.key);
+        included.stream().filter(t -> t != range).forEach(t -> keys.add(materialize(t, commands)));
+
+        Target result = range;
+        if (keys.size() > 1) {
+            result = weighted(keys.toArray(new String[keys.size()]), range, commands);
+        }
+
+        if (excluded.length > 0) {
+            // There is no ZDIFFSTORE: the ids of the excluded sets get a positive score in a union
+            // where the result has weight 0, so they can be removed by score
+            String difference = temporary();
+            String[] union = concat(result.key, excluded);
+            double[] weights = new double[union.length];
+            Arrays.fill(weights, 1);
+            weights[0] = 0;
+            commands.add(p -> p.zunionstore(difference, new ZParams().weightsByDouble(weights), union));
+            commands.add(p -> p.zremrangeByScore(difference, "(0", MAX));
+            result = weighted(new String[] { result.key, difference }, result, commands);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return a sorted set with the intersection of the keys, with the scores of the first one
+     */
+    private Target weighted(String[] keys, Target range, List<Consumer<Pipeline>> commands) {
+
+        double[] weights = new double[keys.length];
+        weights[0] = 1;
+
+        String target = temporary();
+        commands.add(p -> p.zinterstore(target, new ZParams().weightsByDouble(weights), keys));
+        return Target.range(target, range.min, range.max);
+    }
+
+    /**
+     * @return the key of a set, or sorted set, with only the ids that match the target
+     */
+    private String materialize(Target target, List<Consumer<Pipeline>> commands) {
+
+        if (!target.sorted || target.isFull()) {
+            return target.key;
+        }
+
+        // The few ids of a single score are read, rather than copying the whole sorted set
+        if (target.min.equals(target.max)) {
+            return points(target.key, Arrays.asList(target.min), commands).key;
+        }
+
+        String copy = temporary();
+        commands.add(p -> p.zunionstore(copy, target.key));
+        if (!MIN.equals(target.min)) {
+            commands.add(p -> p.zremrangeByScore(copy, MIN, complement(target.min)));
+        }
+        if (!MAX.equals(target.max)) {
+            commands.add(p -> p.zremrangeByScore(copy, complement(target.max), MAX));
+        }
+        return copy;
+    }
+
+    /**
+     * Read the ids with the given scores now, in a pipeline of ZRANGEBYSCORE score score
+     *
+     * @return a set with the ids, once the commands are executed
+     */
+    private Target points(String key, List<String> scores, List<Consumer<Pipeline>> commands) {
+
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<Set<String>>> responses = scores.stream()
+                .map(score -> pipeline.zrangeByScore(key, score, score))
+                .collect(Collectors.toList());
+        pipeline.sync();
+
+        String[] ids = responses.stream().flatMap(r -> r.get().stream()).distinct().toArray(String[]::new);
+        String target = temporary();
+        if (ids.length > 0) {
+            commands.add(p -> p.sadd(target, ids));
+        }
+        return Target.set(target);
+    }
+
+    private String temporary() {
+        String key = temporaryPrefix + UUID.randomUUID().toString();
+        temporary.add(key);
+        return key;
+    }
+
+    private static String[] keys(List<Target> targets) {
+        return targets.stream().map(t -> t.key).toArray(String[]::new);
+    }
+
+    private static String[] concat(String first, String[] others) {
+        String[] all = new String[others.length + 1];
+        all[0] = first;
+        System.arraycopy(others, 0, all, 1, others.length);
+        return all;
+    }
+
+    private static String bound(double score, boolean inclusive) {
+        return inclusive ? score(score) : "(" + score(score);
+    }
+
+    private static String score(double score) {
+        if (Double.isInfinite(score)) {
+            return score > 0 ? MAX : MIN;
+        }
+        return Double.toString(score);
+    }
+
+    /**
+     * @return the bound that excludes the values included by the given bound, and vice versa
+     */
+    private static String complement(String bound) {
+        return bound.startsWith("(") ? bound.substring(1) : "(" + bound;
+    }
+
+    private static boolean isIndexed(EntityCodec codec, SimpleQuery<?, ?> query) {
+        return codec.indexes.stream().anyMatch(p -> p.name.equals(query.getAttributeName()));
+    }
+
+    private static EntityCodec.RangeIndex range(EntityCodec codec, SimpleQuery<?, ?> query) {
+        String name = query.getAttributeName();
+        return codec.ranges.stream()
+                .filter(r -> r.name.equals(name))
+                .findFirst()
+                .orElseThrow(() -> new UnsupportedOperationException(String.format("The property [%s] of %s is not indexed; annotate it with @RedisIndex or @RedisRangeIndex", name, codec.type.getName())));
+    }
+
+    /**
+     * The key that will hold the matching ids: a set, or the range of a sorted set
+     */
+    private static class Target {
+
+        final String key;
+        final boolean sorted;
+        final String min;
+        final String max;
+
+        private Target(String key, boolean sorted, String min, String max) {
+            this.key = key;
+            this.sorted = sorted;
+            this.min = min;
+            this.max = max;
+        }
+
+        static Target set(String key) {
+            return new Target(key, false, null, null);
+        }
+
+        static Target range(String key, String min, String max) {
+            return new Target(key, true, min, max);
+        }
+
+        /**
+         * @return true if all the members of a sorted set match
+         */
+        boolean isFull() {
+            return MIN.equals(min) && MAX.equals(max);
+        }
+    }
+}
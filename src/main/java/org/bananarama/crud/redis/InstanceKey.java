@@ -0,0 +1,61 @@
+package org.bananarama.crud.redis;
+
+import java.lang.reflect.Field;
+
+/**
+ * The field annotated with {@link org.bananarama.crud.redis.annotations.RedisKey} and the pattern of the keys
+ */
+class InstanceKey {
+
+    protected Field field;
+    protected String fieldName;
+    protected String regex;
+
+    public InstanceKey(Field field, String fieldName, String regex) {
+        this.field = field;
+        this.fieldName = fieldName;
+        this.regex = regex;
+    }
+
+    /**
+     * @return the constant part of the pattern that precedes the id, without the trailing separators (eg "host" for "host:$"). 
+     * If the pattern has no prefix, the lowercase name of the class that declares the key is used
+     */
+    public String namespace() {
+        String prefix = regex.substring(0, regex.indexOf('$'));
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == ':') {
+            end--;
+        }
+        
+        return end > 0 ? prefix.substring(0, end) : field.getDeclaringClass().getSimpleName().toLowerCase();
+    }
+    
+    /**
+     * @return a glob-style pattern, as used by SCAN MATCH, that matches all the keys generated by this pattern  
+     */
+    public String pattern() {
+        return pattern("*");
+    }
+    
+    /**
+     * @param idPattern a glob-style pattern on the ids
+     * @return a glob-style pattern that matches the keys of the ids that match the given pattern 
+     */
+    public String pattern(String idPattern) {
+        StringBuilder pattern = new StringBuilder(regex.length() + idPattern.length());
+        for (char c : regex.toCharArray()) {
+            if (c == '$') {
+                pattern.append(idPattern);
+            }
+            else {
+                if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                    pattern.append('\\');
+                }
+                pattern.append(c);
+            }
+        }
+        return pattern.toString();
+    }
+
+}
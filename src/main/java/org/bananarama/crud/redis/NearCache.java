@@ -0,0 +1,394 @@
+package org.bananarama.crud.redis;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * A bounded, in-process cache of the records read by
+ * {@link org.bananarama.crud.ReadOperation#fromKeys(List)}, keyed by redis key.
+ *
+ * Entries are evicted with a segmented LRU policy: new records enter a probation
+ * segment, and are promoted to the protected segment (80% of the capacity) when
+ * they are read again, so a scan of cold keys does not flush the hot ones. Entries
+ * also expire after a fixed time from when they were loaded.
+ *
+ * The adapter invalidates the keys it writes or deletes. Writes from other processes
+ * are seen only after {@link #listen(Supplier, int)}, which subscribes to the redis
+ * keyspace notifications; they must be enabled on the server, eg with
+ * <code>CONFIG SET notify-keyspace-events KA</code>. The cache is cleared whenever
+ * the subscription is (re)established, since notifications may have been lost.
+ *
+ * The records are cached, not the objects: each read returns new instances.
+ * Enable the cache overriding {@link RedisAdapter#getNearCache()}:
+ *
+ * <pre>
+ * private final NearCache cache = new NearCache(10000, 30, TimeUnit.SECONDS);
+ *
+ * protected NearCache getNearCache() {
+ *     return cache;
+ * }
+ * </pre>
+ */
+public class NearCache implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(NearCache.class);
+
+    private static final String KEYSPACE = "__keyspace@%d__:";
+    private static final long RETRY_MILLIS = 1000;
+
+    private final int maxSize;
+    private final int protectedSize;
+    private final long ttlNanos;
+
+    // Both access-ordered: the eldest entry is the least recently used
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Incremented on each invalidation: a record is not cached if its key has been invalidated while it was read
+    private long clock = 0;
+    private long clearedAt = 0;
+
+    // The time of the last invalidation of the keys, kept only while some reads that started before it are running
+    private final HashMap<String, Long> invalidatedAt = new HashMap<>();
+
+    // The number of reads running, by the time they started
+    private final TreeMap<Long, Integer> reading = new TreeMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    private volatile boolean closed = false;
+    private JedisPubSub subscriber;
+    private Thread listener;
+
+    /**
+     * @param maxSize the max number of records in the cache
+     * @param ttl how long a record is kept after it has been read from redis; 0 to keep it until it is evicted
+     */
+    public NearCache(int maxSize, long ttl, TimeUnit unit) {
+
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The size of the cache must be greater than 0, got " + maxSize);
+        }
+
+        this.maxSize = maxSize;
+        this.protectedSize = Math.max(1, maxSize * 4 / 5);
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * @return the cached record at the key, or null
+     */
+    synchronized Map<String, String> get(String key) {
+
+        Entry entry = protectedSegment.get(key);
+        if (entry == null) {
+            entry = probation.remove(key);
+            if (entry != null && !isExpired(entry)) {
+                promote(key, entry);
+            }
+        }
+
+        if (entry != null && isExpired(entry)) {
+            protectedSegment.remove(key);
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return entry.record;
+    }
+
+    /**
+     * Start reading some records from redis
+     *
+     * @return the token to pass to {@link #put(String, Map, long)} and then to {@link #end(long)}
+     */
+    synchronized long begin() {
+        reading.merge(clock, 1, Integer::sum);
+        return clock;
+    }
+
+    /**
+     * The records have been read: the invalidations older than the reads still running are forgotten
+     */
+    synchronized void end(long token) {
+
+        if (reading.merge(token, -1, Integer::sum) == 0) {
+            reading.remove(token);
+        }
+
+        if (reading.isEmpty()) {
+            invalidatedAt.clear();
+        }
+        else if (reading.firstKey() > token) {
+            long oldest = reading.firstKey();
+            invalidatedAt.values().removeIf(stamp -> stamp <= oldest);
+        }
+    }
+
+    /**
+     * Cache a record, unless its key has been invalidated since the record was read
+     *
+     * @param token the value of {@link #begin()} before the record was read
+     */
+    synchronized void put(String key, Map<String, String> record, long token) {
+
+        if (closed || clearedAt > token || invalidatedAt.getOrDefault(key, 0L) > token) {
+            return;
+        }
+
+        Entry entry = new Entry(Collections.unmodifiableMap(record), System.nanoTime());
+        if (protectedSegment.containsKey(key)) {
+            protectedSegment.put(key, entry);
+            return;
+        }
+
+        probation.put(key, entry);
+        while (probation.size() + protectedSegment.size() > maxSize) {
+            LinkedHashMap<String, Entry> victims = probation.isEmpty() ? protectedSegment : probation;
+            Iterator<String> eldest = victims.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return ttlNanos > 0 && System.nanoTime() - entry.loadedAt > ttlNanos;
+    }
+
+    private void promote(String key, Entry entry) {
+        protectedSegment.put(key, entry);
+        if (protectedSegment.size() > protectedSize) {
+            // The least recently used protected entry gets another chance in probation
+            Iterator<Map.Entry<String, Entry>> eldest = protectedSegment.entrySet().iterator();
+            Map.Entry<String, Entry> demoted = eldest.next();
+            eldest.remove();
+            probation.put(demoted.getKey(), demoted.getValue());
+        }
+    }
+
+    /**
+     * Drop the record at the key, if any
+     */
+    public synchronized void invalidate(String key) {
+        clock++;
+        if (!reading.isEmpty()) {
+            invalidatedAt.put(key, clock);
+        }
+        invalidations.increment();
+        if (probation.remove(key) == null) {
+            protectedSegment.remove(key);
+        }
+    }
+
+    public synchronized void invalidate(Collection<String> keys) {
+        keys.forEach(this::invalidate);
+    }
+
+    public synchronized void invalidateAll() {
+        clock++;
+        clearedAt = clock;
+        invalidatedAt.clear();
+        invalidations.increment();
+        probation.clear();
+        protectedSegment.clear();
+    }
+
+    /**
+     * Wrap the function that reads a chunk of keys from redis, so that only the keys
+     * not in the cache are read; the records read are cached. The order of the keys is kept
+     */
+    BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> around(BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher) {
+
+        return (jedis, keys) -> {
+
+            List<Map<String, String>> records = new ArrayList<>(keys.size());
+            List<String> missing = new ArrayList<>();
+            for (String key : keys) {
+                Map<String, String> record = get(key);
+                records.add(record);
+                if (record == null) {
+                    missing.add(key);
+                }
+            }
+
+            if (!missing.isEmpty()) {
+                long token = begin();
+                try {
+                    Map<String, Map<String, String>> fetched = new HashMap<>(missing.size() * 2);
+                    fetcher.apply(jedis, missing).forEachRemaining(record -> fetched.put(record.get("@key"), record));
+
+                    for (int i = 0; i < keys.size(); i++) {
+                        Map<String, String> record = fetched.get(keys.get(i));
+                        if (records.get(i) == null && record != null) {
+                            records.set(i, record);
+                            put(keys.get(i), record, token);
+                        }
+                    }
+                }
+                finally {
+                    end(token);
+                }
+            }
+
+            // Keys that do not exist are skipped, as the fetcher does
+            records.removeIf(record -> record == null);
+            return records.iterator();
+        };
+    }
+
+    /**
+     * Invalidate the records written by other clients, following the keyspace notifications of a database.
+     * A daemon thread holds a connection subscribed to the notifications until the cache is closed; if the
+     * connection drops, it is opened again. The method returns when the subscription is active, or after
+     * a few seconds if it can not be established
+     *
+     * @param connections the provider of the connection used for the subscription
+     * @param database the database whose notifications are followed
+     */
+    public void listen(Supplier<Jedis> connections, int database) {
+
+        String prefix = String.format(KEYSPACE, database);
+        CountDownLatch subscribed = new CountDownLatch(1);
+        JedisPubSub subscriber = new JedisPubSub() {
+            @Override
+            public void onPSubscribe(String pattern, int subscribedChannels) {
+                // What happened while we were not listening is unknown
+                invalidateAll();
+                subscribed.countDown();
+            }
+
+            @Override
+            public void onPMessage(String pattern, String channel, String message) {
+                invalidate(channel.substring(prefix.length()));
+            }
+        };
+
+        Thread listener = new Thread(() -> {
+            while (!closed) {
+                try (Jedis jedis = connections.get()) {
+                    jedis.psubscribe(subscriber, prefix + "*");
+                }
+                catch (Exception e) {
+                    if (closed) {
+                        return;
+                    }
+                    log.warn("The subscription to the keyspace notifications has been lost, the near cache is cleared", e);
+                    invalidateAll();
+                    try {
+                        Thread.sleep(RETRY_MILLIS);
+                    }
+                    catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }, "near-cache-invalidation");
+        listener.setDaemon(true);
+
+        // The subscriber invalidates the cache, so the lock is not held while waiting for the subscription
+        synchronized (this) {
+            if (this.listener != null) {
+                throw new IllegalStateException("The cache is already listening for the keyspace notifications");
+            }
+            this.subscriber = subscriber;
+            this.listener = listener;
+        }
+        listener.start();
+
+        try {
+            if (!subscribed.await(5, TimeUnit.SECONDS)) {
+                log.warn("The subscription to the keyspace notifications is not active yet");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized int size() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    /**
+     * @return the number of reads served by the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of reads that went to redis
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of records dropped to make room for new ones
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of invalidations, of single keys or of the whole cache
+     */
+    public long invalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Stop listening for the notifications and clear the cache
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (subscriber != null && subscriber.isSubscribed()) {
+            subscriber.punsubscribe();
+        }
+        if (listener != null) {
+            listener.interrupt();
+        }
+        probation.clear();
+        protectedSegment.clear();
+    }
+
+    private static class Entry {
+
+        final Map<String, String> record;
+        final long loadedAt;
+
+        Entry(Map<String, String> record, long loadedAt) {
+            this.record = record;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.bananarama.crud.redis;
+
+import java.util.concurrent.ForkJoinPool;
+
+import com.googlecode.cqengine.query.option.QueryOptions;
+
+/**
+ * Runs a bulk {@link RedisAdapter#create(Class)} or {@link RedisAdapter#update(Class)} on several cores and connections.
+ *
+ * The calling thread only pulls the objects from the stream, in chunks; each chunk is converted
+ * to hashes on a {@link ForkJoinPool} and written with its own connection from the adapter,
+ * so up to <code>connections</code> chunks are converted or written at the same time. The
+ * stream is not pulled further while all of them are busy.
+ *
+ * Pass an instance in the {@link QueryOptions} of the write, together with a {@link ChunkedWrites}
+ * to set the size of the chunks. The chunks are written in no particular order and the listener of
+ * the {@link ChunkedWrites} is called by several threads. The connection pool of the adapter must
+ * allow at least <code>connections</code> connections.
+ *
+ * <pre>
+ * QueryOptions options = QueryFactory.queryOptions(new ParallelWrites(8), new ChunkedWrites(1000, 1024 * 1024));
+ * banana.create(Host.class).from(hosts, options);
+ * </pre>
+ */
+public class ParallelWrites {
+
+    private final int connections;
+    private final ForkJoinPool conversions;
+
+    /**
+     * Convert the objects on the common pool
+     *
+     * @param connections the max number of chunks written at the same time
+     */
+    public ParallelWrites(int connections) {
+        this(connections, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param connections the max number of chunks written at the same time
+     * @param conversions the pool that converts the objects to hashes
+     */
+    public ParallelWrites(int connections, ForkJoinPool conversions) {
+
+        if (connections < 1) {
+            throw new IllegalArgumentException("The number of connections must be greater than 0, got " + connections);
+        }
+
+        this.connections = connections;
+        this.conversions = conversions;
+    }
+
+    /**
+     * @return the parallel writes in the options, or null
+     */
+    static ParallelWrites of(QueryOptions options) {
+        return options == null ? null : options.get(ParallelWrites.class);
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    ForkJoinPool getConversions() {
+        return conversions;
+    }
+}
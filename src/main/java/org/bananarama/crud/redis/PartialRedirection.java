@@ -0,0 +1,33 @@
+package org.bananarama.crud.redis;
+
+import java.util.List;
+
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+
+/**
+ * Thrown by a write on a node of a cluster when only some of the hashes have to be sent to another
+ * node. The others have been written, and the versioned ones would not match their version if they
+ * were sent again, so only the hashes at the given positions must be retried.
+ *
+ * The cause is the redirection replied by the node.
+ */
+class PartialRedirection extends JedisRedirectionException {
+
+    private static final long serialVersionUID = 1L;
+
+    // The positions, in the written hashes, of the hashes to send again
+    final List<Integer> positions;
+
+    // The keys of the hashes whose version did not match
+    final List<String> conflicts;
+
+    PartialRedirection(JedisRedirectionException redirection, List<Integer> positions, List<String> conflicts) {
+        super(redirection.getMessage(), redirection, redirection.getTargetNode(), redirection.getSlot());
+        this.positions = positions;
+        this.conflicts = conflicts;
+    }
+
+    JedisRedirectionException getRedirection() {
+        return (JedisRedirectionException) getCause();
+    }
+}
@@ -0,0 +1,65 @@
+package org.bananarama.crud.redis;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The size of the data exchanged with redis, reported to {@link RedisMetrics#bytes(RedisMetrics.Operation, long, long)}
+ */
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * @return the number of bytes of the string encoded as UTF-8, without encoding it
+     */
+    static long size(String s) {
+
+        long size = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                size++;
+            }
+            else if (c < 0x800) {
+                size += 2;
+            }
+            else if (Character.isHighSurrogate(c)) {
+                size += 4;
+                i++;
+            }
+            else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+
+    static long size(Collection<String> keys) {
+        long size = 0;
+        for (String key : keys) {
+            size += size(key);
+        }
+        return size;
+    }
+
+    /**
+     * @return the size of the fields and values of the hashes, including their keys
+     */
+    static long ofHashes(Collection<Map<String, String>> hashes) {
+        long size = 0;
+        for (Map<String, String> hash : hashes) {
+            size += ofHash(hash);
+        }
+        return size;
+    }
+
+    static long ofHash(Map<String, String> hash) {
+        long size = 0;
+        for (Map.Entry<String, String> entry : hash.entrySet()) {
+            size += entry.getKey().equals("@key") ? size(entry.getValue()) : size(entry.getKey()) + size(entry.getValue());
+        }
+        return size;
+    }
+}
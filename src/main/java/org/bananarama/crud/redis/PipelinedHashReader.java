@@ -0,0 +1,144 @@
+package org.bananarama.crud.redis;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * Lazily read a sequence of hashes from redis. The keys are consumed one chunk
+ * at time; each chunk is sent as a single pipeline of HGETALL (or a single MGET, for
+ * the classes stored as blobs), and the replies are converted to maps only when the 
+ * caller asks for them.
+ *
+ * The connection is owned by the reader: it is released when all the chunks have
+ * been read, or when {@link #close()} is called (whichever comes first)
+ */
+class PipelinedHashReader implements Iterator<Map<String, String>>, Closeable {
+
+    private final Jedis jedis;
+    private final Iterator<List<String>> chunks;
+    private final BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher;
+
+    private Iterator<Map<String, String>> current = Collections.emptyIterator();
+    private boolean closed = false;
+
+    /**
+     * @param fetcher the function that reads a chunk of keys, see {@link #fetcher(EntityCodec)}
+     */
+    PipelinedHashReader(Jedis jedis, Iterator<List<String>> chunks, BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher) {
+        this.jedis = jedis;
+        this.chunks = chunks;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * @return the function that reads a chunk of keys of the given class, according to its storage mode
+     */
+    static BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher(EntityCodec codec) {
+        return codec.blob ? BlobFormat::fetch : PipelinedHashReader::fetch;
+    }
+
+    @Override
+    public boolean hasNext() {
+
+        while (!current.hasNext() && !closed) {
+            if (chunks.hasNext()) {
+                List<String> chunk = chunks.next();
+                try {
+                    current = fetcher.apply(jedis, chunk);
+                }
+                catch (RuntimeException e) {
+                    // Do not leak the connection if the stream dies halfway
+                    close();
+                    throw e;
+                }
+            }
+            else {
+                close();
+            }
+        }
+
+        return current.hasNext();
+    }
+
+    @Override
+    public Map<String, String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return current.next();
+    }
+
+    /**
+     * Send a pipeline of binary HGETALL for the given keys. The replies are converted
+     * to maps only when they are iterated, with {@link HashFormat#decode(Map)}; keys that do not exist are skipped, the others
+     * have the special entry @key set to their redis key
+     *
+     * @param jedis the connection to use. It is not needed anymore once the method returns
+     * @param keys the keys to read
+     * @return the hashes found
+     */
+    static Iterator<Map<String, String>> fetch(Jedis jedis, List<String> keys) {
+
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<Map<byte[], byte[]>>> responses = new ArrayList<>(keys.size());
+        keys.forEach(key -> responses.add(pipeline.hgetAll(SafeEncoder.encode(key))));
+        pipeline.sync();
+
+        return new Iterator<Map<String, String>>() {
+
+            private int position = 0;
+            private Map<String, String> next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && position < responses.size()) {
+                    Map<String, String> map = HashFormat.decode(responses.get(position).get());
+
+                    // There is no map if there is no records at the given key
+                    if (map != null) {
+                        map.put("@key", keys.get(position));
+                        next = map;
+                    }
+                    position++;
+                }
+                return next != null;
+            }
+
+            @Override
+            public Map<String, String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                Map<String, String> result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            current = Collections.emptyIterator();
+            jedis.close();
+        }
+    }
+}
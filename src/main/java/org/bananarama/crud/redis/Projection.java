@@ -0,0 +1,138 @@
+package org.bananarama.crud.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import com.googlecode.cqengine.query.option.QueryOptions;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * Reads only some properties of the instances, with HMGET instead of HGETALL.
+ *
+ * Pass an instance in the {@link QueryOptions} of a read: the returned objects have only the
+ * selected properties (and their key) set, the others keep the value set by the constructor.
+ * The name of a nested bean selects all its properties, eg "address" selects "address.city".
+ * Classes stored as blobs are always read whole.
+ *
+ * Partial objects must not be written back, as create and update would overwrite the properties
+ * that have not been read; for the same reason a projection can not be used with {@link Snapshots}.
+ * The records read with a projection are not stored in the near cache.
+ *
+ * <pre>
+ * QueryOptions options = QueryFactory.queryOptions(new Projection("commonProperty"));
+ * List&lt;Host&gt; hosts = banana.read(Host.class).fromKeys(ids, options).collect(Collectors.toList());
+ * </pre>
+ */
+public class Projection {
+
+    private final Set<String> properties;
+
+    public Projection(String... properties) {
+        this(Arrays.asList(properties));
+    }
+
+    /**
+     * @param properties the names of the properties to read
+     */
+    public Projection(Collection<String> properties) {
+
+        if (properties.isEmpty()) {
+            throw new IllegalArgumentException("A projection needs at least one property");
+        }
+
+        this.properties = Collections.unmodifiableSet(new LinkedHashSet<>(properties));
+    }
+
+    /**
+     * @return the projection in the options, or null
+     * @throws IllegalArgumentException if the options hold both a projection and {@link Snapshots}
+     */
+    static Projection of(QueryOptions options) {
+
+        Projection projection = options == null ? null : options.get(Projection.class);
+        if (projection != null && Snapshots.of(options) != null) {
+            throw new IllegalArgumentException("Partial objects can not be recorded in snapshots");
+        }
+        return projection;
+    }
+
+    public Set<String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return the fields of the hashes to read, starting with "class"
+     * @throws IllegalArgumentException if a property is not stored in the hashes of the class
+     */
+    String[] fields(EntityCodec codec) {
+
+        List<String> fields = new ArrayList<>();
+        fields.add("class");
+        for (String name : properties) {
+            int found = fields.size();
+            codec.properties.stream()
+                    .map(p -> p.name)
+                    .filter(field -> field.equals(name) || field.startsWith(name + "."))
+                    .forEach(fields::add);
+            if (fields.size() == found) {
+                throw new IllegalArgumentException("Unknown property " + name + " of " + codec.type.getName());
+            }
+        }
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * @return the function that reads the fields of a chunk of keys with a pipeline of HMGET
+     */
+    static BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher(String[] fields) {
+        return (jedis, keys) -> {
+
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<List<String>>> responses = new ArrayList<>(keys.size());
+            keys.forEach(key -> responses.add(pipeline.hmget(key, fields)));
+            pipeline.sync();
+
+            List<Map<String, String>> records = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                Map<String, String> record = toHash(responses.get(i).get(), fields, keys.get(i));
+                if (record != null) {
+                    records.add(record);
+                }
+            }
+            return records.iterator();
+        };
+    }
+
+    /**
+     * @param values the reply of HMGET
+     * @return the fields that are set, or null if there is no instance at the key
+     */
+    static Map<String, String> toHash(List<String> values, String[] fields, String key) {
+
+        // Every instance has a class
+        if (values.get(0) == null) {
+            return null;
+        }
+
+        Map<String, String> hash = new HashMap<>();
+        for (int i = 0; i < fields.length; i++) {
+            if (values.get(i) != null) {
+                hash.put(fields[i], values.get(i));
+            }
+        }
+        hash.put("@key", key);
+        return hash;
+    }
+}
@@ -0,0 +1,125 @@
+package org.bananarama.crud.redis;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics kept in memory, for each kind of operation: the latency and the size of the
+ * pipelines as histograms, the number of errors and conversion failures, and the payload sent
+ * and received. Read them periodically and publish them to the monitoring system:
+ *
+ * <pre>
+ * private final RecordingMetrics metrics = new RecordingMetrics();
+ *
+ * protected RedisMetrics getMetrics() {
+ *     return metrics;
+ * }
+ * ...
+ * long p99 = metrics.of(Operation.READ).latency().percentile(99);
+ * </pre>
+ */
+public class RecordingMetrics implements RedisMetrics {
+
+    private final Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+
+    public RecordingMetrics() {
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new Stats());
+        }
+    }
+
+    /**
+     * @return the metrics of an operation
+     */
+    public Stats of(Operation operation) {
+        return stats.get(operation);
+    }
+
+    @Override
+    public void operation(Operation operation, Class<?> type, int objects, long nanos, Throwable error) {
+        Stats s = stats.get(operation);
+        s.latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        s.objects.add(objects);
+        if (error != null) {
+            s.errors.increment();
+        }
+    }
+
+    @Override
+    public void pipeline(Operation operation, int keys) {
+        stats.get(operation).pipelines.record(keys);
+    }
+
+    @Override
+    public void conversionFailed(Operation operation, Class<?> type, Exception error) {
+        stats.get(operation).conversionFailures.increment();
+    }
+
+    @Override
+    public void bytes(Operation operation, long sent, long received) {
+        Stats s = stats.get(operation);
+        s.bytesSent.add(sent);
+        s.bytesReceived.add(received);
+    }
+
+    public void reset() {
+        stats.values().forEach(Stats::reset);
+    }
+
+    public static class Stats {
+
+        private final Histogram latency = new Histogram();
+        private final Histogram pipelines = new Histogram();
+        private final LongAdder objects = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder conversionFailures = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+
+        /**
+         * @return the duration of the operations, in microseconds
+         */
+        public Histogram latency() {
+            return latency;
+        }
+
+        /**
+         * @return the number of keys in each pipeline
+         */
+        public Histogram pipelines() {
+            return pipelines;
+        }
+
+        public long objects() {
+            return objects.sum();
+        }
+
+        public long errors() {
+            return errors.sum();
+        }
+
+        public long conversionFailures() {
+            return conversionFailures.sum();
+        }
+
+        public long bytesSent() {
+            return bytesSent.sum();
+        }
+
+        public long bytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        void reset() {
+            latency.reset();
+            pipelines.reset();
+            objects.reset();
+            errors.reset();
+            conversionFailures.reset();
+            bytesSent.reset();
+            bytesReceived.reset();
+        }
+    }
+}
@@ -1,28 +1,31 @@
 package org.bananarama.crud.redis;
 
-import java.beans.BeanInfo;
 import java.beans.IntrospectionException;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Type;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.bananarama.crud.Adapter;
 import org.bananarama.crud.CreateOperation;
 import org.bananarama.crud.DeleteOperation;
 import org.bananarama.crud.ReadOperation;
 import org.bananarama.crud.UpdateOperation;
+import org.bananarama.crud.redis.RedisMetrics.Operation;
 import org.bananarama.crud.redis.annotations.RedisKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +35,9 @@ import com.googlecode.cqengine.query.option.QueryOptions;
 import javaslang.control.Either;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.SafeEncoder;
 
 /**
  * Simple adapter for CRUD operations of objects saved as HashSet in a redis db.
@@ -51,9 +57,21 @@ public abstract class RedisAdapter implements Adapter<Object> {
 
     private static final Logger log = LoggerFactory.getLogger(RedisAdapter.class);
 
+    /**
+     * Default number of commands sent to redis in a single pipeline
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
     // toValue = castmap(toClass).apply(fromValue)
     private static final HashMap<String, Function<String, Object>> castStringMap = new HashMap<>();
     private static final ConcurrentHashMap<Class<?>, InstanceKey> keyGeneratorsMap = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Class<?>, EntityCodec> codecsMap = new ConcurrentHashMap<>();
+    
+    // The classes whose alias has been recorded in the redis of this adapter
+    private final Set<Class<?>> publishedTypes = ConcurrentHashMap.newKeySet();
+    
+    // The write-behind buffers that write through this adapter
+    private final Set<WriteBehind> writeBehinds = ConcurrentHashMap.newKeySet();
 
     static {
         castStringMap.put("java.lang.Double", (s) -> {
@@ -72,67 +90,48 @@ public abstract class RedisAdapter implements Adapter<Object> {
         castStringMap.put("long", (s) -> {
             return Long.parseLong(s);
         });
+        
+        // Also the elements of the collections
+        castStringMap.put("java.lang.Long", Long::valueOf);
+        castStringMap.put("java.lang.Integer", Integer::valueOf);
+        castStringMap.put("int", Integer::valueOf);
+        castStringMap.put("java.lang.Boolean", Boolean::valueOf);
+        castStringMap.put("boolean", Boolean::valueOf);
     }
 
     
     /**
      * Convert a {@link Map<String, String>) to an object. The instance class
-     * must be specified using the fqdn class name as value for the key class.
+     * must be specified using the fqdn class name, or its {@link org.bananarama.crud.redis.annotations.RedisType} 
+     * alias, as value for the key class.
      * @param map {@link Map} <String,String>, the keys are used as property name. The key \@id is reserved
      * @return Either the result or an exception
      */
-    @SuppressWarnings("unchecked")
     protected static <T> Either<Exception, T> mapToObject(Map<String, String> map) {
-
-        // XXX A functional way could be better; a future improvement
-//        Object obj = 
-//                Try.of(() -> {return Class.forName(map.get("class"));})
-//                .mapTry( (clazz) -> {return clazz.newInstance();}).onFailure(x -> {throw new Exception("Probably an empty default construtor is missing?", x);})
-//                .get();
+        return mapToObject(map, null);
+    }
+    
+    /**
+     * @param connections the connection to the node that serves a key, used by the collections to read their companion keys
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Either<Exception, T> mapToObject(Map<String, String> map, Function<String, Jedis> connections) {
         
         try {
-            
-            Class<?> clazz = Class.forName(map.get("class"));
-            InstanceKey key = getKey(clazz);        // The field to use to parse the redis key
-            Object obj = clazz.newInstance();
-
-            BeanInfo info = Introspector.getBeanInfo(clazz);
-            for (PropertyDescriptor pd : info.getPropertyDescriptors()) {
-
-                Method setter = pd.getWriteMethod();
-
-                if (setter != null) {
-                    Type t = setter.getGenericParameterTypes()[0];
-
-                    if (!castStringMap.containsKey(t.getTypeName())) {
-                        throw new RuntimeException(String.format("Missing mapping for objectType [%s]", t.getTypeName()));
-                    }
-
-                    Object value = castStringMap.get(t.getTypeName()).apply(map.get(pd.getName()));
-                    if (value != null) {
-                        setter.invoke(obj, value);
-                    }
-                }
-            }
-            
-            // Set the id **bypassing the setter** (easier, and currently it seems what we need....)
-            String value = extractKey(map.get("@key"), key.regex);
-            boolean access = key.field.isAccessible();
-            key.field.setAccessible(true);
-            key.field.set(obj, value);
-            key.field.setAccessible(access);
-
-            // Set the id
-            return Either.right((T) obj);
+            EntityCodec codec = getCodec(TypeRegistry.resolve(map.get("class"), connections));
+            return Either.right((T) codec.decode(map, connections));
         }
         catch (InstantiationException e) {
-            log.error("Can not instantiate " + map.get("class") + "; does it have a public noargs constructor?", e); // In this case we have to provide usefull hints to the user
+            log.error(e.getMessage(), e); // In this case we have to provide usefull hints to the user
             return Either.left(e);
         }
-        catch (ClassNotFoundException | IllegalAccessException | IntrospectionException | RuntimeException | InvocationTargetException e) {
+        catch (Exception e) {
 //            log.error(e.getMessage(), e); // No need to lo gerrors, since we can return them; the caller will ignore, or do whatever he wants
             return Either.left(e);
         }
+        catch (Throwable e) {
+            throw EntityCodec.unchecked(e);
+        }
     }
     
 
@@ -141,7 +140,7 @@ public abstract class RedisAdapter implements Adapter<Object> {
      * FQDN class is saved as value for the key "class". This method expects
      * that the class T has a field marked with {@link RedisKey}; the value of
      * this field, converted using the patterns specified by the annotation, is
-     * stored using at the key "@id"
+     * stored using at the key "@id". Null properties are not stored.
      *
      * @param t The instance of an object to convert to a map
      * @return Either a Map<String, String> or an exception if something bad happened
@@ -149,38 +148,16 @@ public abstract class RedisAdapter implements Adapter<Object> {
     
     protected static <T> Either<Exception, Map<String, String>> objToMap(T t) {
 
-        InstanceKey key = getKey(t.getClass());
-
         try {
-            // We can't cache the BeanInfo becase the stream could be of different class with the same parent class
-            Map<String, String> objectAsMap = new HashMap<>();
-            BeanInfo info = Introspector.getBeanInfo(t.getClass());
-            for (PropertyDescriptor pd : info.getPropertyDescriptors()) {
-
-                Method reader = pd.getReadMethod();
-                if (reader != null) {
-                    objectAsMap.put(pd.getName(), reader.invoke(t).toString());
-                }
-
-            }
-
-            // Remove the field that is the id from the map; 
-            // this field is mapped as @key to be serialized as key. 
-            // Intstead of doing n checks in the for-cycle, we just remove it from the hash once.            
-            objectAsMap.remove(key.fieldName);
-
-            // Set the "special" @id value as defined by the annotation
-            // toString() is not the best but for now it is enough
-            boolean access = key.field.isAccessible();
-            key.field.setAccessible(true);
-            objectAsMap.put("@key", key.regex.replace("$", key.field.get(t).toString()));
-            key.field.setAccessible(access);
-
-            return Either.right(objectAsMap);
-        } catch (IntrospectionException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+            return Either.right(getCodec(t.getClass()).encode(t));
+        }
+        catch (Exception e) {
             log.warn("Error mapping an object to a map", e);
             return Either.left(e);
         }
+        catch (Throwable e) {
+            throw EntityCodec.unchecked(e);
+        }
     }
 
     protected static String extractKey(String fromString, String pattern) {
@@ -189,13 +166,39 @@ public abstract class RedisAdapter implements Adapter<Object> {
         String leftPart = pattern.substring(0, patternPos);
         String rightPart = pattern.substring(patternPos + 1, pattern.length());
 
-        String result = fromString.replaceFirst(leftPart, "").replaceFirst(rightPart, "");
-        
-//        System.out.println(String.format("[%s] - [%s] --> %s", pattern, fromString, result));
+        // The parts are literals: the pattern can contain {hash tags} and other regex metacharacters
+        String result = fromString.startsWith(leftPart) ? fromString.substring(leftPart.length()) : fromString;
+        if (result.endsWith(rightPart)) {
+            result = result.substring(0, result.length() - rightPart.length());
+        }
 
         return result;
     }
     
+    /**
+     * @return the codec for the class, built the first time the class is seen
+     */
+    static EntityCodec getCodec(Class<?> clazz) throws IntrospectionException, IllegalAccessException {
+        EntityCodec codec = codecsMap.get(clazz);
+        if (codec == null) {
+            codec = EntityCodec.of(clazz, getKey(clazz), castStringMap);
+            codecsMap.put(clazz, codec);
+        }
+
+        return codec;
+    }
+    
+    /**
+     * @return the codec for the class of an object that has been converted to a map
+     */
+    static EntityCodec codecOf(Map<String, String> hash) throws ClassNotFoundException, IntrospectionException, IllegalAccessException {
+        return getCodec(classForName(hash.get("class")));
+    }
+    
+    static Class<?> classForName(String name) throws ClassNotFoundException {
+        return TypeRegistry.resolve(name);
+    }
+    
     private static InstanceKey getKey(Class<?> clazz) {
         if (!keyGeneratorsMap.containsKey(clazz)) {
             InstanceKey key = Stream.concat(
@@ -220,6 +223,785 @@ public abstract class RedisAdapter implements Adapter<Object> {
      */
     protected abstract Jedis getJedis();
 
+    /**
+     * The max number of keys that are read in a single pipeline. Implementations
+     * can override this method to tune the size of the chunks
+     *
+     * @return the number of keys per pipeline
+     */
+    protected int getReadBatchSize() {
+        return DEFAULT_BATCH_SIZE;
+    }
+    
+    /**
+     * The max number of objects that are written or deleted in a single pipeline. Implementations
+     * can override this method to tune the size of the chunks
+     *
+     * @return the number of objects per pipeline
+     */
+    protected int getWriteBatchSize() {
+        return DEFAULT_BATCH_SIZE;
+    }
+    
+    /**
+     * The cache of the records read by fromKeys. By default there is no cache; implementations 
+     * can override this method to return a {@link NearCache}, that must be the same instance at each call
+     *
+     * @return the cache, or null
+     */
+    protected NearCache getNearCache() {
+        return null;
+    }
+    
+    /**
+     * The instrumentation of the operations. By default there is none; implementations can override 
+     * this method to return a {@link RecordingMetrics}, or their own {@link RedisMetrics}, that must be 
+     * the same instance at each call
+     *
+     * @return the metrics, or {@link RedisMetrics#NONE}
+     */
+    protected RedisMetrics getMetrics() {
+        return RedisMetrics.NONE;
+    }
+    
+    /**
+     * Drop the records at the keys from the near cache, if any
+     */
+    void invalidate(List<String> keys) {
+        NearCache cache = getNearCache();
+        if (cache != null) {
+            cache.invalidate(keys);
+        }
+    }
+    
+    /*
+     * The steps of the operations that depend on the topology; they are redefined by RedisClusterAdapter
+     */
+    
+    /**
+     * @return a connection to the node with the indexes of the class
+     */
+    Jedis getJedis(EntityCodec codec) {
+        return getJedis();
+    }
+    
+    /**
+     * @return a connection to the node that serves the key
+     */
+    Jedis getJedis(String redisKey) {
+        return getJedis();
+    }
+    
+    /**
+     * @return the function that reads a chunk of keys of the class
+     */
+    BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher(EntityCodec codec) {
+        return PipelinedHashReader.fetcher(codec);
+    }
+    
+    /**
+     * @return the function that reads a chunk of keys, returning only the instances of the class
+     */
+    BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> typedFetcher(EntityCodec codec) {
+        return TypeFilter.applies(codec) ? TypeFilter.fetcher(codec, codecsMap.values()) : fetcher(codec);
+    }
+    
+    /**
+     * @param fields the fields to read, see {@link Projection#fields(EntityCodec)}
+     * @return the function that reads some fields of a chunk of keys
+     */
+    BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher(EntityCodec codec, String[] fields) {
+        return Projection.fetcher(fields);
+    }
+    
+    /**
+     * @return the function that reads a chunk of keys for a read, with or without a projection
+     */
+    private BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> readFetcher(EntityCodec codec, Projection projection) {
+        return projection == null || codec.blob ? typedFetcher(codec) : fetcher(codec, projection.fields(codec));
+    }
+    
+    /**
+     * @param fetcher the function that reads the keys of a page, see {@link #fetcher(EntityCodec)}
+     * @return the records whose keys match the pattern
+     */
+    Stream<Map<String, String>> scan(EntityCodec codec, String pattern, BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher) {
+        ScanSpliterator scan = new ScanSpliterator(this::getJedis, pattern, getReadBatchSize(), fetcher);
+        return StreamSupport.stream(scan, false).onClose(scan::close);
+    }
+    
+    void writeChunk(List<Map<String, String>> hashes) throws Exception {
+        try (Jedis jedis = getJedis()) {
+            writeHashes(jedis, hashes);
+        }
+    }
+    
+    void updateChunk(List<Map<String, String>> hashes, Snapshots snapshots) throws Exception {
+        try (Jedis jedis = getJedis()) {
+            updateHashes(jedis, hashes, snapshots, Jedis::pipelined);
+        }
+    }
+    
+    void deleteChunk(List<EntityCodec> codecs, List<String> keys) throws Exception {
+        try (Jedis jedis = getJedis()) {
+            deleteKeys(jedis, codecs, keys);
+        }
+    }
+    
+    /**
+     * Delete the keys without reading them
+     */
+    void unlinkChunk(List<String> keys) throws Exception {
+        try (Jedis jedis = getJedis()) {
+            Pipeline pipeline = jedis.pipelined();
+            Unlink.queue(pipeline, keys);
+            pipeline.sync();
+        }
+    }
+    
+    /**
+     * Convert an object to a hash, reporting the failures
+     * 
+     * @return the hash, or null if the object can not be converted
+     */
+    private Map<String, String> toHash(Object obj, Operation operation, Class<?> type) {
+        
+        Either<Exception, Map<String, String>> either = objToMap(obj);
+        if (either.isLeft()) {
+            getMetrics().conversionFailed(operation, type, either.getLeft());
+            return null;
+        }
+        publish(obj.getClass());
+        return either.get();
+    }
+    
+    /**
+     * Record in redis the classes of the {@link org.bananarama.crud.redis.annotations.RedisType} aliases, 
+     * so that the clients that have not loaded a class yet can read its instances. This is done anyway 
+     * the first time an instance of the class is written
+     * 
+     * @param types the classes to register; the ones without alias are ignored
+     */
+    public void registerTypes(Class<?>... types) {
+        for (Class<?> type : types) {
+            publish(type);
+        }
+    }
+    
+    /**
+     * Record the alias of the class in redis, once per adapter
+     */
+    void publish(Class<?> type) {
+        
+        if (publishedTypes.contains(type)) {
+            return;
+        }
+        
+        try {
+            EntityCodec codec = getCodec(type);
+            if (!codec.discriminator.equals(type.getName())) {
+                try (Jedis jedis = getJedis(TypeRegistry.KEY)) {
+                    TypeRegistry.publish(codec, jedis);
+                }
+            }
+            publishedTypes.add(type);
+        }
+        catch (Exception e) {
+            // Tried again with the next instance
+            log.warn("Can not record the alias of {}", type.getName(), e);
+        }
+    }
+    
+    void attach(WriteBehind behind) {
+        writeBehinds.add(behind);
+    }
+    
+    void detach(WriteBehind behind) {
+        writeBehinds.remove(behind);
+    }
+    
+    /**
+     * Drop the pending objects at the keys from the write-behind buffers, so that the deleted objects are not written again
+     */
+    void discardPending(List<String> keys) {
+        writeBehinds.forEach(behind -> behind.discard(keys));
+    }
+    
+    /**
+     * Write the objects buffered by the {@link WriteBehind} in the options, if any
+     */
+    private static void flushPending(QueryOptions options) {
+        WriteBehind behind = WriteBehind.of(options);
+        if (behind != null) {
+            behind.flush();
+        }
+    }
+    
+    /**
+     * Compute the count, sum, min and max of a numeric property of all the instances of the class. 
+     * The keys are scanned as by {@link ReadOperation#all()}, and a Lua script aggregates each page 
+     * on the server, so that only the aggregates are sent back. The instances of the other classes 
+     * that share the key pattern are not counted
+     * 
+     * @throws IllegalArgumentException if the property is not stored in the hashes of the class
+     * @throws UnsupportedOperationException if the class is stored as a blob
+     */
+    public Aggregates aggregate(Class<?> type, String property) {
+        return aggregate(type, property, null, Aggregation::stats, RedisAdapter::merge);
+    }
+    
+    /**
+     * Compute the count, sum, min and max of a numeric property of the instances found by 
+     * a where clause, see {@link #aggregate(Class, String)}
+     */
+    public <Q> Aggregates aggregate(Class<?> type, String property, Q whereClause) {
+        return aggregate(type, property, whereClause, Aggregation::stats, RedisAdapter::merge);
+    }
+    
+    /**
+     * Count the instances of the class by value of a property, see {@link #aggregate(Class, String)}.
+     * The instances that do not have the property are not counted
+     * 
+     * @return the number of instances, by value
+     */
+    public Map<String, Long> countBy(Class<?> type, String property) {
+        return aggregate(type, property, null, Aggregation::counts, RedisAdapter::sum);
+    }
+    
+    /**
+     * Count the instances found by a where clause by value of a property, see {@link #countBy(Class, String)}
+     */
+    public <Q> Map<String, Long> countBy(Class<?> type, String property, Q whereClause) {
+        return aggregate(type, property, whereClause, Aggregation::counts, RedisAdapter::sum);
+    }
+    
+    private static Aggregates merge(Stream<Map<String, String>> partials) {
+        return partials.map(Aggregates::of).reduce(Aggregates.EMPTY, Aggregates::merge);
+    }
+    
+    private static Map<String, Long> sum(Stream<Map<String, String>> partials) {
+        Map<String, Long> counts = new HashMap<>();
+        partials.forEach(partial -> partial.forEach((value, n) -> counts.merge(value, Long.parseLong(n), Long::sum)));
+        return counts;
+    }
+    
+    /**
+     * Run a script over the pages of the keys of the class, or of the ids found by the where clause
+     * 
+     * @param script builds the function that runs the script on a page, given the field and the accepted class names
+     * @param reduce merges the partial results of the pages
+     */
+    private <R> R aggregate(Class<?> type, String property, Object whereClause, 
+            BiFunction<String, byte[][], BiFunction<Jedis, List<String>, Iterator<Map<String, String>>>> script,
+            Function<Stream<Map<String, String>>, R> reduce) {
+        
+        EntityCodec codec;
+        try {
+            codec = getCodec(type);
+        }
+        catch (IntrospectionException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Can not map " + type.getName(), e);
+        }
+        
+        String field = Aggregation.field(codec, property);
+        checkScripted(codec);
+        byte[][] accepted = TypeFilter.applies(codec) ? TypeFilter.accepted(codec.type, codecsMap.values()) : new byte[0][];
+        BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> pages = script.apply(field, accepted);
+        
+        if (whereClause == null) {
+            try (Stream<Map<String, String>> partials = scan(codec, getKey(type).pattern(), pages)) {
+                return reduce.apply(partials);
+            }
+        }
+        
+        try (Jedis jedis = getJedis(codec); IndexQuery query = IndexQuery.of(jedis, codec, whereClause)) {
+            InstanceKey key = getKey(type);
+            Iterator<List<String>> ids = query.ids(getReadBatchSize());
+            List<Map<String, String>> partials = new ArrayList<>();
+            while (ids.hasNext()) {
+                List<String> keys = ids.next().stream().map(id -> key.regex.replace("$", id)).collect(Collectors.toList());
+                pages.apply(jedis, keys).forEachRemaining(partials::add);
+            }
+            return reduce.apply(partials.stream());
+        }
+    }
+    
+    /**
+     * Check that the keys of the class can be passed together to a script
+     * 
+     * @throws UnsupportedOperationException if they can not
+     */
+    void checkScripted(EntityCodec codec) {
+    }
+    
+    /**
+     * Write the objects one chunk at a time, going on with the next chunk when one fails. 
+     * The chunks hold {@link #getWriteBatchSize()} objects, or as set by the options
+     * 
+     * @param writer sends a chunk of hashes
+     * @return the number of objects in the chunks that have been written
+     */
+    private <T> int writeChunks(Stream<T> data, QueryOptions options, Operation operation, Class<T> type, BulkWrite.ChunkWriter writer) {
+        
+        ChunkedWrites chunked = ChunkedWrites.of(options);
+        ParallelWrites parallel = ParallelWrites.of(options);
+        RedisMetrics metrics = getMetrics();
+        long start = metrics == RedisMetrics.NONE ? 0 : System.nanoTime();
+        
+        int size = chunked == null ? getWriteBatchSize() : chunked.getMaxObjects();
+        Function<Iterator<Map<String, String>>, Iterator<List<Map<String, String>>>> split = hashes -> chunked == null 
+                ? Batches.chunked(hashes, size) 
+                : Batches.chunked(hashes, size, chunked.getMaxBytes(), Payloads::ofHash);
+        
+        BulkWrite write = new BulkWrite(operation, type, writer, metrics, chunked == null ? null : chunked.getListener(), this::invalidate);
+        if (parallel == null) {
+            // throw away the objects that can not be converted
+            write.run(split.apply(data.map(obj -> toHash(obj, operation, type)).filter(hash -> hash != null).iterator()));
+        }
+        else {
+            write.run(Batches.chunked(data.iterator(), size), (T obj) -> toHash(obj, operation, type), 
+                    hashes -> split.apply(hashes.iterator()), parallel);
+        }
+        
+        completed(metrics, operation, type, write.getWritten(), start, write.getError());
+        return write.getWritten();
+    }
+    
+    /**
+     * Report the end of an operation
+     * 
+     * @param start the value of {@link System#nanoTime()} when the operation started 
+     */
+    private static void completed(RedisMetrics metrics, Operation operation, Class<?> type, int objects, long start, Throwable error) {
+        if (metrics != RedisMetrics.NONE) {
+            metrics.operation(operation, type, objects, System.nanoTime() - start, error);
+        }
+    }
+    
+    /**
+     * Wrap the function that reads a chunk of keys, to report each pipeline as a read. 
+     * When the metrics are enabled, the records of a chunk are collected to measure them
+     */
+    BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> instrumented(Class<?> type, BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher) {
+        
+        RedisMetrics metrics = getMetrics();
+        if (metrics == RedisMetrics.NONE) {
+            return fetcher;
+        }
+        
+        return (jedis, keys) -> {
+            long start = System.nanoTime();
+            List<Map<String, String>> records = new ArrayList<>(keys.size());
+            try {
+                fetcher.apply(jedis, keys).forEachRemaining(records::add);
+            }
+            catch (RuntimeException e) {
+                completed(metrics, Operation.READ, type, records.size(), start, e);
+                throw e;
+            }
+            completed(metrics, Operation.READ, type, records.size(), start, null);
+            metrics.pipeline(Operation.READ, keys.size());
+            metrics.bytes(Operation.READ, Payloads.size(keys), Payloads.ofHashes(records));
+            return records.iterator();
+        };
+    }
+    
+    /**
+     * Lazily read the hashes at the given keys, one pipeline per chunk, and convert them to T.
+     * Only the keys that are not in the near cache are read from redis, unless there is a projection.
+     * The returned stream holds a connection until it is fully consumed or closed
+     */
+    private <T> Stream<T> readHashes(Class<T> type, Iterator<List<String>> chunks, Snapshots snapshots, Projection projection) {
+        
+        PipelinedHashReader reader;
+        try {
+            BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher = instrumented(type, readFetcher(getCodec(type), projection));
+            NearCache cache = projection == null ? getNearCache() : null;
+            reader = new PipelinedHashReader(getJedis(), chunks, cache == null ? fetcher : cache.around(fetcher));
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            return Stream.empty();
+        }
+        
+        return toEntities(type, StreamSupport.stream(Spliterators.spliteratorUnknownSize(reader, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(reader::close), snapshots);
+    }
+    
+    /**
+     * Lazily read all the hashes whose key match the pattern, and convert them to T. 
+     * The returned stream holds a connection until it is fully consumed or closed
+     */
+    private <T> Stream<T> scanHashes(Class<T> type, String pattern, Snapshots snapshots, Projection projection) {
+        
+        try {
+            EntityCodec codec = getCodec(type);
+            return toEntities(type, scan(codec, pattern, instrumented(type, readFetcher(codec, projection))), snapshots);
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            return Stream.empty();
+        }
+    }
+    
+    /**
+     * Lazily read the instances whose ids are found by an index query, and convert them to T.
+     * The returned stream holds a connection until it is fully consumed or closed
+     */
+    private <T> Stream<T> readIndexed(Class<T> type, Object whereClause, Snapshots snapshots, Projection projection) {
+        
+        Jedis jedis = null;
+        EntityCodec codec;
+        IndexQuery query;
+        BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher;
+        try {
+            codec = getCodec(type);
+            fetcher = instrumented(type, readFetcher(codec, projection));
+            jedis = getJedis(codec);
+            query = IndexQuery.of(jedis, codec, whereClause);
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            if (jedis != null) {
+                jedis.close();
+            }
+            throw e;
+        } catch (Exception e) {
+            if (jedis != null) {
+                jedis.close();
+            }
+            log.error(e.getMessage(), e);
+            return Stream.empty();
+        }
+        
+        InstanceKey key = getKey(type);
+        Iterator<List<String>> keys = Batches.map(query.ids(getReadBatchSize()), ids -> ids.stream()
+                .map(id -> key.regex.replace("$", id))
+                .collect(Collectors.toList()));
+        
+        PipelinedHashReader reader = new PipelinedHashReader(jedis, keys, fetcher);
+        return toEntities(type, StreamSupport.stream(Spliterators.spliteratorUnknownSize(reader, Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    // Drop the temporary results if the stream has not been consumed 
+                    if (!reader.isClosed()) {
+                        query.close();
+                    }
+                    reader.close();
+                }), snapshots);
+    }
+    
+    /**
+     * Write a chunk of objects, converted to maps, in a single pipeline. If some classes have 
+     * indexed properties, their previous values are read in a first pipeline, to update the indexes 
+     */
+    static void writeHashes(Jedis jedis, List<Map<String, String>> hashes) throws Exception {
+        writeHashes(jedis, hashes, Jedis::pipelined);
+    }
+    
+    /**
+     * @param pipelines the factory of the pipelines on the connection
+     */
+    static void writeHashes(Jedis jedis, List<Map<String, String>> hashes, Function<Jedis, Pipeline> pipelines) throws Exception {
+        
+        List<EntityCodec> codecs = new ArrayList<>(hashes.size());
+        for (Map<String, String> hash : hashes) {
+            codecs.add(codecOf(hash));
+        }
+        List<List<String>> previous = readIndexedValues(jedis, codecs, hashes.stream().map(hash -> hash.get("@key")).collect(Collectors.toList()), pipelines);
+        
+        // The versioned hashes are written first, the rest of the instances only if their version matched
+        Map<Integer, Versions.Change> versioned = new HashMap<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            if (codecs.get(i).version != null) {
+                versioned.put(i, Versions.Change.of(codecs.get(i), hashes.get(i), null));
+            }
+        }
+        Versions.Outcome outcome = Versions.write(jedis, pipelines, codecs, hashes, versioned);
+        
+        Pipeline pipeline = pipelines.apply(jedis);
+        for (int i = 0; i < hashes.size(); i++) {
+            Map<String, String> hash = hashes.get(i);
+            String key = hash.get("@key");
+            EntityCodec codec = codecs.get(i);
+            
+            if (outcome.skipped(i)) {
+                continue;
+            }
+            if (codec.blob) {
+                pipeline.set(SafeEncoder.encode(key), BlobFormat.encode(codec, hash));
+            }
+            else if (!versioned.containsKey(i)) {
+                HashFormat.write(pipeline, key, hash);
+            }
+            
+            Companions.write(pipeline, codec, hash);
+            Expiration.write(pipeline, codec, hash);
+            
+            if (codec.hasIndexes()) {
+                SecondaryIndexes.update(pipeline, codec, codec.idOf(key), previous.get(i), hash);
+            }
+        }
+        JedisRedirectionException moved = sync(pipeline);
+        redirect(hashes, outcome, moved, redirected(hashes.size(), versioned.keySet(), outcome, moved));
+        conflicted(hashes, outcome.conflicts);
+    }
+    
+    /**
+     * Send the pipeline that follows the compare-and-set of the versioned hashes
+     *
+     * @return the redirection to another node of a cluster, or null
+     */
+    private static JedisRedirectionException sync(Pipeline pipeline) {
+        try {
+            pipeline.sync();
+            return null;
+        }
+        catch (JedisRedirectionException e) {
+            return e;
+        }
+    }
+    
+    /**
+     * The hashes to send again to another node of a cluster: the versioned ones whose script has been
+     * redirected and, if the pipeline that follows has been redirected, all the others. The versioned
+     * hashes that have been written can not be sent twice
+     *
+     * @param moved the redirection of the pipeline that follows the compare-and-set, or null
+     */
+    private static List<Integer> redirected(int size, Set<Integer> versioned, Versions.Outcome outcome, JedisRedirectionException moved) {
+        
+        List<Integer> positions = new ArrayList<>(outcome.redirected.keySet());
+        if (moved != null) {
+            for (int i = 0; i < size; i++) {
+                if (!versioned.contains(i)) {
+                    positions.add(i);
+                }
+            }
+        }
+        Collections.sort(positions);
+        return positions;
+    }
+    
+    /**
+     * @throws PartialRedirection if some hashes have to be sent to another node, with the conflicts found
+     */
+    private static void redirect(List<Map<String, String>> hashes, Versions.Outcome outcome, JedisRedirectionException moved, List<Integer> positions) {
+        
+        if (positions.isEmpty()) {
+            if (moved != null) {
+                log.warn("The collections, expiration or indexes of some versioned instances have not been written", moved);
+            }
+            return;
+        }
+        
+        List<String> conflicts = outcome.conflicts.stream().sorted().map(i -> hashes.get(i).get("@key")).collect(Collectors.toList());
+        throw new PartialRedirection(moved != null ? moved : outcome.redirected.values().iterator().next(), positions, conflicts);
+    }
+    
+    /**
+     * @throws VersionConflictException if some hashes have not been written
+     */
+    private static void conflicted(List<Map<String, String>> hashes, Set<Integer> conflicts) {
+        if (!conflicts.isEmpty()) {
+            throw new VersionConflictException(conflicts.stream().sorted().map(i -> hashes.get(i).get("@key")).collect(Collectors.toList()));
+        }
+    }
+    
+    /**
+     * Write a chunk of objects, converted to maps, sending only the fields that differ from their snapshots.
+     * The hashes without a snapshot are read from redis in a first pipeline. Blobs can not be partially
+     * written: they are written again if some property changed
+     */
+    static void updateHashes(Jedis jedis, List<Map<String, String>> hashes, Snapshots snapshots, Function<Jedis, Pipeline> pipelines) throws Exception {
+        
+        List<EntityCodec> codecs = new ArrayList<>(hashes.size());
+        List<Map<String, String>> before = new ArrayList<>(hashes.size());
+        Map<Integer, Response<Map<String, String>>> missing = new HashMap<>();
+        Map<Integer, Response<byte[]>> missingBlobs = new HashMap<>();
+        
+        Pipeline reads = pipelines.apply(jedis);
+        for (int i = 0; i < hashes.size(); i++) {
+            String key = hashes.get(i).get("@key");
+            EntityCodec codec = codecOf(hashes.get(i));
+            Map<String, String> snapshot = snapshots == null ? null : snapshots.get(key);
+            codecs.add(codec);
+            before.add(snapshot);
+            
+            if (snapshot == null && codec.blob) {
+                missingBlobs.put(i, reads.get(SafeEncoder.encode(key)));
+            }
+            else if (snapshot == null) {
+                missing.put(i, reads.hgetAll(key));
+            }
+        }
+        reads.sync();
+        missing.forEach((i, response) -> before.set(i, response.get()));
+        for (Map.Entry<Integer, Response<byte[]>> blob : missingBlobs.entrySet()) {
+            byte[] value = blob.getValue().get();
+            before.set(blob.getKey(), value == null ? Collections.emptyMap() : BlobFormat.decode(value, hashes.get(blob.getKey()).get("@key")));
+        }
+        
+        Map<Integer, Versions.Change> versioned = new HashMap<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            if (codecs.get(i).version != null) {
+                Versions.Change change = Versions.Change.of(codecs.get(i), hashes.get(i), before.get(i));
+                if (!change.isEmpty()) {
+                    versioned.put(i, change);
+                }
+            }
+        }
+        Versions.Outcome outcome = Versions.write(jedis, pipelines, codecs, hashes, versioned);
+        
+        Pipeline pipeline = pipelines.apply(jedis);
+        for (int i = 0; i < hashes.size(); i++) {
+            Map<String, String> hash = hashes.get(i);
+            Map<String, String> previous = before.get(i);
+            String key = hash.get("@key");
+            EntityCodec codec = codecs.get(i);
+            
+            if (outcome.skipped(i)) {
+                continue;
+            }
+            
+            Map<String, String> changed = new HashMap<>();
+            hash.forEach((field, value) -> {
+                if (!field.equals("@key") && !value.equals(previous.get(field))) {
+                    changed.put(field, value);
+                }
+            });
+            String[] removed = codec.cleared(previous, hash).toArray(new String[0]);
+            
+            if (codec.blob) {
+                if (!changed.isEmpty() || removed.length > 0) {
+                    pipeline.set(SafeEncoder.encode(key), BlobFormat.encode(codec, hash));
+                }
+            }
+            else if (codec.version == null) {
+                HashFormat.write(pipeline, key, changed);
+                if (removed.length > 0) {
+                    pipeline.hdel(key, removed);
+                }
+            }
+            Companions.write(pipeline, codec, hash);
+            Expiration.write(pipeline, codec, hash);
+            
+            if (codec.hasIndexes()) {
+                SecondaryIndexes.changed(pipeline, codec, codec.idOf(key), previous, hash);
+            }
+        }
+        JedisRedirectionException moved = sync(pipeline);
+        List<Integer> resent = redirected(hashes.size(), versioned.keySet(), outcome, moved);
+        
+        // Only once written, or a retry would find nothing to write
+        if (snapshots != null) {
+            for (int i = 0; i < hashes.size(); i++) {
+                if (!outcome.skipped(i) && !resent.contains(i)) {
+                    snapshots.record(hashes.get(i));
+                }
+            }
+        }
+        redirect(hashes, outcome, moved, resent);
+        conflicted(hashes, outcome.conflicts);
+    }
+    
+    /**
+     * Delete a chunk of keys in a single pipeline, with their collections, removing the ids from the indexes 
+     * of their classes. The keys are unlinked, their memory is freed in background
+     */
+    static void deleteKeys(Jedis jedis, List<EntityCodec> codecs, List<String> keys) throws Exception {
+        deleteKeys(jedis, codecs, keys, Jedis::pipelined);
+    }
+    
+    /**
+     * @param pipelines the factory of the pipelines on the connection
+     */
+    static void deleteKeys(Jedis jedis, List<EntityCodec> codecs, List<String> keys, Function<Jedis, Pipeline> pipelines) throws Exception {
+        
+        List<List<String>> previous = readIndexedValues(jedis, codecs, keys, pipelines);
+        
+        List<String> unlinked = new ArrayList<>(keys);
+        for (int i = 0; i < keys.size(); i++) {
+            unlinked.addAll(Companions.keys(codecs.get(i), keys.get(i)));
+        }
+        
+        Pipeline pipeline = pipelines.apply(jedis);
+        Unlink.queue(pipeline, unlinked);
+        for (int i = 0; i < keys.size(); i++) {
+            EntityCodec codec = codecs.get(i);
+            if (codec.hasIndexes()) {
+                SecondaryIndexes.update(pipeline, codec, codec.idOf(keys.get(i)), previous.get(i), null);
+            }
+        }
+        pipeline.sync();
+    }
+    
+    /**
+     * Read, in a single pipeline, the values of the indexed properties currently stored at the keys.
+     * No command is sent if no class has indexes
+     * 
+     * @return the values for each key, or null for the classes without set indexes
+     */
+    private static List<List<String>> readIndexedValues(Jedis jedis, List<EntityCodec> codecs, List<String> keys, Function<Jedis, Pipeline> pipelines) throws Exception {
+        
+        if (codecs.stream().allMatch(codec -> codec.indexes.isEmpty())) {
+            return Collections.nCopies(keys.size(), null);
+        }
+        
+        // The values of blobs are not addressable, the whole blob is read
+        Pipeline pipeline = pipelines.apply(jedis);
+        List<Response<List<String>>> fields = new ArrayList<>(keys.size());
+        List<Response<byte[]>> blobs = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            EntityCodec codec = codecs.get(i);
+            boolean blob = codec.blob && !codec.indexes.isEmpty();
+            fields.add(blob ? null : SecondaryIndexes.previous(pipeline, codec, keys.get(i)));
+            blobs.add(blob ? pipeline.get(SafeEncoder.encode(keys.get(i))) : null);
+        }
+        pipeline.sync();
+        
+        List<List<String>> previous = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            if (fields.get(i) != null) {
+                previous.add(fields.get(i).get());
+            }
+            else if (blobs.get(i) != null) {
+                byte[] blob = blobs.get(i).get();
+                Map<String, String> hash = blob == null ? Collections.emptyMap() : BlobFormat.decode(blob, keys.get(i));
+                previous.add(codecs.get(i).indexes.stream().map(p -> hash.get(p.name)).collect(Collectors.toList()));
+            }
+            else {
+                previous.add(null);
+            }
+        }
+        return previous;
+    }
+    
+    /**
+     * Convert the hashes to T, recording them in the snapshots if any
+     */
+    @SuppressWarnings("unchecked")
+    <T> Stream<T> toEntities(Class<T> type, Stream<Map<String, String>> hashes, Snapshots snapshots) {
+        
+        RedisMetrics metrics = getMetrics();
+        if (snapshots != null) {
+            hashes = hashes.peek(snapshots::record);
+        }
+        
+        return (Stream<T>) hashes
+                .map(hash -> mapToObject(hash, this::getJedis))
+                .filter(either -> {
+                    
+                    if(either.isLeft()) {
+                        log.warn("An error during the convertion from Redis to POJO occurred:", either.getLeft());
+                        metrics.conversionFailed(Operation.READ, type, either.getLeft());
+                    }
+                    
+                    return either.isRight();
+                })
+                .map(Either::get)
+                .filter(type::isInstance);                  // Return only types that match the required class
+    }
+
     @Override
     public <T> CreateOperation<T> create(Class<T> clazz) {
 
@@ -234,23 +1016,13 @@ public abstract class RedisAdapter implements Adapter<Object> {
             @Override
             public CreateOperation<T> from(Stream<T> data, QueryOptions options) {
 
-                try (Jedis jedis = getJedis();
-                        Pipeline pipeline = jedis.pipelined()) {
-
-                    data.map(RedisAdapter::objToMap) // Convert to hashmap
-                            .filter(Either::isRight) // throw away wrong stuff                         
-                            .map(Either::get)
-                            .forEach(mapObj -> {
-                                String key = mapObj.get("@key");
-                                mapObj.entrySet().stream()
-                                        .filter(entry -> !entry.getKey().equals("@key"))
-                                        .forEach(entry -> pipeline.hset(key, entry.getKey(), entry.getValue()));
-                            });
-                    pipeline.sync();
-                } catch (Exception e) {
-                    log.warn("Error persisting an element", e);
+                WriteBehind behind = WriteBehind.of(options);
+                if (behind != null) {
+                    data.map(obj -> toHash(obj, Operation.CREATE, clazz)).filter(hash -> hash != null).forEach(behind::put);
+                    return this;
                 }
-
+                
+                writeChunks(data, options, Operation.CREATE, clazz, RedisAdapter.this::writeChunk);
                 return this;
             }
 
@@ -274,7 +1046,9 @@ public abstract class RedisAdapter implements Adapter<Object> {
 
             @Override
             public Stream<T> all(QueryOptions options) {
-                throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+                // Subclasses share the key pattern of the parent; the instances of other types are filtered out
+                flushPending(options);
+                return scanHashes(type, getKey(type).pattern(), Snapshots.of(options), Projection.of(options));
             }
 
             @Override
@@ -284,7 +1058,8 @@ public abstract class RedisAdapter implements Adapter<Object> {
 
             @Override
             public <Q> Stream<T> where(Q whereClause, QueryOptions options) {
-                throw new UnsupportedOperationException("Select with where is not supported"); //To change body of generated methods, choose Tools | Templates.
+                flushPending(options);
+                return readIndexed(type, whereClause, Snapshots.of(options), Projection.of(options));
             }
 
             @Override
@@ -293,46 +1068,23 @@ public abstract class RedisAdapter implements Adapter<Object> {
             }
 
             @Override
-            @SuppressWarnings("unchecked")
             public Stream<T> fromKeys(List<?> keys, QueryOptions options) {
                 
-                try (Jedis jedis = getJedis()) {
-
-                    return (Stream<T>) keys.stream()
-                            .map(Object::toString)
-//                            .map(s ->{
-//                                return s;
-//                            })
-                            .map(s -> {return getKey(type).regex.replace("$", s);})
-                            .map(key -> {
-                                
-                                Map<String, String> map = jedis.hgetAll(key);
-                                // The map is empty if there is no records at the given key
-                                if(!map.isEmpty()) {
-                                    map.put("@key", key);    
-                                }                               
-                                return map;
-                            })
-                            .filter(map -> {return !map.isEmpty();})                            
-                            .map(RedisAdapter::mapToObject)                            
-                            .filter(either -> {
-                                
-                                if(either.isLeft()) {
-                                    log.warn("An error during the convertion from Redis to POJO occurred:", either.getLeft());
-                                }
-                                
-                                return either.isRight();
-                            })
-                            .filter(Either::isRight)                    // Returning only valid results, but where are we handling the errors?                            
-                            .map(Either::get)
-                            .filter(type::isInstance)                   // Return only types that match the required class
-                            ;
-
-                } catch (Exception e) {
-                    log.error(e.getMessage(), e);
+                InstanceKey key = getKey(type);
+                Iterator<String> redisKeys = keys.stream()
+                        .map(Object::toString)
+                        .map(s -> {return key.regex.replace("$", s);})
+                        .iterator();
+                
+                WriteBehind behind = WriteBehind.of(options);
+                if (behind != null) {
+                    List<String> all = new ArrayList<>(keys.size());
+                    redisKeys.forEachRemaining(all::add);
+                    behind.flush(all);
+                    redisKeys = all.iterator();
                 }
-
-                return Stream.empty();
+                
+                return readHashes(type, Batches.chunked(redisKeys, getReadBatchSize()), Snapshots.of(options), Projection.of(options));
             }
 
             @Override
@@ -342,14 +1094,49 @@ public abstract class RedisAdapter implements Adapter<Object> {
         };
     }
 
+    /**
+     * Only the properties that differ from the last known state of each instance are written; 
+     * pass a {@link Snapshots} in the options to provide that state, otherwise it is read from redis.
+     */
     @Override
     public <T> UpdateOperation<T> update(Class<T> clazz) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        return new UpdateOperation<T>() {
+            @Override
+            public UpdateOperation<T> from(Stream<T> data) {
+                return from(data, null);
+            }
+
+            @Override
+            public UpdateOperation<T> from(Stream<T> data, QueryOptions options) {
+                
+                Snapshots snapshots = Snapshots.of(options);
+                flushPending(options);
+                writeChunks(data, options, Operation.UPDATE, clazz, chunk -> updateChunk(chunk, snapshots));
+                return this;
+            }
+
+            @Override
+            public <Q> UpdateOperation<T> where(Q whereClaus) {
+                return where(whereClaus, null);
+            }
+
+            @Override
+            public <Q> UpdateOperation<T> where(Q whereClaus, QueryOptions options) {
+                throw new UnsupportedOperationException("Updates by query are not supported, read the instances and update them with from()");
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+        };
     }
 
+    /**
+     * The returned operation is a {@link RedisDeleteOperation}, that can also delete by id
+     */
     @Override
-    public <T> DeleteOperation<T> delete(Class<T> clazz) {
-        return new DeleteOperation<T>() {
+    public <T> RedisDeleteOperation<T> delete(Class<T> clazz) {
+        return new RedisDeleteOperation<T>() {
             @Override
             public <Q> DeleteOperation<T> where(Q whereClaus) {
                 return where(whereClaus, null);
@@ -357,7 +1144,33 @@ public abstract class RedisAdapter implements Adapter<Object> {
 
             @Override
             public <Q> DeleteOperation<T> where(Q whereClaus, QueryOptions options) {
-                throw new UnsupportedOperationException("Delte with where clause is not supported.");
+                
+                flushPending(options);
+                RedisMetrics metrics = getMetrics();
+                long start = metrics == RedisMetrics.NONE ? 0 : System.nanoTime();
+                int deleted = 0;
+                Exception error = null;
+                try (Jedis jedis = getJedis(getCodec(clazz))) {
+                    
+                    InstanceKey key = getKey(clazz);
+                    BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher = instrumented(clazz, typedFetcher(getCodec(clazz)));
+                    try (IndexQuery query = IndexQuery.of(jedis, getCodec(clazz), whereClaus)) {
+                        
+                        Iterator<List<String>> pages = query.ids(getWriteBatchSize());
+                        while (pages.hasNext()) {
+                            List<String> keys = pages.next().stream().map(id -> key.regex.replace("$", id)).collect(Collectors.toList());
+                            deleted += deleteStored(jedis, clazz, fetcher, keys);
+                        }
+                    }
+                } catch (UnsupportedOperationException e) {
+                    completed(metrics, Operation.DELETE, clazz, deleted, start, e);
+                    throw e;
+                } catch (Exception e) {
+                    error = e;
+                    log.warn("Error deleting an element", e);
+                }
+                completed(metrics, Operation.DELETE, clazz, deleted, start, error);
+                return this;
             }
 
             @Override
@@ -367,16 +1180,75 @@ public abstract class RedisAdapter implements Adapter<Object> {
 
             @Override
             public DeleteOperation<T> from(Stream<T> data, QueryOptions options) {
-                try (Jedis jedis = getJedis();
-                        Pipeline pipeline = jedis.pipelined()) {
-
-                    data.map(RedisAdapter::objToMap) // Convert to hashmap
-                            .filter(Either::isRight) // throw away wrong stuff                         
-                            .map(Either::get)
-                            .map(map -> map.get("@key"))
-                            .forEach(pipeline::del);
+                
+                RedisMetrics metrics = getMetrics();
+                long start = metrics == RedisMetrics.NONE ? 0 : System.nanoTime();
+                int deleted = 0;
+                Exception error = null;
+                try {
 
-                    pipeline.sync();
+                    // Only the keys are needed, the objects are not converted to hashes
+                    Iterator<List<T>> chunks = Batches.chunked(data.iterator(), getWriteBatchSize());
+                    while (chunks.hasNext()) {
+                        List<T> chunk = chunks.next();
+                        List<EntityCodec> codecs = new ArrayList<>(chunk.size());
+                        List<String> keys = new ArrayList<>(chunk.size());
+                        for (T obj : chunk) {
+                            try {
+                                EntityCodec codec = getCodec(obj.getClass());
+                                keys.add(codec.keyOf(obj));
+                                codecs.add(codec);
+                            }
+                            catch (Exception e) {
+                                log.warn("Error mapping an object to a key", e);
+                                metrics.conversionFailed(Operation.DELETE, clazz, e);
+                            }
+                            catch (Throwable e) {
+                                throw EntityCodec.unchecked(e);
+                            }
+                        }
+                        if (metrics != RedisMetrics.NONE) {
+                            metrics.pipeline(Operation.DELETE, keys.size());
+                            metrics.bytes(Operation.DELETE, Payloads.size(keys), 0);
+                        }
+                        discardPending(keys);
+                        deleteChunk(codecs, keys);
+                        invalidate(keys);
+                        deleted += keys.size();
+                    }
+                } catch (Exception e) {
+                    error = e;
+                    log.warn("Error deleting an element", e);
+                }
+                completed(metrics, Operation.DELETE, clazz, deleted, start, error);
+                return this;
+            }
+            
+            @Override
+            public RedisDeleteOperation<T> fromKeys(List<?> ids) {
+                
+                InstanceKey key = getKey(clazz);
+                Iterator<String> keys = ids.stream()
+                        .map(id -> key.regex.replace("$", id.toString()))
+                        .iterator();
+                deleteByKeys(clazz, Batches.chunked(keys, getWriteBatchSize()));
+                return this;
+            }
+            
+            @Override
+            public RedisDeleteOperation<T> matching(String idPattern) {
+                
+                // Only the keys of the pages are needed
+                BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> keysOnly = (jedis, page) -> page.stream()
+                        .map(redisKey -> Collections.singletonMap("@key", redisKey))
+                        .iterator();
+                
+                // The pending objects are written first, to be found by the scan
+                writeBehinds.forEach(WriteBehind::flush);
+                try (Stream<Map<String, String>> found = scan(getCodec(clazz), getKey(clazz).pattern(idPattern), keysOnly)) {
+                    deleteByKeys(clazz, Batches.chunked(found.map(record -> record.get("@key")).iterator(), getWriteBatchSize()));
+                } catch (UnsupportedOperationException e) {
+                    throw e;
                 } catch (Exception e) {
                     log.warn("Error deleting an element", e);
                 }
@@ -389,19 +1261,84 @@ public abstract class RedisAdapter implements Adapter<Object> {
             }
         };
     }
-
-}
-
-class InstanceKey {
-
-    protected Field field;
-    protected String fieldName;
-    protected String regex;
-
-    public InstanceKey(Field field, String fieldName, String regex) {
-        this.field = field;
-        this.fieldName = fieldName;
-        this.regex = regex;
+    
+    /**
+     * Delete the instances of a class at the given keys. If the class has indexes the records are read, 
+     * to check their class and remove them from the indexes; otherwise the keys are just unlinked, with 
+     * the companion keys of the collections of the class
+     */
+    private void deleteByKeys(Class<?> clazz, Iterator<List<String>> chunks) {
+        
+        RedisMetrics metrics = getMetrics();
+        long start = metrics == RedisMetrics.NONE ? 0 : System.nanoTime();
+        int deleted = 0;
+        Exception error = null;
+        try {
+            EntityCodec codec = getCodec(clazz);
+            if (codec.hasIndexes()) {
+                try (Jedis jedis = getJedis(codec)) {
+                    BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher = instrumented(clazz, typedFetcher(codec));
+                    while (chunks.hasNext()) {
+                        List<String> keys = chunks.next();
+                        discardPending(keys);
+                        deleted += deleteStored(jedis, clazz, fetcher, keys);
+                    }
+                }
+            }
+            else {
+                while (chunks.hasNext()) {
+                    List<String> keys = chunks.next();
+                    if (metrics != RedisMetrics.NONE) {
+                        metrics.pipeline(Operation.DELETE, keys.size());
+                        metrics.bytes(Operation.DELETE, Payloads.size(keys), 0);
+                    }
+                    discardPending(keys);
+                    List<String> unlinked = new ArrayList<>(keys);
+                    keys.forEach(key -> unlinked.addAll(Companions.keys(codec, key)));
+                    unlinkChunk(unlinked);
+                    invalidate(keys);
+                    deleted += keys.size();
+                }
+            }
+        } catch (UnsupportedOperationException e) {
+            completed(metrics, Operation.DELETE, clazz, deleted, start, e);
+            throw e;
+        } catch (Exception e) {
+            error = e;
+            log.warn("Error deleting an element", e);
+        }
+        completed(metrics, Operation.DELETE, clazz, deleted, start, error);
+    }
+    
+    /**
+     * Delete, in a single pipeline, the records at the keys that are instances of the class. 
+     * The stored hashes tell the actual class of each id, and the values to remove from its indexes
+     * 
+     * @param jedis a connection to the node of the indexes
+     * @return the number of records deleted
+     */
+    private int deleteStored(Jedis jedis, Class<?> clazz, BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher, List<String> keys) throws Exception {
+        
+        Iterator<Map<String, String>> hashes = fetcher.apply(jedis, keys);
+        List<String> deleted = new ArrayList<>(keys.size());
+        List<String> companions = new ArrayList<>();
+        
+        Pipeline pipeline = jedis.pipelined();
+        while (hashes.hasNext()) {
+            Map<String, String> hash = hashes.next();
+            EntityCodec codec = getCodec(TypeRegistry.resolve(hash.get("class"), this::getJedis));
+            if (clazz.isAssignableFrom(codec.type)) {
+                String redisKey = hash.get("@key");
+                deleted.add(redisKey);
+                companions.addAll(Companions.stored(codec, hash));
+                SecondaryIndexes.remove(pipeline, codec, codec.idOf(redisKey), hash);
+            }
+        }
+        companions.addAll(deleted);
+        Unlink.queue(pipeline, companions);
+        pipeline.sync();
+        invalidate(keys);
+        return deleted.size();
     }
 
 }
@@ -0,0 +1,574 @@
+package org.bananarama.crud.redis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisClusterInfoCache;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisClusterException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.JedisClusterCRC16;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * Adapter for the objects saved in a Redis Cluster.
+ *
+ * The adapter keeps the table of the slots served by each master. The keys of a chunk
+ * are grouped by node, and each group is sent as a single pipeline; the pipelines of
+ * different nodes are sent in parallel. When a node replies with a MOVED redirection the
+ * table is read again and the keys are sent to their new node; during a migration the
+ * reads follow the ASK redirections, while the writes are retried when the migration of
+ * the slot is complete. Writes are idempotent, so a group can be sent again as a whole; but the 
+ * versioned instances written before the redirection are not sent again, as their version would not
+ * match anymore.
+ *
+ * Commands on more than one key must address a single slot: the classes with indexes
+ * must have a hash tag in the prefix of their key, eg <code>@RedisKey("{host}:$")</code>,
+ * so that the instances, their indexes and the temporary results of the queries are stored
+ * together. The operations on indexed classes without a hash tag throw
+ * {@link UnsupportedOperationException}. Blobs are read with a pipeline of GET instead of MGET.
+ *
+ * The implementations provide the address of some nodes of the cluster; the others are discovered:
+ *
+ * <pre>
+ * public class MyClusterAdapter extends RedisClusterAdapter {
+ *     protected Set&lt;HostAndPort&gt; getClusterNodes() {
+ *         return Collections.singleton(new HostAndPort("10.0.0.1", 7000));
+ *     }
+ * }
+ * </pre>
+ */
+public abstract class RedisClusterAdapter extends RedisAdapter {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisClusterAdapter.class);
+
+    private static final int SLOTS = 16384;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long ASK_BACKOFF_MILLIS = 100;
+
+    // Shared by all the adapters; the threads wait for the replies of the nodes
+    private static final ExecutorService executor = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "redis-cluster-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile JedisClusterInfoCache slots;
+
+    /**
+     * The nodes used to discover the cluster; one reachable node is enough
+     *
+     * @return the address of some nodes of the cluster
+     */
+    protected abstract Set<HostAndPort> getClusterNodes();
+
+    /**
+     * The configuration of the pool of connections of each node
+     */
+    protected GenericObjectPoolConfig getPoolConfig() {
+        return new JedisPoolConfig();
+    }
+
+    /**
+     * The connection and socket timeout, in milliseconds
+     */
+    protected int getTimeout() {
+        return Protocol.DEFAULT_TIMEOUT;
+    }
+
+    /**
+     * A connection to the master of the slot 0, for the commands that do not address a key
+     */
+    @Override
+    protected Jedis getJedis() {
+        return pool("").getResource();
+    }
+
+    /**
+     * Release the connections to all the nodes. The table of the slots is discovered again on the next operation
+     */
+    public synchronized void close() {
+        if (slots != null) {
+            slots.getNodes().values().forEach(JedisPool::close);
+            slots = null;
+        }
+    }
+
+    private JedisClusterInfoCache slots() {
+
+        JedisClusterInfoCache cache = slots;
+        if (cache != null) {
+            return cache;
+        }
+
+        synchronized (this) {
+            if (slots == null) {
+                cache = new JedisClusterInfoCache(getPoolConfig(), getTimeout());
+                for (HostAndPort node : getClusterNodes()) {
+                    try (Jedis jedis = new Jedis(node.getHost(), node.getPort(), getTimeout())) {
+                        cache.discoverClusterNodesAndSlots(jedis);
+                        slots = cache;
+                        break;
+                    }
+                    catch (JedisException e) {
+                        log.warn("Can not discover the cluster from " + node, e);
+                    }
+                }
+                if (slots == null) {
+                    throw new JedisConnectionException("No reachable node in " + getClusterNodes());
+                }
+            }
+            return slots;
+        }
+    }
+
+    /**
+     * Read again the table of the slots, after a MOVED redirection
+     */
+    private void renew() {
+
+        JedisClusterInfoCache cache = slots();
+        for (JedisPool pool : new ArrayList<>(cache.getNodes().values())) {
+            try (Jedis jedis = pool.getResource()) {
+                cache.discoverClusterSlots(jedis);
+                return;
+            }
+            catch (JedisException e) {
+                log.debug("Can not read the slots from a node", e);
+            }
+        }
+        throw new JedisConnectionException("No reachable node in the cluster");
+    }
+
+    /**
+     * @return the pool of the master that serves the slot of the key
+     */
+    private JedisPool pool(String key) {
+
+        int slot = JedisClusterCRC16.getSlot(key);
+        JedisPool pool = slots().getSlotPool(slot);
+        if (pool == null) {
+            renew();
+            pool = slots().getSlotPool(slot);
+        }
+        if (pool == null) {
+            throw new JedisClusterException("No node serves the slot " + slot + " of " + key);
+        }
+        return pool;
+    }
+
+    /**
+     * @return the pool of the node that owns the slot of a redirection
+     */
+    private JedisPool pool(HostAndPort node) {
+        slots().setNodeIfNotExist(node);
+        return slots().getNode(JedisClusterInfoCache.getNodeKey(node));
+    }
+
+    /**
+     * @return the pools of the masters
+     */
+    private List<JedisPool> masters() {
+
+        Set<JedisPool> masters = new LinkedHashSet<>();
+        for (int slot = 0; slot < SLOTS; slot++) {
+            JedisPool pool = slots().getSlotPool(slot);
+            if (pool != null) {
+                masters.add(pool);
+            }
+        }
+        return new ArrayList<>(masters);
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the class has indexes, and its instances are not stored in the slot of the indexes
+     */
+    static void checkColocated(EntityCodec codec) {
+
+        if (!codec.hasIndexes()) {
+            return;
+        }
+
+        // Two different ids in the same slot as the indexes means that the key has a hash tag
+        int slot = JedisClusterCRC16.getSlot(SecondaryIndexes.key(codec.key, "0"));
+        if (JedisClusterCRC16.getSlot(codec.key.regex.replace("$", "0")) != slot
+                || JedisClusterCRC16.getSlot(codec.key.regex.replace("$", "1")) != slot) {
+            throw new UnsupportedOperationException(String.format("The keys of %s have no hash tag, the indexes can not be used in a cluster. "
+                    + "Set a key like @RedisKey(\"{%s}:$\")", codec.type.getName(), codec.key.namespace()));
+        }
+    }
+
+    @Override
+    Jedis getJedis(String redisKey) {
+        return pool(redisKey).getResource();
+    }
+
+    @Override
+    Jedis getJedis(EntityCodec codec) {
+        checkColocated(codec);
+        return pool(SecondaryIndexes.key(codec.key, "")).getResource();
+    }
+
+    /**
+     * The keys of a script must be in the same slot: only the classes whose key has a hash tag can be aggregated
+     */
+    @Override
+    void checkScripted(EntityCodec codec) {
+        if (JedisClusterCRC16.getSlot(codec.key.regex.replace("$", "0")) != JedisClusterCRC16.getSlot(codec.key.regex.replace("$", "1"))) {
+            throw new UnsupportedOperationException(String.format("The keys of %s have no hash tag, they can not be aggregated in a cluster. "
+                    + "Set a key like @RedisKey(\"{%s}:$\")", codec.type.getName(), codec.key.namespace()));
+        }
+    }
+
+    /**
+     * The keys of a script must be in the same slot: the classes are filtered by the client
+     */
+    @Override
+    BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> typedFetcher(EntityCodec codec) {
+        return fetcher(codec);
+    }
+
+    /**
+     * The keys are read from their nodes, the connection of the caller is not used
+     */
+    @Override
+    BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher(EntityCodec codec) {
+        return (jedis, keys) -> fetch(codec, keys);
+    }
+
+    @Override
+    BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher(EntityCodec codec, String[] fields) {
+        return (jedis, keys) -> fetch(codec, fields, keys);
+    }
+
+    /**
+     * The keyspace of each master is scanned in turn; if the pattern has a hash tag, only its master is scanned
+     */
+    @Override
+    Stream<Map<String, String>> scan(EntityCodec codec, String pattern, BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher) {
+
+        int open = pattern.indexOf('{');
+        int close = open < 0 ? -1 : pattern.indexOf('}', open + 1);
+        boolean tagged = close > open + 1 && pattern.substring(open + 1, close).chars().noneMatch(c -> "*?[\\".indexOf(c) >= 0);
+
+        return (tagged ? Collections.singletonList(pool(pattern)) : masters()).stream()
+                .map(pool -> {
+                    ScanSpliterator scan = new ScanSpliterator(pool::getResource, pattern, getReadBatchSize(), fetcher);
+                    return StreamSupport.stream(scan, false).onClose(scan::close);
+                })
+                .reduce(Stream.empty(), Stream::concat);
+    }
+
+    @Override
+    void writeChunk(List<Map<String, String>> hashes) throws Exception {
+        check(hashes);
+        write(hashes, (jedis, positions) -> writeHashes(jedis, select(hashes, positions), pipelines()));
+    }
+
+    @Override
+    void updateChunk(List<Map<String, String>> hashes, Snapshots snapshots) throws Exception {
+        check(hashes);
+        write(hashes, (jedis, positions) -> updateHashes(jedis, select(hashes, positions), snapshots, pipelines()));
+    }
+
+    /**
+     * Write the hashes on their nodes, reporting the version conflicts of all the nodes together
+     */
+    private void write(List<Map<String, String>> hashes, NodeTask task) throws Exception {
+
+        List<String> conflicts = Collections.synchronizedList(new ArrayList<>());
+        route(keysOf(hashes), (jedis, positions) -> {
+            try {
+                task.run(jedis, positions);
+            }
+            catch (VersionConflictException e) {
+                conflicts.addAll(e.getKeys());
+            }
+            catch (PartialRedirection e) {
+                conflicts.addAll(e.conflicts);
+                throw e;
+            }
+        });
+
+        if (!conflicts.isEmpty()) {
+            throw new VersionConflictException(new ArrayList<>(conflicts));
+        }
+    }
+
+    @Override
+    void deleteChunk(List<EntityCodec> codecs, List<String> keys) throws Exception {
+        for (EntityCodec codec : codecs) {
+            checkColocated(codec);
+        }
+        route(keys, (jedis, positions) -> deleteKeys(jedis, select(codecs, positions), select(keys, positions), pipelines()));
+    }
+
+    @Override
+    void unlinkChunk(List<String> keys) throws Exception {
+        route(keys, (jedis, positions) -> {
+            Pipeline pipeline = new ClusterPipeline(jedis, false);
+            Unlink.queue(pipeline, select(keys, positions));
+            pipeline.sync();
+        });
+    }
+
+    private static void check(List<Map<String, String>> hashes) throws Exception {
+        for (Map<String, String> hash : hashes) {
+            checkColocated(codecOf(hash));
+        }
+    }
+
+    private static Function<Jedis, Pipeline> pipelines() {
+        return jedis -> new ClusterPipeline(jedis, false);
+    }
+
+    private static List<String> keysOf(List<Map<String, String>> hashes) {
+        return hashes.stream().map(hash -> hash.get("@key")).collect(Collectors.toList());
+    }
+
+    private static <E> List<E> select(List<E> elements, List<Integer> positions) {
+        return positions.stream().map(elements::get).collect(Collectors.toList());
+    }
+
+    /**
+     * Run the task on the node of each group of keys, in parallel. The groups that get a redirection
+     * are sent again, as a whole or only the positions of a {@link PartialRedirection}, to their new nodes
+     *
+     * @param keys the keys of the chunk
+     * @param task the commands on the keys at the given positions
+     */
+    private void route(List<String> keys, NodeTask task) throws Exception {
+
+        List<Integer> pending = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            pending.add(i);
+        }
+
+        for (int attempt = 1; ; attempt++) {
+
+            Map<JedisPool, List<Integer>> groups = new LinkedHashMap<>();
+            for (Integer position : pending) {
+                groups.computeIfAbsent(pool(keys.get(position)), pool -> new ArrayList<>()).add(position);
+            }
+
+            List<Integer> redirected = Collections.synchronizedList(new ArrayList<>());
+            List<JedisRedirectionException> redirections = Collections.synchronizedList(new ArrayList<>());
+            List<Callable<Void>> tasks = new ArrayList<>(groups.size());
+            groups.forEach((pool, positions) -> tasks.add(() -> {
+                try (Jedis jedis = pool.getResource()) {
+                    task.run(jedis, positions);
+                }
+                catch (PartialRedirection e) {
+                    e.positions.forEach(i -> redirected.add(positions.get(i)));
+                    redirections.add(e.getRedirection());
+                }
+                catch (JedisRedirectionException e) {
+                    redirected.addAll(positions);
+                    redirections.add(e);
+                }
+                return null;
+            }));
+            onNodes(tasks);
+
+            if (redirected.isEmpty()) {
+                return;
+            }
+            if (attempt == MAX_ATTEMPTS) {
+                throw redirections.get(0);
+            }
+
+            // ASK: the slot is being migrated, the keys may be on either node until it is done
+            if (redirections.stream().anyMatch(e -> !(e instanceof JedisAskDataException))) {
+                renew();
+            }
+            else {
+                Thread.sleep(ASK_BACKOFF_MILLIS * attempt);
+            }
+            pending = redirected;
+        }
+    }
+
+    /**
+     * Read the keys from their nodes, in parallel, following the redirections of the single keys
+     *
+     * @return the records found, in the order of the keys
+     */
+    private Iterator<Map<String, String>> fetch(EntityCodec codec, List<String> keys) {
+        return fetch(codec, null, keys);
+    }
+
+    /**
+     * @param fields the fields to read with HMGET, or null to read the whole records
+     */
+    private Iterator<Map<String, String>> fetch(EntityCodec codec, String[] fields, List<String> keys) {
+
+        Map<String, Map<String, String>> found = new ConcurrentHashMap<>();
+
+        // key -> the node to ASK, or null for the owner of the slot
+        Map<String, HostAndPort> pending = new LinkedHashMap<>();
+        keys.forEach(key -> pending.put(key, null));
+
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+
+            Map<JedisPool, List<String>> groups = new LinkedHashMap<>();
+            Map<JedisPool, List<String>> asking = new LinkedHashMap<>();
+            pending.forEach((key, node) -> {
+                if (node == null) {
+                    groups.computeIfAbsent(pool(key), pool -> new ArrayList<>()).add(key);
+                }
+                else {
+                    asking.computeIfAbsent(pool(node), pool -> new ArrayList<>()).add(key);
+                }
+            });
+
+            Map<String, JedisRedirectionException> redirected = new ConcurrentHashMap<>();
+            List<Callable<Void>> tasks = new ArrayList<>(groups.size() + asking.size());
+            groups.forEach((pool, group) -> tasks.add(() -> read(pool, false, codec, fields, group, found, redirected, this::getJedis)));
+            asking.forEach((pool, group) -> tasks.add(() -> read(pool, true, codec, fields, group, found, redirected, this::getJedis)));
+            try {
+                onNodes(tasks);
+            }
+            catch (RuntimeException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                throw new JedisClusterException(e);
+            }
+
+            if (redirected.isEmpty()) {
+                break;
+            }
+            if (attempt == MAX_ATTEMPTS) {
+                throw redirected.values().iterator().next();
+            }
+
+            pending.clear();
+            keys.stream().filter(redirected::containsKey).forEach(key -> {
+                JedisRedirectionException e = redirected.get(key);
+                pending.put(key, e instanceof JedisAskDataException ? e.getTargetNode() : null);
+            });
+            if (pending.containsValue(null)) {
+                renew();
+            }
+        }
+
+        return keys.stream().map(found::get).filter(Objects::nonNull).iterator();
+    }
+
+    /**
+     * Read a group of keys from a node in a single pipeline
+     *
+     * @param fields the fields to read with HMGET, or null to read the whole records
+     * @param found the records found, by key
+     * @param redirected the keys that are not served by the node
+     * @param connections the connection to the node that serves a key, to look up the aliases of the blobs
+     */
+    @SuppressWarnings("unchecked")
+    private static Void read(JedisPool pool, boolean asking, EntityCodec codec, String[] fields, List<String> keys,
+            Map<String, Map<String, String>> found, Map<String, JedisRedirectionException> redirected, Function<String, Jedis> connections) {
+
+        try (Jedis jedis = pool.getResource()) {
+            Pipeline pipeline = new ClusterPipeline(jedis, asking);
+            List<Response<?>> responses = new ArrayList<>(keys.size());
+            keys.forEach(key -> responses.add(codec.blob ? pipeline.get(SafeEncoder.encode(key)) 
+                    : fields != null ? pipeline.hmget(key, fields) : pipeline.hgetAll(SafeEncoder.encode(key))));
+            pipeline.syncAndReturnAll();
+
+            for (int i = 0; i < keys.size(); i++) {
+                String key = keys.get(i);
+                try {
+                    Map<String, String> record = codec.blob ? decode((byte[]) responses.get(i).get(), key, connections) 
+                            : fields != null ? Projection.toHash((List<String>) responses.get(i).get(), fields, key) 
+                            : HashFormat.decode((Map<byte[], byte[]>) responses.get(i).get());
+                    if (record != null) {
+                        record.put("@key", key);
+                        found.put(key, record);
+                    }
+                }
+                catch (JedisRedirectionException e) {
+                    redirected.put(key, e);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, String> decode(byte[] blob, String key, Function<String, Jedis> connections) {
+
+        if (blob == null) {
+            return null;
+        }
+        try {
+            return BlobFormat.decode(blob, key, name -> TypeRegistry.resolve(name, connections));
+        }
+        catch (Exception e) {
+            log.warn("Can not decode the blob at " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Run the tasks in parallel, waiting for all of them
+     *
+     * @throws Exception the first error of a task
+     */
+    private static void onNodes(List<Callable<Void>> tasks) throws Exception {
+
+        if (tasks.size() == 1) {
+            tasks.get(0).call();
+            return;
+        }
+
+        Exception error = null;
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            try {
+                future.get();
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                error = error == null ? (Exception) e.getCause() : error;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    @FunctionalInterface
+    private interface NodeTask {
+        void run(Jedis jedis, List<Integer> positions) throws Exception;
+    }
+}
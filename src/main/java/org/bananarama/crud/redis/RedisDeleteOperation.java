@@ -0,0 +1,36 @@
+package org.bananarama.crud.redis;
+
+import java.util.List;
+
+import org.bananarama.crud.DeleteOperation;
+
+/**
+ * The deletes of {@link RedisAdapter}, that can address the instances by id without loading them.
+ *
+ * The keys are built from the {@link org.bananarama.crud.redis.annotations.RedisKey} pattern of
+ * the class and deleted with UNLINK, in chunks of {@link RedisAdapter#getWriteBatchSize()}. If
+ * the class has indexes the stored records are read first, to remove their ids from the indexes;
+ * otherwise nothing is read, and the keys are deleted whatever the class of the instance stored
+ * there (use the class that declares the indexes, if only a subclass has them).
+ *
+ * <pre>
+ * ((RedisDeleteOperation&lt;Host&gt;) adapter.delete(Host.class)).matching("tmp-*");
+ * </pre>
+ */
+public interface RedisDeleteOperation<T> extends DeleteOperation<T> {
+
+    /**
+     * Delete the instances with the given ids; the ids that do not exist are ignored
+     *
+     * @param ids the values of the key fields
+     */
+    RedisDeleteOperation<T> fromKeys(List<?> ids);
+
+    /**
+     * Delete the instances whose id matches a pattern. The keyspace is iterated with SCAN,
+     * so the server is not blocked, and the keys found are deleted page by page
+     *
+     * @param idPattern a glob-style pattern, as used by SCAN MATCH, on the values of the key field; eg "stale-*"
+     */
+    RedisDeleteOperation<T> matching(String idPattern);
+}
@@ -0,0 +1,57 @@
+package org.bananarama.crud.redis;
+
+/**
+ * Instrumentation of the operations of a {@link RedisAdapter}. Implementations return
+ * an instance from {@link RedisAdapter#getMetrics()}; all the methods do nothing by default,
+ * so an implementation overrides only what it needs. {@link RecordingMetrics} keeps
+ * latency histograms and counters in memory.
+ *
+ * The methods are called by the threads that run the operations, so they must be
+ * thread-safe and fast. When the adapter returns {@link #NONE} the payloads are not
+ * measured and no clock is read.
+ */
+public interface RedisMetrics {
+
+    /**
+     * Disables the instrumentation
+     */
+    RedisMetrics NONE = new RedisMetrics() {
+    };
+
+    enum Operation {
+        CREATE, READ, UPDATE, DELETE
+    }
+
+    /**
+     * An operation has completed. Writes and deletes are reported once per call of
+     * <code>from</code> or <code>where</code>, reads once per pipeline, as the streams are lazy
+     *
+     * @param type the class of the objects
+     * @param objects the number of objects written, read or deleted
+     * @param nanos the duration of the operation
+     * @param error the error that stopped the operation, or null
+     */
+    default void operation(Operation operation, Class<?> type, int objects, long nanos, Throwable error) {
+    }
+
+    /**
+     * A pipeline has been sent
+     *
+     * @param keys the number of keys in the pipeline
+     */
+    default void pipeline(Operation operation, int keys) {
+    }
+
+    /**
+     * An object could not be converted to a hash, or a hash to an object; the element is skipped
+     */
+    default void conversionFailed(Operation operation, Class<?> type, Exception error) {
+    }
+
+    /**
+     * The size of the payload of a pipeline, that is the UTF-8 size of the keys, field names and
+     * values; the framing of the protocol is not counted
+     */
+    default void bytes(Operation operation, long sent, long received) {
+    }
+}
@@ -0,0 +1,196 @@
+package org.bananarama.crud.redis;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+/**
+ * Lazily read all the hashes whose key match a pattern. The keyspace is iterated
+ * with SCAN, one cursor page at time, and the keys of a page are read together
+ * (a pipeline of HGETALL, or an MGET for blobs); only one page is kept in memory.
+ *
+ * The spliterator owns the connection used to follow the cursor, which is released
+ * when the scan is complete or on {@link #close()}. When split, the next page is handed
+ * to the new spliterator, that reads it with its own short-lived connection: parallel
+ * streams fetch and convert different pages concurrently, while the cursor keeps going.
+ * At most maxSplits pages handed out are pending at a time: beyond that the spliterator
+ * does not split, and the pages are read one after the other as a sequential stream does,
+ * so that a parallel stream never holds more than maxSplits + 1 pages.
+ */
+class ScanSpliterator implements Spliterator<Map<String, String>>, Closeable {
+
+    private final Supplier<Jedis> connections;
+    private final ScanParams params;
+    private final BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher;
+    private final int maxSplits;
+
+    // The pages handed out by trySplit that have not been read entirely yet
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private Jedis jedis;
+    private String cursor = ScanParams.SCAN_POINTER_START;
+    private boolean completed = false;
+    private Iterator<Map<String, String>> current = Collections.emptyIterator();
+
+    /**
+     * @param connections the provider of the connections
+     * @param pattern the SCAN MATCH pattern
+     * @param count the SCAN COUNT hint, that is the approximate size of a page
+     * @param fetcher the function that reads the keys of a page, see {@link PipelinedHashReader#fetcher(EntityCodec)}
+     */
+    ScanSpliterator(Supplier<Jedis> connections, String pattern, int count, BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher) {
+        this(connections, pattern, count, fetcher, ForkJoinPool.getCommonPoolParallelism() * 2);
+    }
+
+    /**
+     * @param maxSplits the max number of pages handed out by {@link #trySplit()} that can be pending at a time
+     */
+    ScanSpliterator(Supplier<Jedis> connections, String pattern, int count, BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher, int maxSplits) {
+        this.connections = connections;
+        this.params = new ScanParams().match(pattern).count(count);
+        this.fetcher = fetcher;
+        this.maxSplits = maxSplits;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Map<String, String>> action) {
+
+        try {
+            while (!current.hasNext()) {
+                List<String> page = nextPage();
+                if (page == null) {
+                    return false;
+                }
+                current = fetcher.apply(jedis, page);
+                
+                if (completed) {
+                    close();
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            // Do not leak the connection if the stream dies halfway
+            close();
+            throw e;
+        }
+
+        action.accept(current.next());
+        return true;
+    }
+
+    @Override
+    public Spliterator<Map<String, String>> trySplit() {
+
+        if (outstanding.get() >= maxSplits) {
+            return null;
+        }
+
+        List<String> page;
+        try {
+            page = nextPage();
+            if (completed) {
+                close();
+            }
+        }
+        catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+
+        if (page == null) {
+            return null;
+        }
+
+        outstanding.incrementAndGet();
+        return new Spliterators.AbstractSpliterator<Map<String, String>>(page.size(), NONNULL) {
+
+            private Iterator<Map<String, String>> hashes;
+            private boolean done = false;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super Map<String, String>> action) {
+                if (done) {
+                    return false;
+                }
+                if (hashes == null) {
+                    try (Jedis connection = connections.get()) {
+                        hashes = fetcher.apply(connection, page);
+                    }
+                    catch (RuntimeException e) {
+                        finish();
+                        throw e;
+                    }
+                }
+
+                if (!hashes.hasNext()) {
+                    finish();
+                    return false;
+                }
+
+                action.accept(hashes.next());
+                return true;
+            }
+
+            private void finish() {
+                done = true;
+                outstanding.decrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * @return the keys of the next non-empty page, or null when the cursor is over
+     */
+    private List<String> nextPage() {
+
+        while (!completed) {
+            if (jedis == null) {
+                jedis = connections.get();
+            }
+
+            ScanResult<String> result = jedis.scan(cursor, params);
+            cursor = result.getStringCursor();
+            completed = ScanParams.SCAN_POINTER_START.equals(cursor);
+
+            if (!result.getResult().isEmpty()) {
+                return result.getResult();
+            }
+        }
+
+        close();
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        // SCAN can return the same key more than once, so the elements are not DISTINCT
+        return NONNULL;
+    }
+
+    @Override
+    public void close() {
+        completed = true;
+        if (jedis != null) {
+            jedis.close();
+            jedis = null;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.bananarama.crud.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * A Lua script sent with EVALSHA, so that its source crosses the network only when a server
+ * does not know it yet. The SHA1 is computed locally, once.
+ */
+final class Script {
+
+    final String source;
+    final byte[] sha;
+
+    Script(String source) {
+        this.source = source;
+        this.sha = SafeEncoder.encode(sha1(source));
+    }
+
+    static String sha1(String source) {
+        try {
+            StringBuilder hex = new StringBuilder(40);
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(source.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Run the script, loading it first if the server replies NOSCRIPT
+     */
+    Object eval(Jedis jedis, List<byte[]> keys, List<byte[]> args) {
+        try {
+            return jedis.evalsha(sha, keys, args);
+        }
+        catch (JedisDataException e) {
+            if (!isUnknown(e)) {
+                throw e;
+            }
+            load(jedis);
+            return jedis.evalsha(sha, keys, args);
+        }
+    }
+
+    void load(Jedis jedis) {
+        jedis.scriptLoad(source);
+    }
+
+    /**
+     * @return true if the error is the reply to the EVALSHA of a script that the server does not know
+     */
+    static boolean isUnknown(JedisDataException e) {
+        return e.getMessage() != null && e.getMessage().startsWith("NOSCRIPT");
+    }
+}
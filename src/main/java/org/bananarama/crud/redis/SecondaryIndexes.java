@@ -0,0 +1,143 @@
+package org.bananarama.crud.redis;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * Maintenance of the inverted indexes of the properties annotated with
+ * {@link org.bananarama.crud.redis.annotations.RedisIndex}: for each value of
+ * an indexed property there is a set with the ids of the instances that have it.
+ * The properties annotated with {@link org.bananarama.crud.redis.annotations.RedisRangeIndex}
+ * have a single sorted set, with the ids as members and the values as scores.
+ */
+final class SecondaryIndexes {
+
+    static final String PREFIX = "idx:";
+
+    private SecondaryIndexes() {
+    }
+
+    /**
+     * @return the key of the set with the ids of the instances that have the given value
+     */
+    static String key(InstanceKey key, String property, String value) {
+        return PREFIX + key.namespace() + ":" + property + ":" + value;
+    }
+
+    /**
+     * @return the key of the sorted set with the ids of the instances scored by the value of the property
+     */
+    static String key(InstanceKey key, String property) {
+        return PREFIX + key.namespace() + ":" + property;
+    }
+
+    /**
+     * Queue the read of the current values of the indexed properties stored at a key
+     *
+     * @return the response, or null if the class has no indexes
+     */
+    static Response<List<String>> previous(Pipeline pipeline, EntityCodec codec, String redisKey) {
+
+        if (codec.indexes.isEmpty()) {
+            return null;
+        }
+
+        String[] fields = new String[codec.indexes.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = codec.indexes.get(i).name;
+        }
+        return pipeline.hmget(redisKey, fields);
+    }
+
+    /**
+     * Queue the commands that move the id of an instance from the sets of the previous
+     * values to the ones of the current values, and update its scores in the sorted sets
+     *
+     * @param previous the values stored in redis, in the order of {@link EntityCodec#indexes}; null values are not indexed.
+     * It is null if the class has no set indexes 
+     * @param current the instance as a map, or null if the instance has been deleted
+     */
+    static void update(Pipeline pipeline, EntityCodec codec, String id, List<String> previous, Map<String, String> current) {
+
+        for (int i = 0; previous != null && i < codec.indexes.size(); i++) {
+            String property = codec.indexes.get(i).name;
+            String before = previous.get(i);
+            String after = current == null ? null : current.get(property);
+
+            if (before != null && before.equals(after)) {
+                continue;
+            }
+            if (before != null) {
+                pipeline.srem(key(codec.key, property, before), id);
+            }
+            if (after != null) {
+                pipeline.sadd(key(codec.key, property, after), id);
+            }
+        }
+
+        // ZADD replaces the previous score, there's no need to know it 
+        for (EntityCodec.RangeIndex range : codec.ranges) {
+            String after = current == null ? null : current.get(range.name);
+            if (after == null) {
+                pipeline.zrem(key(codec.key, range.name), id);
+            }
+            else {
+                pipeline.zadd(key(codec.key, range.name), range.score(after), id);
+            }
+        }
+    }
+
+    /**
+     * Queue the commands that update the indexes of the properties that changed between two states of an instance
+     *
+     * @param before the last known state of the instance
+     * @param after the new state of the instance
+     */
+    static void changed(Pipeline pipeline, EntityCodec codec, String id, Map<String, String> before, Map<String, String> after) {
+
+        for (EntityCodec.Property index : codec.indexes) {
+            String previous = before.get(index.name);
+            String current = after.get(index.name);
+            if (Objects.equals(previous, current)) {
+                continue;
+            }
+            if (previous != null) {
+                pipeline.srem(key(codec.key, index.name, previous), id);
+            }
+            if (current != null) {
+                pipeline.sadd(key(codec.key, index.name, current), id);
+            }
+        }
+
+        for (EntityCodec.RangeIndex range : codec.ranges) {
+            String current = after.get(range.name);
+            if (Objects.equals(before.get(range.name), current)) {
+                continue;
+            }
+            if (current == null) {
+                pipeline.zrem(key(codec.key, range.name), id);
+            }
+            else {
+                pipeline.zadd(key(codec.key, range.name), range.score(current), id);
+            }
+        }
+    }
+
+    /**
+     * Queue the commands that remove the id of a deleted instance from the sets of its values
+     * and from the sorted sets
+     *
+     * @param hash the instance as it was stored in redis
+     */
+    static void remove(Pipeline pipeline, EntityCodec codec, String id, Map<String, String> hash) {
+
+        codec.indexes.stream()
+                .filter(p -> hash.get(p.name) != null)
+                .forEach(p -> pipeline.srem(key(codec.key, p.name, hash.get(p.name)), id));
+        codec.ranges.forEach(range -> pipeline.zrem(key(codec.key, range.name), id));
+    }
+}
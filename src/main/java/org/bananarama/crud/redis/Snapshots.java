@@ -0,0 +1,78 @@
+package org.bananarama.crud.redis;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.googlecode.cqengine.query.option.QueryOptions;
+
+/**
+ * The state of some instances as it is stored in redis, used by
+ * {@link RedisAdapter#update(Class)} to write only the properties that changed.
+ *
+ * Pass an instance in the {@link QueryOptions} of a read to record the hashes
+ * that are read, or register the original objects with {@link #capture(Object)};
+ * then pass the same instance to the update, that sends HSET for the changed
+ * properties and HDEL for the ones that became null, and records the new state.
+ * Instances without a snapshot are compared with the hash currently in redis.
+ *
+ * Snapshots are kept until they are forgotten or cleared, so the caller decides
+ * how long they live. The class is thread-safe.
+ *
+ * <pre>
+ * Snapshots snapshots = new Snapshots();
+ * QueryOptions options = QueryFactory.queryOptions(snapshots);
+ * List&lt;Host&gt; hosts = banana.read(Host.class).fromKeys(ids, options).collect(Collectors.toList());
+ * ...
+ * banana.update(Host.class).from(hosts.stream(), options);
+ * </pre>
+ */
+public class Snapshots {
+
+    // redis key -> hash, with the "class" and "@key" fields
+    private final ConcurrentHashMap<String, Map<String, String>> hashes = new ConcurrentHashMap<>();
+
+    /**
+     * @return the snapshots in the options, or null
+     */
+    static Snapshots of(QueryOptions options) {
+        return options == null ? null : options.get(Snapshots.class);
+    }
+
+    /**
+     * Record the current state of an object, as the baseline for the next update
+     *
+     * @throws IllegalArgumentException if the object can not be converted to a hash
+     */
+    public void capture(Object obj) {
+        record(RedisAdapter.objToMap(obj).getOrElseThrow(e -> new IllegalArgumentException("Can not take a snapshot of " + obj, e)));
+    }
+
+    /**
+     * Drop the snapshot of an object
+     */
+    public void forget(Object obj) {
+        hashes.remove(RedisAdapter.objToMap(obj).getOrElseThrow(e -> new IllegalArgumentException("Can not find the key of " + obj, e)).get("@key"));
+    }
+
+    public void clear() {
+        hashes.clear();
+    }
+
+    public int size() {
+        return hashes.size();
+    }
+
+    /**
+     * Record a hash, as read from redis or converted from an object
+     */
+    void record(Map<String, String> hash) {
+        hashes.put(hash.get("@key"), hash);
+    }
+
+    /**
+     * @return the last known state of the hash at the key, or null
+     */
+    Map<String, String> get(String redisKey) {
+        return hashes.get(redisKey);
+    }
+}
@@ -0,0 +1,124 @@
+package org.bananarama.crud.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * Reads the hashes of a subclass among the instances of other classes that share its key pattern,
+ * eg the GoogleHost among the Host. A Lua script checks the "class" field of each key and returns
+ * the whole hash only for the names of the subclasses known by the client; for the other keys
+ * it returns just the class name, that is resolved by the client. Only the subclasses that have
+ * not been loaded yet need a second round trip. The script is sent with EVALSHA.
+ */
+final class TypeFilter {
+
+    static final Script SCRIPT = new Script(
+            "local accepted = {} "
+            + "for _, name in ipairs(ARGV) do accepted[name] = true end "
+            + "local result = {} "
+            + "for i, key in ipairs(KEYS) do "
+            + "  local class = redis.call('HGET', key, 'class') "
+            + "  if not class then result[i] = false "
+            + "  elseif accepted[class] then result[i] = redis.call('HGETALL', key) "
+            + "  else result[i] = class end "
+            + "end "
+            + "return result");
+
+    private TypeFilter() {
+    }
+
+    /**
+     * @return true if the instances of other classes can be found at the keys of the class
+     */
+    static boolean applies(EntityCodec codec) {
+        return !codec.blob && codec.type != codec.key.field.getDeclaringClass();
+    }
+
+    /**
+     * @param codecs the codecs known by the client
+     * @return the function that reads a chunk of keys, returning only the instances of the class of the codec
+     */
+    static BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> fetcher(EntityCodec codec, Iterable<EntityCodec> codecs) {
+        return (jedis, keys) -> fetch(jedis, keys, codec.type, accepted(codec.type, codecs));
+    }
+
+    /**
+     * @return the names written by the subclasses of the type; the classes with an alias may also have old 
+     * instances written with their full name
+     */
+    static byte[][] accepted(Class<?> type, Iterable<EntityCodec> codecs) {
+        Set<String> names = new LinkedHashSet<>();
+        for (EntityCodec codec : codecs) {
+            if (type.isAssignableFrom(codec.type)) {
+                names.add(codec.discriminator);
+                names.add(codec.type.getName());
+            }
+        }
+        return names.stream().map(SafeEncoder::encode).toArray(byte[][]::new);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Iterator<Map<String, String>> fetch(Jedis jedis, List<String> keys, Class<?> type, byte[][] accepted) {
+
+        if (keys.isEmpty()) {
+            return Collections.emptyIterator();
+        }
+
+        List<byte[]> rawKeys = new ArrayList<>(keys.size());
+        keys.forEach(key -> rawKeys.add(SafeEncoder.encode(key)));
+        List<Object> replies = (List<Object>) SCRIPT.eval(jedis, rawKeys, Arrays.asList(accepted));
+
+        List<Map<String, String>> records = new ArrayList<>(Collections.nCopies(keys.size(), null));
+        List<Integer> others = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            Object reply = replies.get(i);
+            if (reply instanceof List) {
+                records.set(i, toMap((List<byte[]>) reply, keys.get(i)));
+            }
+            else if (reply instanceof byte[] && matches(SafeEncoder.encode((byte[]) reply), type, jedis)) {
+                others.add(i);
+            }
+        }
+
+        // Subclasses not loaded yet, and names that can not be resolved: their errors are reported by the conversion
+        if (!others.isEmpty()) {
+            List<String> otherKeys = new ArrayList<>(others.size());
+            others.forEach(i -> otherKeys.add(keys.get(i)));
+            Map<String, Map<String, String>> found = new HashMap<>();
+            PipelinedHashReader.fetch(jedis, otherKeys).forEachRemaining(record -> found.put(record.get("@key"), record));
+            others.forEach(i -> records.set(i, found.get(keys.get(i))));
+        }
+
+        return records.stream().filter(Objects::nonNull).iterator();
+    }
+
+    private static boolean matches(String name, Class<?> type, Jedis jedis) {
+        try {
+            return type.isAssignableFrom(TypeRegistry.resolve(name, jedis));
+        }
+        catch (ClassNotFoundException e) {
+            return true;
+        }
+    }
+
+    private static Map<String, String> toMap(List<byte[]> fields, String key) {
+        Map<String, String> map = new HashMap<>(fields.size());
+        for (int i = 0; i + 1 < fields.size(); i += 2) {
+            map.put(SafeEncoder.encode(fields.get(i)), SafeEncoder.encode(fields.get(i + 1)));
+        }
+        map.put("@key", key);
+        return map;
+    }
+}
@@ -0,0 +1,116 @@
+package org.bananarama.crud.redis;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.bananarama.crud.redis.annotations.RedisType;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * The classes of the names written in the "class" field of the hashes: a {@link RedisType} alias, 
+ * or the full class name of the classes without alias. The classes are resolved only once per name.
+ * 
+ * The aliases of the classes that have been loaded are known locally; the others are looked up in the 
+ * redis hash at {@link #KEY}, that maps each alias to its class name.
+ */
+final class TypeRegistry {
+
+    static final String KEY = "bananarama:types";
+
+    private static final ConcurrentHashMap<String, Class<?>> classes = new ConcurrentHashMap<>();
+
+    private TypeRegistry() {
+    }
+
+    /**
+     * Register the alias of a class, if it has one
+     * 
+     * @return the name written in the hashes of the instances of the class
+     * @throws IllegalArgumentException if the alias is used by another class
+     */
+    static String register(Class<?> type) {
+
+        RedisType annotation = type.getAnnotation(RedisType.class);
+        if (annotation == null) {
+            return type.getName();
+        }
+
+        String alias = annotation.value();
+        Class<?> previous = classes.putIfAbsent(alias, type);
+        if (previous != null && previous != type) {
+            throw new IllegalArgumentException(String.format("The alias [%s] of %s is already used by %s", alias, type.getName(), previous.getName()));
+        }
+        return alias;
+    }
+
+    /**
+     * @param name an alias or a full class name
+     * @throws ClassNotFoundException if the name is not a class, nor the alias of a class that has been loaded
+     */
+    static Class<?> resolve(String name) throws ClassNotFoundException {
+
+        Class<?> type = classes.get(name);
+        if (type == null) {
+            type = Class.forName(name);
+            classes.putIfAbsent(name, type);
+        }
+        return type;
+    }
+
+    /**
+     * @param name an alias or a full class name
+     * @param connections the connection to the node that serves a key, or null to resolve only the local names
+     * @throws ClassNotFoundException if the name is not a class, nor a known alias
+     */
+    static Class<?> resolve(String name, Function<String, Jedis> connections) throws ClassNotFoundException {
+
+        try {
+            return resolve(name);
+        }
+        catch (ClassNotFoundException e) {
+            if (connections == null) {
+                throw e;
+            }
+            
+            try (Jedis jedis = connections.apply(KEY)) {
+                return lookup(name, jedis.hget(KEY, name), e);
+            }
+        }
+    }
+
+    /**
+     * @param name an alias or a full class name
+     * @param jedis the connection used to look up the unknown aliases; it is not closed
+     * @throws ClassNotFoundException if the name is not a class, nor a known alias
+     */
+    static Class<?> resolve(String name, Jedis jedis) throws ClassNotFoundException {
+
+        try {
+            return resolve(name);
+        }
+        catch (ClassNotFoundException e) {
+            return lookup(name, jedis.hget(KEY, name), e);
+        }
+    }
+
+    private static Class<?> lookup(String name, String className, ClassNotFoundException notFound) throws ClassNotFoundException {
+
+        if (className == null) {
+            throw notFound;
+        }
+
+        Class<?> type = Class.forName(className);
+        classes.putIfAbsent(name, type);
+        return type;
+    }
+
+    /**
+     * Record the class of an alias in redis
+     */
+    static void publish(EntityCodec codec, Jedis jedis) {
+        if (!codec.discriminator.equals(codec.type.getName())) {
+            jedis.hset(KEY, codec.discriminator, codec.type.getName());
+        }
+    }
+}
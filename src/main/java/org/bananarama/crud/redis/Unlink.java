@@ -0,0 +1,59 @@
+package org.bananarama.crud.redis;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import redis.clients.jedis.Pipeline;
+import redis.clients.util.JedisClusterCRC16;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * Deletion of keys with UNLINK, that frees the memory of the values in a background thread of
+ * the server instead of blocking it. The command is sent through a script, as the client does not
+ * know it; servers older than 4.0 fall back to DEL.
+ */
+final class Unlink {
+
+    static final byte[] SCRIPT = SafeEncoder.encode(
+            "local ok, n = pcall(redis.call, 'UNLINK', unpack(KEYS)) "
+            + "if ok then return n end "
+            + "return redis.call('DEL', unpack(KEYS))");
+
+    // unpack() is bounded by the stack of the Lua interpreter
+    private static final int MAX_KEYS = 1000;
+
+    private Unlink() {
+    }
+
+    /**
+     * Queue the deletion of the keys. On a cluster the keys of a script must belong to the same
+     * slot, so a script is sent for each slot
+     */
+    static void queue(Pipeline pipeline, List<String> keys) {
+
+        if (!(pipeline instanceof ClusterPipeline)) {
+            sendChunked(pipeline, keys);
+            return;
+        }
+
+        Map<Integer, List<String>> slots = new LinkedHashMap<>();
+        keys.forEach(key -> slots.computeIfAbsent(JedisClusterCRC16.getSlot(key), slot -> new ArrayList<>()).add(key));
+        slots.values().forEach(slot -> sendChunked(pipeline, slot));
+    }
+
+    private static void sendChunked(Pipeline pipeline, List<String> keys) {
+        for (int start = 0; start < keys.size(); start += MAX_KEYS) {
+            send(pipeline, keys.subList(start, Math.min(keys.size(), start + MAX_KEYS)));
+        }
+    }
+
+    private static void send(Pipeline pipeline, List<String> keys) {
+        byte[][] raw = new byte[keys.size()][];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = SafeEncoder.encode(keys.get(i));
+        }
+        pipeline.eval(SCRIPT, raw.length, raw);
+    }
+}
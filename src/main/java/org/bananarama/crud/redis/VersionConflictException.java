@@ -0,0 +1,28 @@
+package org.bananarama.crud.redis;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Some versioned objects of a chunk have not been written, because their version is not the
+ * version stored in redis anymore; the other objects of the chunk have been written. 
+ * See {@link org.bananarama.crud.redis.annotations.RedisVersion}
+ */
+public class VersionConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> keys;
+
+    public VersionConflictException(List<String> keys) {
+        super("The stored version has changed for " + keys.size() + " objects: " + keys);
+        this.keys = Collections.unmodifiableList(keys);
+    }
+
+    /**
+     * @return the redis keys of the objects that have not been written
+     */
+    public List<String> getKeys() {
+        return keys;
+    }
+}
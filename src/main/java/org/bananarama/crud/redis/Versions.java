@@ -0,0 +1,186 @@
+package org.bananarama.crud.redis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * Writes the instances of the versioned classes with a compare-and-set: a Lua script applies 
+ * the changes of a hash only if its stored version is the expected one, and increments it.
+ * The scripts of a chunk are sent in one pipeline with EVALSHA; the script is loaded only 
+ * when a node does not know it yet.
+ *
+ * The writes are not idempotent: a hash written once would not match its version if it was sent
+ * again. All the replies are read, so that the hashes served by another node of a cluster are
+ * reported without losing the versions of the hashes that have been written.
+ */
+final class Versions {
+
+    // KEYS: the instance; ARGV: the version field, the expected version, the number of fields to set, 
+    // the fields and values to set, the fields to delete. Returns the new version, or -1
+    private static final Script SCRIPT = new Script(
+            "local stored = redis.call('HGET', KEYS[1], ARGV[1]) "
+            + "if tonumber(stored or '0') ~= tonumber(ARGV[2]) then return -1 end "
+            + "local fields = tonumber(ARGV[3]) "
+            + "for i = 4, 3 + 2 * fields, 2 do redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1]) end "
+            + "for i = 4 + 2 * fields, #ARGV do redis.call('HDEL', KEYS[1], ARGV[i]) end "
+            + "local version = tonumber(ARGV[2]) + 1 "
+            + "redis.call('HSET', KEYS[1], ARGV[1], version) "
+            + "return version");
+
+    private Versions() {
+    }
+
+    /**
+     * The fields of a versioned hash to write, without its version
+     */
+    static class Change {
+
+        final Map<String, String> changed;
+        final List<String> removed;
+
+        /**
+         * @param previous the stored hash, or null to write all the fields
+         */
+        static Change of(EntityCodec codec, Map<String, String> hash, Map<String, String> previous) {
+
+            Map<String, String> changed = new HashMap<>();
+            hash.forEach((field, value) -> {
+                if (previous == null || !value.equals(previous.get(field))) {
+                    changed.put(field, value);
+                }
+            });
+
+            List<String> removed = previous == null ? new ArrayList<>() : codec.cleared(previous, hash);
+            return new Change(codec, changed, removed);
+        }
+
+        private Change(EntityCodec codec, Map<String, String> changed, List<String> removed) {
+            changed.remove("@key");
+            changed.remove(codec.version.name);
+            removed.remove("@key");
+            removed.remove(codec.version.name);
+            this.changed = changed;
+            this.removed = removed;
+        }
+
+        boolean isEmpty() {
+            return changed.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    /**
+     * The hashes of a chunk that have not been written
+     */
+    static class Outcome {
+
+        // The positions of the hashes whose stored version did not match
+        final Set<Integer> conflicts = new HashSet<>();
+        
+        // The positions of the hashes served by another node, that must be sent again
+        final Map<Integer, JedisRedirectionException> redirected = new HashMap<>();
+
+        boolean skipped(int position) {
+            return conflicts.contains(position) || redirected.containsKey(position);
+        }
+    }
+
+    /**
+     * Apply the changes of the versioned hashes in a single pipeline. The hashes that are written get
+     * their new version, that is also set on the objects they have been encoded from
+     *
+     * @param changes the changes to apply, by position of the hash in the chunk
+     * @return the hashes that have not been written
+     */
+    static Outcome write(Jedis jedis, Function<Jedis, Pipeline> pipelines, List<EntityCodec> codecs, 
+            List<Map<String, String>> hashes, Map<Integer, Change> changes) throws Exception {
+
+        Outcome outcome = new Outcome();
+        Map<Integer, Change> pending = changes;
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+
+            Pipeline pipeline = pipelines.apply(jedis);
+            Map<Integer, Response<Object>> replies = new HashMap<>();
+            pending.forEach((i, change) -> replies.put(i, send(pipeline, codecs.get(i), hashes.get(i), change)));
+            
+            // Unlike sync, it does not stop at the first redirection of a cluster
+            pipeline.syncAndReturnAll();
+
+            Map<Integer, Change> unknown = new HashMap<>();
+            for (Map.Entry<Integer, Response<Object>> reply : replies.entrySet()) {
+                int i = reply.getKey();
+                long version;
+                try {
+                    version = (Long) reply.getValue().get();
+                }
+                catch (JedisRedirectionException e) {
+                    outcome.redirected.put(i, e);
+                    continue;
+                }
+                catch (JedisDataException e) {
+                    if (attempt > 0 || !Script.isUnknown(e)) {
+                        throw e;
+                    }
+                    unknown.put(i, pending.get(i));
+                    continue;
+                }
+
+                if (version < 0) {
+                    outcome.conflicts.add(i);
+                }
+                else {
+                    written(codecs.get(i), hashes.get(i), version);
+                }
+            }
+
+            if (!unknown.isEmpty()) {
+                SCRIPT.load(jedis);
+            }
+            pending = unknown;
+        }
+        return outcome;
+    }
+
+    private static Response<Object> send(Pipeline pipeline, EntityCodec codec, Map<String, String> hash, Change change) {
+
+        String expected = hash.get(codec.version.name);
+        List<byte[]> args = new ArrayList<>(3 + change.changed.size() * 2 + change.removed.size());
+        args.add(SafeEncoder.encode(codec.version.name));
+        args.add(SafeEncoder.encode(expected == null ? "0" : expected));
+        args.add(SafeEncoder.encode(String.valueOf(change.changed.size())));
+        change.changed.forEach((field, value) -> {
+            args.add(SafeEncoder.encode(field));
+            args.add(SafeEncoder.encode(value));
+        });
+        change.removed.forEach(field -> args.add(SafeEncoder.encode(field)));
+
+        List<byte[]> keys = new ArrayList<>(1);
+        keys.add(SafeEncoder.encode(hash.get("@key")));
+        return pipeline.evalsha(SCRIPT.sha, keys, args);
+    }
+
+    private static void written(EntityCodec codec, Map<String, String> hash, long version) throws Exception {
+
+        String value = String.valueOf(version);
+        hash.put(codec.version.name, value);
+        if (hash instanceof EntityCodec.Encoded && ((EntityCodec.Encoded) hash).source != null) {
+            try {
+                codec.version.set(((EntityCodec.Encoded) hash).source, codec.version.converter.apply(value));
+            }
+            catch (Throwable e) {
+                throw EntityCodec.unchecked(e);
+            }
+        }
+    }
+}
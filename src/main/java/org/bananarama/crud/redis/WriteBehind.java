@@ -0,0 +1,189 @@
+package org.bananarama.crud.redis;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.googlecode.cqengine.query.option.QueryOptions;
+
+/**
+ * A buffer of the objects created through {@link RedisAdapter#create(Class)}, written to redis later
+ * in large pipelines. Each key holds only its last object, so an object written many times between
+ * two flushes is sent once; the objects that are replaced are never written, and the properties that 
+ * they had and the last one does not have are not written either.
+ *
+ * Pass an instance in the {@link QueryOptions} of the creates. The buffer is flushed every interval 
+ * by a background thread, and by the thread that adds an object when maxPending keys are waiting. 
+ * Pass the same instance to the reads, updates and deletes of the same classes: a read of some pending 
+ * keys, any other read, update or delete by query flush the buffer first, so that they see the last objects.
+ * The objects deleted by key are dropped from the buffers of the adapter, so that they are not written again.
+ *
+ * A chunk that fails is kept in the buffer and written again by the next flush, unless its keys have
+ * been written again in the meantime; the objects whose version does not match are dropped.
+ *
+ * <pre>
+ * WriteBehind behind = new WriteBehind(adapter, 100, TimeUnit.MILLISECONDS, 10000);
+ * QueryOptions options = QueryFactory.queryOptions(behind);
+ * adapter.create(Host.class).from(Stream.of(host), options);
+ * ...
+ * behind.close();
+ * </pre>
+ */
+public class WriteBehind implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehind.class);
+
+    private final RedisAdapter adapter;
+    private final int maxPending;
+    private final ConcurrentHashMap<String, Map<String, String>> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private volatile boolean closed = false;
+
+    /**
+     * @param adapter the adapter that writes the objects
+     * @param interval how often the buffer is flushed
+     * @param maxPending the number of pending keys that makes a write flush the buffer
+     */
+    public WriteBehind(RedisAdapter adapter, long interval, TimeUnit unit, int maxPending) {
+
+        if (interval < 1) {
+            throw new IllegalArgumentException("The interval must be greater than 0, got " + interval);
+        }
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("The max number of pending keys must be greater than 0, got " + maxPending);
+        }
+
+        this.adapter = adapter;
+        this.maxPending = maxPending;
+        this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "redis-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.scheduleWithFixedDelay(this::flushQuietly, interval, interval, unit);
+        adapter.attach(this);
+    }
+
+    /**
+     * @return the write-behind buffer in the options, or null
+     */
+    static WriteBehind of(QueryOptions options) {
+        return options == null ? null : options.get(WriteBehind.class);
+    }
+
+    /**
+     * Replace the pending object at the key of the hash
+     */
+    void put(Map<String, String> hash) {
+
+        if (closed) {
+            throw new IllegalStateException("The write-behind buffer has been closed");
+        }
+
+        pending.put(hash.get("@key"), hash);
+        if (pending.size() >= maxPending) {
+            flush();
+        }
+    }
+
+    /**
+     * Write the buffer if some of the keys are pending. The keys are checked once the flush in 
+     * progress, if any, is complete: its objects are not pending anymore, but not written yet
+     */
+    synchronized void flush(Collection<String> keys) {
+        if (keys.stream().anyMatch(pending::containsKey)) {
+            flush();
+        }
+    }
+
+    /**
+     * Drop the pending objects at the given keys, once the flush in progress, if any, is complete
+     */
+    synchronized void discard(Collection<String> keys) {
+        if (!pending.isEmpty()) {
+            keys.forEach(pending::remove);
+        }
+    }
+
+    /**
+     * Write all the pending objects. The flushes are serialized, so that an older object 
+     * of a key is never written after a newer one
+     */
+    public synchronized void flush() {
+
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        Map<String, Map<String, String>> batch = new LinkedHashMap<>();
+        for (String key : pending.keySet()) {
+            Map<String, String> hash = pending.remove(key);
+            if (hash != null) {
+                batch.put(key, hash);
+            }
+        }
+
+        Iterator<List<Map<String, String>>> chunks = Batches.chunked(batch.values().iterator(), adapter.getWriteBatchSize());
+        while (chunks.hasNext()) {
+            List<Map<String, String>> chunk = chunks.next();
+            List<String> keys = chunk.stream().map(hash -> hash.get("@key")).collect(Collectors.toList());
+            try {
+                adapter.writeChunk(chunk);
+            }
+            catch (VersionConflictException e) {
+                log.warn("Dropped {} objects whose version has changed", e.getKeys().size(), e);
+            }
+            catch (Exception e) {
+                log.warn("Error writing {} pending objects, they will be written again", chunk.size(), e);
+                chunk.forEach(hash -> pending.putIfAbsent(hash.get("@key"), hash));
+            }
+            finally {
+                adapter.invalidate(keys);
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        }
+        catch (RuntimeException e) {
+            log.warn("Error flushing the pending objects", e);
+        }
+    }
+
+    /**
+     * @return the number of keys waiting to be written
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * Stop the timer and write the pending objects. Objects can not be added anymore
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            timer.shutdown();
+            try {
+                flush();
+            }
+            finally {
+                adapter.detach(this);
+            }
+        }
+    }
+}
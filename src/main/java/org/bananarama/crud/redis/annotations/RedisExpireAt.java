@@ -0,0 +1,20 @@
+package org.bananarama.crud.redis.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Mark the public getter that returns when an instance expires, set with PEXPIREAT in the same 
+ * pipeline that writes it. The getter can return an {@link java.time.Instant}, a 
+ * {@link java.time.ZonedDateTime}, a {@link java.util.Date} or a long with the epoch millis.
+ * 
+ * If the getter returns null, the {@link RedisTtl} of the instance is used, if any. As with
+ * {@link RedisTtl}, the class can not have indexed properties.
+ */
+@Target(value = ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RedisExpireAt {
+
+}
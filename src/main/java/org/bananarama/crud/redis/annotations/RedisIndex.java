@@ -0,0 +1,22 @@
+package org.bananarama.crud.redis.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Mark with this annotation the fields that can be used in a where clause.
+ * The name of the field must match the name of a bean property.
+ * 
+ * For each value of the property, the adapter keeps a redis set with the ids of the instances 
+ * that have such value, at the key idx:[namespace]:[property]:[value]; the namespace is the 
+ * constant part of the {@link RedisKey} pattern (eg "host" for "host:$").
+ * The sets are updated when instances are created or deleted through the adapter.
+ *
+ */
+@Target(value = ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RedisIndex {
+
+}
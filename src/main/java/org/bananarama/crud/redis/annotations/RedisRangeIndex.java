@@ -0,0 +1,23 @@
+package org.bananarama.crud.redis.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Mark with this annotation the numeric or {@link java.time.ZonedDateTime} fields 
+ * that can be used in range queries (between, greaterThan, lessThan) of a where clause.
+ * The name of the field must match the name of a bean property.
+ * 
+ * The adapter keeps a sorted set at the key idx:[namespace]:[property], with the ids of the 
+ * instances as members and the values of the property as scores (epoch millis for dates); 
+ * the namespace is the constant part of the {@link RedisKey} pattern (eg "host" for "host:$").
+ * The sorted sets are updated when instances are created or deleted through the adapter.
+ *
+ */
+@Target(value = ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RedisRangeIndex {
+
+}
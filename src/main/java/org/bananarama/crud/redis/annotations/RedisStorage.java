@@ -0,0 +1,36 @@
+package org.bananarama.crud.redis.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Select how the instances of a class are stored in redis. Classes that are not annotated are 
+ * stored as hashes, one field per property.
+ * 
+ * With {@link Mode#BLOB} each instance is a single binary string, written with SET and read with MGET: 
+ * the names of the properties are not stored, only their values in the order known by the client. 
+ * Changing the properties of the class makes the stored blobs unreadable, they must be written again.
+ * 
+ * The annotation is inherited: the classes that share a key pattern must use the same mode.
+ */
+@Target(value = ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+public @interface RedisStorage {
+
+    Mode value() default Mode.HASH;
+    
+    enum Mode {
+        /**
+         * A hash with a field for each property
+         */
+        HASH,
+        /**
+         * A compact binary string with the values of the properties
+         */
+        BLOB
+    }
+}
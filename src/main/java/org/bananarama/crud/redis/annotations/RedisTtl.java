@@ -0,0 +1,30 @@
+package org.bananarama.crud.redis.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time to live of the instances, set with PEXPIRE in the same pipeline that writes them.
+ * 
+ * On a class, all the instances expire after {@link #value()}. On a public getter that returns 
+ * a number, each instance expires after the returned amount of {@link #unit()}; the value of the 
+ * annotation is ignored. If the getter returns null, or a value that is not positive, the TTL of the
+ * class is used, if any.
+ * 
+ * The collections in companion keys expire with their instance. Create and update set the TTL 
+ * again each time they write an instance. The classes that expire can not have indexed properties,
+ * as the ids of the expired instances would never be removed from the indexes.
+ */
+@Target(value = { ElementType.TYPE, ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+public @interface RedisTtl {
+
+    long value() default 0;
+    
+    TimeUnit unit() default TimeUnit.SECONDS;
+}
@@ -0,0 +1,24 @@
+package org.bananarama.crud.redis.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A short name for the class, written in the "class" field of its instances instead of the 
+ * full class name (eg "gh" instead of "org.example.GoogleHost"). The alias must be unique 
+ * among the stored classes, and it is not inherited: each subclass declares its own.
+ * 
+ * The adapter records the class of each alias in the redis hash bananarama:types, the first time 
+ * it writes an instance or when the class is registered with 
+ * {@link org.bananarama.crud.redis.RedisAdapter#registerTypes(Class...)}; clients that have not 
+ * loaded the class yet find it there. A class can then be renamed or moved without rewriting 
+ * its instances, as long as it keeps its alias.
+ */
+@Target(value = ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RedisType {
+
+    String value();
+}
@@ -0,0 +1,24 @@
+package org.bananarama.crud.redis.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Mark with this annotation the field that holds the version of the instances, a long or int 
+ * property with a getter and a setter. 
+ * 
+ * Create and update write a versioned instance only if the version stored in redis is still 
+ * the version of the object (a missing instance has version 0), checked and applied by a Lua 
+ * script; the stored version is then incremented and set on the object. The objects whose 
+ * version does not match are not written, and are reported with a 
+ * {@link org.bananarama.crud.redis.VersionConflictException}.
+ * 
+ * Classes stored as blobs can not be versioned.
+ */
+@Target(value = ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RedisVersion {
+
+}
@@ -18,7 +18,21 @@ public class ExtractKeyFromStringTest {
         assertNotEquals("ciao", RedisAdapter.extractKey("ciao:ciao:ciao", "ciao:$due"));
         
         assertEquals("ci$s", RedisAdapter.extractKey("uno:ci$s:due", "uno:$:due"));
+        
+        // Hash tags of the cluster keys
+        assertEquals("ciao", RedisAdapter.extractKey("{tenant}:host:ciao", "{tenant}:host:$"));
+        assertEquals("{ciao}", RedisAdapter.extractKey("host:{ciao}", "host:$"));
     }
         
 
+    @Test
+    public void testScanPatternOfKey() throws Exception {
+
+        assertEquals("host:*", new InstanceKey(null, "hostname", "host:$").pattern());
+        assertEquals("*", new InstanceKey(null, "hostname", "$").pattern());
+        assertEquals("uno:*:due", new InstanceKey(null, "hostname", "uno:$:due").pattern());
+        assertEquals("\\[uno\\]\\*\\?:*", new InstanceKey(null, "hostname", "[uno]*?:$").pattern());
+        assertEquals("{host}:*", new InstanceKey(null, "hostname", "{host}:$").pattern());
+    }
+
 }
@@ -10,6 +10,9 @@ import redis.clients.jedis.JedisPoolConfig;
  */
 public class RedisAdapterImpl extends RedisAdapter{
 
+    // Small on purpose, so the tests go through more than one pipeline without writing thousands of keys
+    public static final int BATCH_SIZE = 7;
+    
     private static JedisPool pool = new JedisPool(new JedisPoolConfig(), "localhost");
 
     @Override
@@ -17,4 +20,9 @@ public class RedisAdapterImpl extends RedisAdapter{
         return pool.getResource();
     }
 
+    @Override
+    protected int getReadBatchSize() {
+        return BATCH_SIZE;
+    }
+
 }
@@ -0,0 +1,29 @@
+package org.bananarama.crud.redis;
+
+import java.util.Collections;
+import java.util.Set;
+
+import redis.clients.jedis.HostAndPort;
+
+/**
+ * Adapter for the local test cluster, whose nodes listen on the ports 7000-7002
+ */
+public class RedisClusterAdapterImpl extends RedisClusterAdapter {
+
+    public static final HostAndPort SEED = new HostAndPort("127.0.0.1", 7000);
+
+    @Override
+    protected Set<HostAndPort> getClusterNodes() {
+        return Collections.singleton(SEED);
+    }
+
+    @Override
+    protected int getReadBatchSize() {
+        return RedisAdapterImpl.BATCH_SIZE;
+    }
+
+    @Override
+    protected int getWriteBatchSize() {
+        return RedisAdapterImpl.BATCH_SIZE * 3;
+    }
+}
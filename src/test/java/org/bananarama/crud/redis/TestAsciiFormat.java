@@ -0,0 +1,79 @@
+package org.bananarama.crud.redis;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import redis.clients.util.SafeEncoder;
+
+/**
+ * Numbers and booleans converted without text, to the same bytes as their text
+ */
+public class TestAsciiFormat {
+
+    private static void assertSame(AsciiFormat format, Object value) {
+        byte[] bytes = format.format(value);
+        Assert.assertEquals(value.toString(), SafeEncoder.encode(bytes));
+        Assert.assertEquals(value, format.parse(bytes));
+    }
+
+    private static void assertText(AsciiFormat format, Object value) {
+        byte[] bytes = format.format(value);
+        Assert.assertEquals(value.toString(), SafeEncoder.encode(bytes));
+        Assert.assertNull(format.parse(bytes));
+    }
+
+    @Test
+    public void testIntegers() {
+
+        for (long value : new long[] { 0, 1, -1, 9, 10, -10, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE + 1 }) {
+            assertSame(AsciiFormat.LONG, value);
+        }
+        assertText(AsciiFormat.LONG, Long.MIN_VALUE);
+        for (int value : new int[] { 0, 7, -42, Integer.MAX_VALUE, Integer.MIN_VALUE }) {
+            assertSame(AsciiFormat.INT, value);
+        }
+
+        // As Long.valueOf and Integer.valueOf
+        Assert.assertEquals(5L, AsciiFormat.LONG.parse(SafeEncoder.encode("+5")));
+        Assert.assertEquals(7, AsciiFormat.INT.parse(SafeEncoder.encode("007")));
+
+        // Left to the text conversion, that throws
+        for (String invalid : new String[] { "", "-", "1.0", "2147483648", "x1" }) {
+            Assert.assertNull(invalid, AsciiFormat.INT.parse(SafeEncoder.encode(invalid)));
+        }
+        Assert.assertNull(AsciiFormat.LONG.parse(SafeEncoder.encode("9223372036854775808")));
+    }
+
+    @Test
+    public void testBooleans() {
+
+        assertSame(AsciiFormat.BOOLEAN, true);
+        assertSame(AsciiFormat.BOOLEAN, false);
+        Assert.assertEquals(Boolean.TRUE, AsciiFormat.BOOLEAN.parse(SafeEncoder.encode("TRUE")));
+        Assert.assertEquals(Boolean.FALSE, AsciiFormat.BOOLEAN.parse(SafeEncoder.encode("yes")));
+    }
+
+    @Test
+    public void testDoubles() {
+
+        for (double value : new double[] { 0, -0.0, 1, -3, 9999999, 0.1, 2.5, -123.456 }) {
+            assertSame(AsciiFormat.DOUBLE, value);
+        }
+        for (double value : new double[] { 1e7, 1e-5, 1e300, Double.NaN, Double.NEGATIVE_INFINITY }) {
+            assertText(AsciiFormat.DOUBLE, value);
+        }
+
+        // The same values as Double.parseDouble, or left to it
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            double value = i % 2 == 0 ? random.nextDouble() * 1000 : Math.round(random.nextDouble() * 1e6) / 100.0;
+            Object parsed = AsciiFormat.DOUBLE.parse(SafeEncoder.encode(Double.toString(value)));
+            Assert.assertTrue(parsed == null || parsed.equals(value));
+        }
+        Assert.assertEquals(0.5, AsciiFormat.DOUBLE.parse(SafeEncoder.encode(".5")));
+        Assert.assertNull(AsciiFormat.DOUBLE.parse(SafeEncoder.encode("1.5E3")));
+        Assert.assertNull(AsciiFormat.DOUBLE.parse(SafeEncoder.encode("1.2.3")));
+    }
+}
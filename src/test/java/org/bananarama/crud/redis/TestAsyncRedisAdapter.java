@@ -0,0 +1,214 @@
+package org.bananarama.crud.redis;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.bananarama.crud.redis.entities.DigitalOcean;
+import org.bananarama.crud.redis.entities.GoogleHost;
+import org.bananarama.crud.redis.entities.Host;
+import org.bananarama.crud.redis.entities.Router;
+import org.bananarama.crud.redis.entities.Ticket;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Requests sent through the shared pipelines of the async adapter
+ */
+public class TestAsyncRedisAdapter {
+
+    private Jedis jedis;
+    private AsyncRedisAdapter async;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        async = new AsyncRedisAdapter(new RedisAdapterImpl());
+    }
+    
+    @After
+    public void shutdown() {
+        async.close();
+        jedis.keys("host:async-*").forEach(jedis::del);
+        jedis.keys("router:async-*").forEach(jedis::del);
+        jedis.keys("ticket:async-*").forEach(jedis::del);
+        jedis.keys("idx:*").forEach(jedis::del);
+        jedis.close();
+    }
+    
+    @Test
+    public void testCreateReadDelete() throws Exception {
+        
+        List<Host> hosts = Arrays.asList(Utils.generateGoogleHost("async-g"), Utils.generateDigitalOceanHost("async-o"));
+        
+        // Queued in order: the read sees the created objects
+        CompletableFuture<Void> created = async.create(hosts);
+        CompletableFuture<List<Host>> read = async.fromKeys(Host.class, Arrays.asList("async-o", "async-missing", "async-g"));
+        
+        created.get();
+        List<Host> found = read.get();
+        Assert.assertEquals(2, found.size());
+        Assert.assertTrue(found.get(0) instanceof DigitalOcean);
+        Assert.assertTrue(found.get(1) instanceof GoogleHost);
+        Assert.assertEquals(Utils.GOOGLE_COMMONPROPVALUE, found.get(1).getCommonProperty());
+        
+        async.delete(hosts).get();
+        Assert.assertFalse(jedis.exists("host:async-g"));
+        Assert.assertTrue(async.fromKeys(Host.class, Arrays.asList("async-o", "async-g")).get().isEmpty());
+    }
+    
+    @Test
+    public void testConcurrentReads() throws Exception {
+        
+        List<GoogleHost> hosts = IntStream.range(0, RedisAdapterImpl.BATCH_SIZE * 3)
+                .mapToObj(i -> Utils.generateGoogleHost("async-" + i))
+                .collect(Collectors.toList());
+        async.create(hosts).get();
+        
+        Router router = new Router("async-r");
+        router.setModel("edge");
+        async.create(Arrays.asList(router)).get();
+        
+        List<CompletableFuture<List<GoogleHost>>> reads = IntStream.range(0, 200)
+                .mapToObj(i -> async.fromKeys(GoogleHost.class, Arrays.asList("async-" + (i % hosts.size()), "async-" + ((i + 1) % hosts.size()))))
+                .collect(Collectors.toList());
+        CompletableFuture<List<Router>> routers = async.fromKeys(Router.class, Arrays.asList("async-r"));
+        
+        for (int i = 0; i < reads.size(); i++) {
+            List<GoogleHost> found = reads.get(i).get();
+            Assert.assertEquals(Arrays.asList("async-" + (i % hosts.size()), "async-" + ((i + 1) % hosts.size())), 
+                    found.stream().map(Host::getHostname).collect(Collectors.toList()));
+        }
+        Assert.assertEquals("edge", routers.get().get(0).getModel());
+    }
+    
+    @Test
+    public void testLinger() throws Exception {
+        
+        async.create(Arrays.asList(Utils.generateGoogleHost("async-l"))).get();
+        
+        RecordingMetrics metrics = new RecordingMetrics();
+        RedisAdapter adapter = new RedisAdapterImpl() {
+            @Override
+            protected RedisMetrics getMetrics() {
+                return metrics;
+            }
+        };
+        
+        // Single-key reads from many threads share a few pipelines
+        try (AsyncRedisAdapter lingering = new AsyncRedisAdapter(adapter, ForkJoinPool.commonPool(), 50, TimeUnit.MILLISECONDS, 16)) {
+            ExecutorService handlers = Executors.newFixedThreadPool(8);
+            List<Future<List<GoogleHost>>> reads = IntStream.range(0, 64)
+                    .mapToObj(i -> handlers.submit(() -> lingering.fromKeys(GoogleHost.class, Arrays.asList("async-l")).get()))
+                    .collect(Collectors.toList());
+            for (Future<List<GoogleHost>> read : reads) {
+                Assert.assertEquals("async-l", read.get().get(0).getHostname());
+            }
+            handlers.shutdown();
+        }
+        
+        RecordingMetrics.Stats read = metrics.of(RedisMetrics.Operation.READ);
+        Assert.assertTrue(read.pipelines().count() <= 16);
+    }
+    
+    @Test
+    public void testVersionConflict() throws Exception {
+        
+        async.create(Arrays.asList(new Ticket("async-1", "ann"))).get();
+        
+        // Sent in the same pipeline: only the stale ticket fails
+        try (AsyncRedisAdapter lingering = new AsyncRedisAdapter(new RedisAdapterImpl(), ForkJoinPool.commonPool(), 50, TimeUnit.MILLISECONDS, 16)) {
+            CompletableFuture<Void> stale = lingering.create(Arrays.asList(new Ticket("async-1", "bob")));
+            CompletableFuture<Void> fresh = lingering.create(Arrays.asList(new Ticket("async-2", "bob")));
+            
+            fresh.get();
+            try {
+                stale.get();
+                Assert.fail();
+            }
+            catch (ExecutionException e) {
+                Assert.assertEquals(Arrays.asList("ticket:async-1"), ((VersionConflictException) e.getCause()).getKeys());
+            }
+        }
+        Assert.assertEquals("ann", jedis.hget("ticket:async-1", "owner"));
+        Assert.assertEquals("bob", jedis.hget("ticket:async-2", "owner"));
+    }
+    
+    @Test
+    public void testChunkFailure() throws Exception {
+        
+        // One object per chunk, and the chunk of async-bad fails
+        RedisAdapter failing = new RedisAdapterImpl() {
+            @Override
+            protected int getWriteBatchSize() {
+                return 1;
+            }
+            
+            @Override
+            void writeChunk(List<Map<String, String>> hashes) throws Exception {
+                if (hashes.stream().anyMatch(hash -> hash.get("@key").equals("host:async-bad"))) {
+                    throw new IllegalStateException("Rejected");
+                }
+                super.writeChunk(hashes);
+            }
+        };
+        
+        try (AsyncRedisAdapter lingering = new AsyncRedisAdapter(failing, ForkJoinPool.commonPool(), 50, TimeUnit.MILLISECONDS, 16)) {
+            CompletableFuture<Void> before = lingering.create(Arrays.asList(Utils.generateGoogleHost("async-before")));
+            CompletableFuture<Void> bad = lingering.create(Arrays.asList(Utils.generateGoogleHost("async-bad")));
+            CompletableFuture<Void> after = lingering.create(Arrays.asList(Utils.generateGoogleHost("async-after")));
+            
+            before.get();
+            after.get();
+            try {
+                bad.get();
+                Assert.fail();
+            }
+            catch (ExecutionException e) {
+                Assert.assertEquals("Rejected", e.getCause().getMessage());
+            }
+        }
+        Assert.assertTrue(jedis.exists("host:async-before"));
+        Assert.assertTrue(jedis.exists("host:async-after"));
+    }
+    
+    @Test
+    public void testConversionFailure() throws Exception {
+        
+        // Not an entity: nothing is written, and the caller is told
+        try {
+            async.create(Arrays.asList(Utils.generateGoogleHost("async-f"), "not an entity")).get();
+            Assert.fail();
+        }
+        catch (ExecutionException e) {
+            Assert.assertNotNull(e.getCause());
+        }
+        Assert.assertFalse(jedis.exists("host:async-f"));
+    }
+    
+    @Test
+    public void testClosed() throws Exception {
+        
+        async.close();
+        try {
+            async.fromKeys(Host.class, Arrays.asList("async-g")).get();
+            Assert.fail();
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
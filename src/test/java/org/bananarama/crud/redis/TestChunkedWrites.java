@@ -0,0 +1,170 @@
+package org.bananarama.crud.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.bananarama.crud.redis.entities.Session;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.cqengine.query.QueryFactory;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Writes split in chunks by count and by size, that go on when a chunk fails
+ */
+public class TestChunkedWrites {
+
+    private Jedis jedis;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+    }
+    
+    @After
+    public void shutdown() {
+        jedis.keys("session:chunk-*").forEach(jedis::del);
+        jedis.close();
+    }
+    
+    @Test
+    public void testChunkedBySize() {
+        
+        List<Long> sizes = new ArrayList<>();
+        ChunkedWrites chunks = new ChunkedWrites(100, 200, new ChunkedWrites.Listener() {
+            @Override
+            public void written(int chunk, List<String> keys, long bytes) {
+                Assert.assertEquals(sizes.size(), chunk);
+                sizes.add(bytes);
+            }
+        });
+        
+        // A few small sessions fit in a chunk, the large one does not fit with any other
+        List<Session> sessions = IntStream.range(0, 5)
+                .mapToObj(i -> new Session("chunk-" + i, i == 2 ? String.join("", Collections.nCopies(200, "x")) : "user-" + i))
+                .collect(Collectors.toList());
+        new RedisAdapterImpl().create(Session.class).from(sessions.stream(), QueryFactory.queryOptions(chunks));
+        
+        Assert.assertEquals(5, jedis.keys("session:chunk-*").size());
+        Assert.assertEquals(3, sizes.size());
+        Assert.assertTrue(sizes.get(0) <= 200 && sizes.get(1) > 200 && sizes.get(2) <= 200);
+    }
+    
+    @Test
+    public void testPullsOneChunkAtTime() {
+        
+        AtomicInteger pulled = new AtomicInteger();
+        List<Integer> pulledAtWrite = new ArrayList<>();
+        ChunkedWrites chunks = new ChunkedWrites(10, Long.MAX_VALUE, new ChunkedWrites.Listener() {
+            @Override
+            public void written(int chunk, List<String> keys, long bytes) {
+                pulledAtWrite.add(pulled.get());
+            }
+        });
+        
+        new RedisAdapterImpl().create(Session.class).from(IntStream.range(0, 35)
+                .mapToObj(i -> new Session("chunk-" + i, "user"))
+                .peek(session -> pulled.incrementAndGet()), QueryFactory.queryOptions(chunks));
+        
+        Assert.assertEquals(Arrays.asList(10, 20, 30, 35), pulledAtWrite);
+    }
+    
+    @Test
+    public void testFailedChunk() {
+        
+        RedisAdapter adapter = new RedisAdapterImpl() {
+            @Override
+            void writeChunk(List<Map<String, String>> hashes) throws Exception {
+                if (hashes.stream().anyMatch(hash -> hash.get("@key").equals("session:chunk-12"))) {
+                    throw new IllegalStateException("Failed");
+                }
+                super.writeChunk(hashes);
+            }
+        };
+        
+        List<Integer> written = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        ChunkedWrites chunks = new ChunkedWrites(5, Long.MAX_VALUE, new ChunkedWrites.Listener() {
+            @Override
+            public void written(int chunk, List<String> keys, long bytes) {
+                written.add(chunk);
+            }
+            
+            @Override
+            public void failed(int chunk, List<String> keys, Exception error) {
+                Assert.assertEquals(2, chunk);
+                failed.addAll(keys);
+            }
+        });
+        
+        adapter.create(Session.class).from(IntStream.range(0, 20).mapToObj(i -> new Session("chunk-" + i, "user")), QueryFactory.queryOptions(chunks));
+        
+        Assert.assertEquals(Arrays.asList(0, 1, 3), written);
+        Assert.assertEquals(IntStream.range(10, 15).mapToObj(i -> "session:chunk-" + i).collect(Collectors.toList()), failed);
+        Assert.assertEquals(15, jedis.keys("session:chunk-*").size());
+        Assert.assertFalse(jedis.exists("session:chunk-12"));
+    }
+    
+    @Test
+    public void testParallel() {
+        
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        RedisAdapter adapter = new RedisAdapterImpl() {
+            @Override
+            void writeChunk(List<Map<String, String>> hashes) throws Exception {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                threads.add(Thread.currentThread().getName());
+                try {
+                    super.writeChunk(hashes);
+                }
+                finally {
+                    running.decrementAndGet();
+                }
+            }
+        };
+        
+        List<String> keys = Collections.synchronizedList(new ArrayList<>());
+        ChunkedWrites chunks = new ChunkedWrites(10, Long.MAX_VALUE, new ChunkedWrites.Listener() {
+            @Override
+            public void written(int chunk, List<String> written, long bytes) {
+                keys.addAll(written);
+            }
+        });
+        
+        adapter.create(Session.class).from(IntStream.range(0, 500).mapToObj(i -> new Session("chunk-" + i, "user-" + i)), 
+                QueryFactory.queryOptions(chunks, new ParallelWrites(4)));
+        
+        // All written when create returns
+        Assert.assertEquals(500, keys.size());
+        Assert.assertEquals(500, jedis.keys("session:chunk-*").size());
+        Assert.assertEquals("user-499", jedis.hget("session:chunk-499", "user"));
+        Assert.assertTrue(maxRunning.get() <= 4);
+        Assert.assertFalse(threads.contains(Thread.currentThread().getName()));
+    }
+    
+    @Test
+    public void testBatches() {
+        
+        Iterator<List<String>> chunks = Batches.chunked(Stream.of("aa", "b", "cccccc", "d", "e", "f").iterator(), 2, 4, String::length);
+        List<List<String>> all = new ArrayList<>();
+        chunks.forEachRemaining(all::add);
+        
+        Assert.assertEquals(Arrays.asList(Arrays.asList("aa", "b"), Arrays.asList("cccccc"), Arrays.asList("d", "e"), Arrays.asList("f")), all);
+    }
+}
@@ -0,0 +1,67 @@
+package org.bananarama.crud.redis;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * Hashes written and read with the binary commands
+ */
+public class TestHashFormat {
+
+    private Jedis jedis;
+
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+    }
+
+    @After
+    public void shutdown() {
+        jedis.del("format:a");
+        jedis.close();
+    }
+
+    @Test
+    public void testNamesAreShared() {
+
+        byte[] bytes = HashFormat.name("commonProperty");
+        Assert.assertSame(bytes, HashFormat.name("commonProperty"));
+
+        // The names read back are the same instances, whatever the array they come from
+        String name = HashFormat.name(SafeEncoder.encode("commonProperty"));
+        Assert.assertEquals("commonProperty", name);
+        Assert.assertSame(name, HashFormat.name(SafeEncoder.encode("commonProperty")));
+    }
+
+    @Test
+    public void testRoundTrip() {
+
+        Map<String, String> hash = new HashMap<>();
+        hash.put("@key", "format:a");
+        hash.put("class", "x.Y");
+        hash.put("name", "caffè ☕");
+        hash.put("ttl", "42");
+
+        Pipeline pipeline = jedis.pipelined();
+        HashFormat.write(pipeline, "format:a", hash);
+        pipeline.sync();
+
+        // The values are stored as text, the @key is not stored
+        Assert.assertEquals("caffè ☕", jedis.hget("format:a", "name"));
+        Assert.assertEquals(3, jedis.hlen("format:a").longValue());
+
+        Map<String, String> read = HashFormat.decode(jedis.hgetAll(SafeEncoder.encode("format:a")));
+        hash.remove("@key");
+        Assert.assertEquals(hash, read);
+        Assert.assertNull(HashFormat.decode(jedis.hgetAll(SafeEncoder.encode("format:missing"))));
+    }
+}
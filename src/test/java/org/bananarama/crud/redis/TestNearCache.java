@@ -0,0 +1,161 @@
+package org.bananarama.crud.redis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.bananarama.crud.redis.entities.GoogleHost;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Reads served by the near cache, and its invalidation
+ */
+public class TestNearCache {
+
+    private Jedis jedis;
+    private NearCache cache;
+    private RedisAdapter adapter;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        cache = new NearCache(5, 1, TimeUnit.MINUTES);
+        adapter = new RedisAdapterImpl() {
+            @Override
+            protected NearCache getNearCache() {
+                return cache;
+            }
+        };
+        
+        adapter.create(GoogleHost.class).from(IntStream.range(0, 10).mapToObj(i -> Utils.generateGoogleHost("near-" + i)));
+    }
+    
+    @After
+    public void shutdown() {
+        cache.close();
+        jedis.keys("host:near-*").forEach(jedis::del);
+        jedis.keys("idx:host:*").forEach(jedis::del);
+        jedis.configSet("notify-keyspace-events", "");
+        jedis.close();
+    }
+    
+    private String read(String id) {
+        try (Stream<GoogleHost> hosts = adapter.read(GoogleHost.class).fromKeys(Arrays.asList(id))) {
+            return hosts.map(GoogleHost::getCommonProperty).findFirst().orElse(null);
+        }
+    }
+    
+    @Test
+    public void testHits() {
+        
+        Assert.assertEquals(Utils.GOOGLE_COMMONPROPVALUE, read("near-1"));
+        Assert.assertEquals(0, cache.hits());
+        Assert.assertEquals(1, cache.misses());
+        
+        // Not seen without the notifications
+        jedis.hset("host:near-1", "commonProperty", "changed elsewhere");
+        Assert.assertEquals(Utils.GOOGLE_COMMONPROPVALUE, read("near-1"));
+        Assert.assertEquals(1, cache.hits());
+        
+        // Mixed chunk, the order of the keys is kept
+        List<String> ids = adapter.read(GoogleHost.class).fromKeys(Arrays.asList("near-2", "near-1", "missing", "near-3"))
+                .map(GoogleHost::getHostname)
+                .collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList("near-2", "near-1", "near-3"), ids);
+        Assert.assertEquals(2, cache.hits());
+        Assert.assertEquals(4, cache.misses());
+    }
+    
+    @Test
+    public void testOwnWritesInvalidate() {
+        
+        GoogleHost host = Utils.generateGoogleHost("near-1");
+        read("near-1");
+        
+        host.setCommonProperty("created");
+        adapter.create(GoogleHost.class).from(Stream.of(host));
+        Assert.assertEquals("created", read("near-1"));
+        
+        host.setCommonProperty("updated");
+        adapter.update(GoogleHost.class).from(Stream.of(host));
+        Assert.assertEquals("updated", read("near-1"));
+        
+        adapter.delete(GoogleHost.class).from(Stream.of(host));
+        Assert.assertNull(read("near-1"));
+        Assert.assertEquals(0, cache.hits());
+    }
+    
+    @Test
+    public void testEviction() {
+        
+        // The hot key is read twice, and survives a scan of cold keys
+        read("near-0");
+        read("near-0");
+        adapter.read(GoogleHost.class).fromKeys(IntStream.range(1, 10).mapToObj(i -> "near-" + i).collect(Collectors.toList())).count();
+        
+        Assert.assertEquals(5, cache.size());
+        Assert.assertEquals(5, cache.evictions());
+        
+        long hits = cache.hits();
+        read("near-0");
+        Assert.assertEquals(hits + 1, cache.hits());
+    }
+    
+    @Test
+    public void testInvalidationDuringRead() {
+        
+        long token = cache.begin();
+        
+        // Other keys do not keep the records from being cached
+        cache.invalidate("idx:host:commonProperty:x");
+        cache.put("host:near-1", Collections.singletonMap("class", "x"), token);
+        Assert.assertEquals(1, cache.size());
+        
+        // The record read before the invalidation of its key is stale
+        cache.invalidate("host:near-2");
+        cache.put("host:near-2", Collections.singletonMap("class", "x"), token);
+        Assert.assertEquals(1, cache.size());
+        cache.end(token);
+        
+        token = cache.begin();
+        cache.put("host:near-2", Collections.singletonMap("class", "x"), token);
+        cache.end(token);
+        Assert.assertEquals(2, cache.size());
+    }
+    
+    @Test
+    public void testExpiration() throws InterruptedException {
+        
+        cache.close();
+        cache = new NearCache(5, 50, TimeUnit.MILLISECONDS);
+        read("near-1");
+        Thread.sleep(100);
+        read("near-1");
+        Assert.assertEquals(0, cache.hits());
+    }
+    
+    @Test
+    public void testKeyspaceNotifications() throws InterruptedException {
+        
+        jedis.configSet("notify-keyspace-events", "KA");
+        cache.listen(Jedis::new, 0);
+        
+        read("near-1");
+        jedis.hset("host:near-1", "commonProperty", "changed elsewhere");
+        
+        long timeout = System.currentTimeMillis() + 5000;
+        while (cache.size() > 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("changed elsewhere", read("near-1"));
+    }
+}
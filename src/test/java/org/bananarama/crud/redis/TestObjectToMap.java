@@ -55,4 +55,24 @@ public class TestObjectToMap {
         Assert.assertEquals(27.85, host.getSparse(),0.001);        
         
     }
+
+    @Test
+    public void nullPropertiesAreSkipped() throws Exception {
+        
+        GoogleHost google = Utils.generateGoogleHost("nullable");
+        google.setCommonProperty(null);
+        
+        Map<String, String> map = RedisAdapter.objToMap(google).get();
+        Assert.assertFalse(map.containsKey("commonProperty"));
+        Assert.assertFalse(map.containsKey("hostname"));           // Mapped as @key
+        Assert.assertEquals(GoogleHost.class.getName(), map.get("class"));
+        
+        // Missing values are left to the default of the instance
+        map.remove("sparse");
+        GoogleHost host = (GoogleHost)RedisAdapter.mapToObject(map).get();
+        Assert.assertEquals("nullable", host.getHostname());
+        Assert.assertNull(host.getCommonProperty());
+        Assert.assertEquals(4230.423, host.getSparse(), 0.001);
+        Assert.assertEquals(Utils.GOOGLE_TTL, host.getTtl(), 0.001);
+    }
 }
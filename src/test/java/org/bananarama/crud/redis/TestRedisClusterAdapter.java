@@ -0,0 +1,279 @@
+package org.bananarama.crud.redis;
+
+import static com.googlecode.cqengine.query.QueryFactory.equal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.bananarama.crud.redis.entities.Account;
+import org.bananarama.crud.redis.entities.Host;
+import org.bananarama.crud.redis.entities.Server;
+import org.bananarama.crud.redis.entities.Session;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.cqengine.attribute.Attribute;
+import com.googlecode.cqengine.attribute.SimpleAttribute;
+import com.googlecode.cqengine.query.QueryFactory;
+import com.googlecode.cqengine.query.option.QueryOptions;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.JedisClusterCRC16;
+
+/**
+ * Operations on a local cluster with three masters, on the ports 7000-7002.
+ * The tests are skipped if the cluster is not running
+ */
+public class TestRedisClusterAdapter {
+
+    private static final int[] PORTS = { 7000, 7001, 7002 };
+
+    private static final Attribute<Server, String> RACK = new SimpleAttribute<Server, String>("rack") {
+        @Override
+        public String getValue(Server server, QueryOptions queryOptions) {
+            return server.getRack();
+        }
+    };
+
+    private static final Attribute<Host, String> COMMON = new SimpleAttribute<Host, String>("commonProperty") {
+        @Override
+        public String getValue(Host host, QueryOptions queryOptions) {
+            return host.getCommonProperty();
+        }
+    };
+
+    private final Map<Integer, Jedis> nodes = new HashMap<>();
+    private RedisClusterAdapterImpl adapter;
+
+    @Before
+    public void startup() {
+        try (Jedis jedis = new Jedis(RedisClusterAdapterImpl.SEED.getHost(), RedisClusterAdapterImpl.SEED.getPort())) {
+            Assume.assumeTrue(jedis.clusterInfo().contains("cluster_state:ok"));
+        }
+        catch (JedisException e) {
+            Assume.assumeNoException(e);
+        }
+
+        for (int port : PORTS) {
+            nodes.put(port, new Jedis("127.0.0.1", port));
+        }
+        adapter = new RedisClusterAdapterImpl();
+    }
+
+    @After
+    public void shutdown() {
+        if (adapter != null) {
+            adapter.close();
+        }
+        nodes.values().forEach(jedis -> {
+            Stream.of("session:*", "account:*", "{server}:*", "idx:*").flatMap(pattern -> jedis.keys(pattern).stream()).forEach(jedis::del);
+            jedis.close();
+        });
+    }
+
+    @Test
+    public void testCreateReadDelete() {
+
+        List<Session> sessions = IntStream.range(0, 100)
+                .mapToObj(i -> new Session("s-" + i, "user-" + i))
+                .collect(Collectors.toList());
+        adapter.create(Session.class).from(sessions.stream());
+
+        // Spread over all the masters
+        for (Jedis jedis : nodes.values()) {
+            Assert.assertFalse(jedis.keys("session:*").isEmpty());
+        }
+
+        List<String> ids = Arrays.asList("s-42", "s-missing", "s-7", "s-99", "s-0");
+        Assert.assertEquals(Arrays.asList("user-42", "user-7", "user-99", "user-0"),
+                adapter.read(Session.class).fromKeys(ids).map(Session::getUser).collect(Collectors.toList()));
+
+        try (Stream<Session> all = adapter.read(Session.class).all()) {
+            Assert.assertEquals(100, all.map(Session::getId).distinct().count());
+        }
+
+        adapter.delete(Session.class).from(sessions.stream().filter(s -> !s.getId().equals("s-7")));
+        Assert.assertEquals(Arrays.asList("s-7"), adapter.read(Session.class).fromKeys(ids).map(Session::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testProjection() {
+
+        Session session = new Session("s-projected", "user-projected");
+        adapter.create(Session.class).from(Stream.of(session));
+
+        QueryOptions options = QueryFactory.queryOptions(new Projection("user"));
+        List<Session> read = adapter.read(Session.class).fromKeys(Arrays.asList("s-projected", "s-missing"), options).collect(Collectors.toList());
+        Assert.assertEquals(1, read.size());
+        Assert.assertEquals("s-projected", read.get(0).getId());
+        Assert.assertEquals("user-projected", read.get(0).getUser());
+    }
+
+    @Test
+    public void testIndexesWithHashTag() {
+
+        List<Server> servers = IntStream.range(0, RedisAdapterImpl.BATCH_SIZE * 3)
+                .mapToObj(i -> new Server("srv-" + i, i % 3 == 0 ? "a" : "b"))
+                .collect(Collectors.toList());
+        adapter.create(Server.class).from(servers.stream());
+
+        try (Stream<Server> rack = adapter.read(Server.class).where(equal(RACK, "a"))) {
+            Assert.assertEquals(RedisAdapterImpl.BATCH_SIZE, rack.count());
+        }
+        try (Stream<Server> all = adapter.read(Server.class).all()) {
+            Assert.assertEquals(servers.size(), all.count());
+        }
+
+        servers.get(0).setRack("b");
+        adapter.update(Server.class).from(Stream.of(servers.get(0)));
+        adapter.delete(Server.class).where(equal(RACK, "b"));
+
+        try (Stream<Server> all = adapter.read(Server.class).all()) {
+            Assert.assertEquals(RedisAdapterImpl.BATCH_SIZE - 1, all.count());
+        }
+    }
+
+    @Test
+    public void testAggregation() {
+
+        adapter.create(Server.class).from(IntStream.range(0, 10).mapToObj(i -> new Server("agg-" + i, i < 3 ? "a" : "b")));
+
+        Map<String, Long> racks = adapter.countBy(Server.class, "rack");
+        Assert.assertEquals(Long.valueOf(3), racks.get("a"));
+        Assert.assertEquals(Long.valueOf(7), racks.get("b"));
+        Assert.assertEquals(Long.valueOf(3), adapter.countBy(Server.class, "rack", equal(RACK, "a")).get("a"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAggregationWithoutHashTag() {
+        adapter.countBy(Session.class, "user");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testIndexesWithoutHashTag() {
+        adapter.read(Host.class).where(equal(COMMON, "x"));
+    }
+
+    @Test
+    public void testMovedSlot() {
+
+        adapter.create(Session.class).from(Stream.of(new Session("moving", "before")));
+
+        // The adapter knows the slot table already, then the slot goes to another node
+        String key = "session:moving";
+        int slot = JedisClusterCRC16.getSlot(key);
+        int source = owner(slot);
+        int target = PORTS[(Arrays.binarySearch(PORTS, source) + 1) % PORTS.length];
+        try {
+            migrate(slot, source, target);
+
+            Assert.assertEquals("before", adapter.read(Session.class).fromKeys(Arrays.asList("moving")).collect(Collectors.toList()).get(0).getUser());
+            adapter.update(Session.class).from(Stream.of(new Session("moving", "after")));
+            Assert.assertEquals("after", nodes.get(target).hget(key, "user"));
+        }
+        finally {
+            migrate(slot, target, source);
+        }
+    }
+
+    @Test
+    public void testAskDuringMigration() {
+
+        adapter.create(Session.class).from(Stream.of(new Session("asked", "value")));
+
+        String key = "session:asked";
+        int slot = JedisClusterCRC16.getSlot(key);
+        int source = owner(slot);
+        int target = PORTS[(Arrays.binarySearch(PORTS, source) + 1) % PORTS.length];
+
+        // The key has been moved, but the slot is still being migrated: the source replies ASK
+        nodes.get(target).clusterSetSlotImporting(slot, id(source));
+        nodes.get(source).clusterSetSlotMigrating(slot, id(target));
+        nodes.get(source).migrate("127.0.0.1", target, key, 0, 5000);
+        try {
+            Assert.assertEquals("value", adapter.read(Session.class).fromKeys(Arrays.asList("asked")).collect(Collectors.toList()).get(0).getUser());
+
+            // The projected reads follow the ASK too
+            QueryOptions options = QueryFactory.queryOptions(new Projection("user"));
+            Assert.assertEquals("value", adapter.read(Session.class).fromKeys(Arrays.asList("asked"), options).collect(Collectors.toList()).get(0).getUser());
+        }
+        finally {
+            for (Jedis jedis : nodes.values()) {
+                jedis.clusterSetSlotNode(slot, id(target));
+            }
+            migrate(slot, target, source);
+        }
+    }
+
+    @Test
+    public void testVersionedWriteRedirected() {
+
+        // Two keys of different slots on the same node, so that they are sent in the same pipeline
+        Account first = new Account("a0", "me");
+        int node = owner(JedisClusterCRC16.getSlot("account:a0"));
+        int slot = JedisClusterCRC16.getSlot("account:a0");
+        Account second = IntStream.range(1, 1000)
+                .mapToObj(i -> new Account("a" + i, "me"))
+                .filter(a -> JedisClusterCRC16.getSlot("account:" + a.getId()) != slot && owner(JedisClusterCRC16.getSlot("account:" + a.getId())) == node)
+                .findFirst().get();
+        adapter.create(Account.class).from(Stream.of(first, second));
+        Assert.assertEquals(1, second.getVersion());
+
+        // Only the second is redirected: the first is written once, and keeps its new version
+        int moved = JedisClusterCRC16.getSlot("account:" + second.getId());
+        int target = PORTS[(Arrays.binarySearch(PORTS, node) + 1) % PORTS.length];
+        try {
+            migrate(moved, node, target);
+
+            first.setOwner("you");
+            second.setOwner("you");
+            adapter.create(Account.class).from(Stream.of(first, second));
+
+            Assert.assertEquals(2, first.getVersion());
+            Assert.assertEquals(2, second.getVersion());
+            Assert.assertEquals("2", nodes.get(node).hget("account:a0", "version"));
+            Assert.assertEquals("you", nodes.get(target).hget("account:" + second.getId(), "owner"));
+        }
+        finally {
+            migrate(moved, target, node);
+        }
+    }
+
+    private int owner(int slot) {
+        for (Object range : nodes.get(PORTS[0]).clusterSlots()) {
+            List<?> fields = (List<?>) range;
+            if ((Long) fields.get(0) <= slot && slot <= (Long) fields.get(1)) {
+                return ((Long) ((List<?>) fields.get(2)).get(1)).intValue();
+            }
+        }
+        throw new IllegalStateException("No node serves the slot " + slot);
+    }
+
+    private String id(int port) {
+        return Arrays.stream(nodes.get(port).clusterNodes().split("\n"))
+                .filter(line -> line.contains("myself"))
+                .map(line -> line.split(" ")[0])
+                .findFirst().get();
+    }
+
+    private void migrate(int slot, int source, int target) {
+
+        nodes.get(target).clusterSetSlotImporting(slot, id(source));
+        nodes.get(source).clusterSetSlotMigrating(slot, id(target));
+        for (String key : nodes.get(source).clusterGetKeysInSlot(slot, 100)) {
+            nodes.get(source).migrate("127.0.0.1", target, key, 0, 5000);
+        }
+        for (Jedis jedis : nodes.values()) {
+            jedis.clusterSetSlotNode(slot, id(target));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.bananarama.crud.redis;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.bananarama.crud.redis.RedisMetrics.Operation;
+import org.bananarama.crud.redis.entities.GoogleHost;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Operations reported to the metrics registered on the adapter
+ */
+public class TestRedisMetrics {
+
+    private Jedis jedis;
+    private RecordingMetrics metrics;
+    private RedisAdapter adapter;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        metrics = new RecordingMetrics();
+        adapter = new RedisAdapterImpl() {
+            @Override
+            protected RedisMetrics getMetrics() {
+                return metrics;
+            }
+        };
+    }
+    
+    @After
+    public void shutdown() {
+        jedis.keys("host:metrics-*").forEach(jedis::del);
+        jedis.keys("idx:host:*").forEach(jedis::del);
+        jedis.close();
+    }
+    
+    @Test
+    public void testOperations() {
+        
+        List<GoogleHost> hosts = IntStream.range(0, RedisAdapterImpl.BATCH_SIZE * 2 + 1)
+                .mapToObj(i -> Utils.generateGoogleHost("metrics-" + i))
+                .collect(Collectors.toList());
+        adapter.create(GoogleHost.class).from(hosts.stream());
+        
+        RecordingMetrics.Stats create = metrics.of(Operation.CREATE);
+        Assert.assertEquals(1, create.latency().count());
+        Assert.assertEquals(hosts.size(), create.objects());
+        Assert.assertEquals(1, create.pipelines().count());
+        Assert.assertEquals(hosts.size(), create.pipelines().max());
+        Assert.assertTrue(create.bytesSent() > hosts.size() * Utils.GOOGLE_CREFILEVALUE.length());
+        
+        try (Stream<GoogleHost> all = adapter.read(GoogleHost.class).fromKeys(hosts.stream().map(GoogleHost::getHostname).collect(Collectors.toList()))) {
+            Assert.assertEquals(hosts.size(), all.count());
+        }
+        
+        // One read per pipeline of BATCH_SIZE keys
+        RecordingMetrics.Stats read = metrics.of(Operation.READ);
+        Assert.assertEquals(3, read.latency().count());
+        Assert.assertEquals(RedisAdapterImpl.BATCH_SIZE, read.pipelines().max());
+        Assert.assertEquals(hosts.size(), read.objects());
+        Assert.assertTrue(read.bytesReceived() > read.bytesSent());
+        
+        adapter.delete(GoogleHost.class).from(hosts.stream());
+        Assert.assertEquals(hosts.size(), metrics.of(Operation.DELETE).objects());
+        Assert.assertEquals(0, metrics.of(Operation.DELETE).errors());
+    }
+    
+    @Test
+    public void testConversionFailures() {
+        
+        adapter.create(GoogleHost.class).from(Stream.of(Utils.generateGoogleHost("metrics-ok")));
+        jedis.hset("host:metrics-broken", "class", GoogleHost.class.getName());
+        jedis.hset("host:metrics-broken", "ttl", "not a number");
+        
+        try (Stream<GoogleHost> all = adapter.read(GoogleHost.class).fromKeys(Arrays.asList("metrics-ok", "metrics-broken"))) {
+            Assert.assertEquals(1, all.count());
+        }
+        Assert.assertEquals(1, metrics.of(Operation.READ).conversionFailures());
+        Assert.assertEquals(0, metrics.of(Operation.CREATE).conversionFailures());
+    }
+    
+    @Test
+    public void testHistogram() {
+        
+        Histogram histogram = new Histogram();
+        Assert.assertEquals(0, histogram.percentile(99));
+        
+        IntStream.rangeClosed(1, 100000).forEach(histogram::record);
+        Assert.assertEquals(100000, histogram.count());
+        Assert.assertEquals(100000, histogram.max());
+        Assert.assertEquals(50000.5, histogram.mean(), 0.001);
+        Assert.assertEquals(100, histogram.percentile(0.1));
+        Assert.assertEquals(50000, histogram.percentile(50), 50000 / 64);
+        Assert.assertEquals(99000, histogram.percentile(99), 99000 / 64);
+        Assert.assertEquals(100000, histogram.percentile(100));
+    }
+}
@@ -0,0 +1,68 @@
+package org.bananarama.crud.redis;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Pages of a SCAN handed out to parallel streams
+ */
+public class TestScanSpliterator {
+
+    private static final BiFunction<Jedis, List<String>, Iterator<Map<String, String>>> KEYS =
+            (jedis, keys) -> keys.stream().map(key -> Collections.singletonMap("@key", key)).iterator();
+
+    private Jedis jedis;
+
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        IntStream.range(0, 50).forEach(i -> jedis.set("split:" + i, "x"));
+    }
+
+    @After
+    public void shutdown() {
+        jedis.keys("split:*").forEach(jedis::del);
+        jedis.close();
+    }
+
+    @Test
+    public void testOutstandingSplits() {
+
+        Set<String> found = new HashSet<>();
+        try (ScanSpliterator scan = new ScanSpliterator(Jedis::new, "split:*", 5, KEYS, 2)) {
+
+            // The pages handed out are not read yet: no more splits
+            Spliterator<Map<String, String>> first = scan.trySplit();
+            Spliterator<Map<String, String>> second = scan.trySplit();
+            Assert.assertNotNull(first);
+            Assert.assertNotNull(second);
+            Assert.assertNull(scan.trySplit());
+
+            // Once a page has been read, the next one can be handed out
+            first.forEachRemaining(hash -> found.add(hash.get("@key")));
+            Spliterator<Map<String, String>> third = scan.trySplit();
+            Assert.assertNotNull(third);
+
+            second.forEachRemaining(hash -> found.add(hash.get("@key")));
+            third.forEachRemaining(hash -> found.add(hash.get("@key")));
+            scan.forEachRemaining(hash -> found.add(hash.get("@key")));
+        }
+
+        Assert.assertEquals(IntStream.range(0, 50).mapToObj(i -> "split:" + i).collect(Collectors.toSet()), found);
+    }
+}
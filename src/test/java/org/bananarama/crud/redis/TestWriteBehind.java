@@ -0,0 +1,170 @@
+package org.bananarama.crud.redis;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.bananarama.crud.redis.entities.GoogleHost;
+import org.bananarama.crud.redis.entities.Host;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.cqengine.query.QueryFactory;
+import com.googlecode.cqengine.query.option.QueryOptions;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Creates buffered by a write-behind, and written when the buffer is flushed
+ */
+public class TestWriteBehind {
+
+    private Jedis jedis;
+    private RedisAdapter adapter;
+    private WriteBehind behind;
+    private QueryOptions options;
+
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        adapter = new RedisAdapterImpl();
+        behind = new WriteBehind(adapter, 1, TimeUnit.HOURS, 100);
+        options = QueryFactory.queryOptions(behind);
+    }
+
+    @After
+    public void shutdown() {
+        behind.close();
+        jedis.keys("host:behind-*").forEach(jedis::del);
+        jedis.keys("idx:*").forEach(jedis::del);
+        jedis.close();
+    }
+
+    @Test
+    public void testCoalesce() {
+
+        GoogleHost host = Utils.generateGoogleHost("behind-a");
+        for (int i = 0; i < 10; i++) {
+            host.setCommonProperty("common-" + i);
+            adapter.create(GoogleHost.class).from(Stream.of(host), options);
+        }
+
+        // Only the last object is kept, and nothing is written until the flush
+        Assert.assertEquals(1, behind.size());
+        Assert.assertFalse(jedis.exists("host:behind-a"));
+
+        behind.flush();
+        Assert.assertEquals(0, behind.size());
+        Assert.assertEquals("common-9", jedis.hget("host:behind-a", "commonProperty"));
+    }
+
+    @Test
+    public void testReadFlushes() {
+
+        adapter.create(GoogleHost.class).from(Stream.of(Utils.generateGoogleHost("behind-r")), options);
+
+        List<Host> found = adapter.read(Host.class).fromKeys(Arrays.asList("behind-r"), options).collect(Collectors.toList());
+        Assert.assertEquals(1, found.size());
+        Assert.assertEquals(0, behind.size());
+    }
+
+    @Test
+    public void testReadWaitsForTheFlushInProgress() throws Exception {
+
+        // The objects are not pending anymore while they are being written
+        RedisAdapter slow = new RedisAdapterImpl() {
+            @Override
+            void writeChunk(List<Map<String, String>> hashes) throws Exception {
+                Thread.sleep(200);
+                super.writeChunk(hashes);
+            }
+        };
+        try (WriteBehind slowBehind = new WriteBehind(slow, 1, TimeUnit.HOURS, 100)) {
+            QueryOptions slowOptions = QueryFactory.queryOptions(slowBehind);
+            slow.create(GoogleHost.class).from(Stream.of(Utils.generateGoogleHost("behind-w")), slowOptions);
+
+            Thread flush = new Thread(slowBehind::flush);
+            flush.start();
+            while (slowBehind.size() > 0) {
+                Thread.sleep(1);
+            }
+
+            List<Host> found = slow.read(Host.class).fromKeys(Arrays.asList("behind-w"), slowOptions).collect(Collectors.toList());
+            Assert.assertEquals(1, found.size());
+            flush.join();
+        }
+    }
+
+    @Test
+    public void testDeleteDropsPending() {
+
+        adapter.create(GoogleHost.class).from(Stream.of(Utils.generateGoogleHost("behind-x")), options);
+        adapter.delete(Host.class).fromKeys(Arrays.asList("behind-x"));
+        Assert.assertEquals(0, behind.size());
+
+        behind.flush();
+        Assert.assertFalse(jedis.exists("host:behind-x"));
+    }
+
+    @Test
+    public void testAsyncDeleteDropsPending() throws Exception {
+
+        GoogleHost host = Utils.generateGoogleHost("behind-y");
+        adapter.create(GoogleHost.class).from(Stream.of(host), options);
+        try (AsyncRedisAdapter async = new AsyncRedisAdapter(adapter)) {
+            async.delete(Arrays.asList(host)).get();
+        }
+        Assert.assertEquals(0, behind.size());
+
+        behind.flush();
+        Assert.assertFalse(jedis.exists("host:behind-y"));
+    }
+
+    @Test
+    public void testMaxPending() {
+
+        try (WriteBehind small = new WriteBehind(adapter, 1, TimeUnit.HOURS, 3)) {
+            QueryOptions smallOptions = QueryFactory.queryOptions(small);
+            IntStream.range(0, 3).forEach(i -> adapter.create(GoogleHost.class).from(Stream.of(Utils.generateGoogleHost("behind-m" + i)), smallOptions));
+
+            Assert.assertEquals(0, small.size());
+            Assert.assertTrue(jedis.exists("host:behind-m2"));
+        }
+    }
+
+    @Test
+    public void testTimer() throws Exception {
+
+        try (WriteBehind fast = new WriteBehind(adapter, 20, TimeUnit.MILLISECONDS, 100)) {
+            adapter.create(GoogleHost.class).from(Stream.of(Utils.generateGoogleHost("behind-t")), QueryFactory.queryOptions(fast));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!jedis.exists("host:behind-t") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(jedis.exists("host:behind-t"));
+        }
+    }
+
+    @Test
+    public void testClose() {
+
+        adapter.create(GoogleHost.class).from(Stream.of(Utils.generateGoogleHost("behind-c")), options);
+        behind.close();
+        Assert.assertTrue(jedis.exists("host:behind-c"));
+
+        try {
+            adapter.create(GoogleHost.class).from(Stream.of(Utils.generateGoogleHost("behind-d")), options);
+            Assert.fail();
+        }
+        catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+}
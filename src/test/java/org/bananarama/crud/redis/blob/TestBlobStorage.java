@@ -0,0 +1,159 @@
+package org.bananarama.crud.redis.blob;
+
+import static com.googlecode.cqengine.query.QueryFactory.equal;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.bananarama.BananaRama;
+import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.entities.Router;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.cqengine.attribute.Attribute;
+import com.googlecode.cqengine.attribute.SimpleAttribute;
+import com.googlecode.cqengine.query.option.QueryOptions;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Classes annotated with @RedisStorage(BLOB) are stored as a single binary string 
+ */
+public class TestBlobStorage {
+
+    private static final ZonedDateTime INSTALLED = ZonedDateTime.parse("2016-06-01T10:15:30+02:00[Europe/Rome]");
+    
+    private static final Attribute<Router, String> MODEL = new SimpleAttribute<Router, String>("model") {
+        @Override
+        public String getValue(Router router, QueryOptions queryOptions) {
+            return router.getModel();
+        }
+    };
+
+    private Jedis jedis;
+    private BananaRama banana;
+    private List<Router> routers;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        banana = new BananaRama();
+        
+        routers = IntStream.range(0, RedisAdapterImpl.BATCH_SIZE * 2 + 1)
+                .mapToObj(i -> {
+                    Router router = new Router("r-" + i);
+                    router.setModel(i % 2 == 0 ? "edge" : "core");
+                    router.setLoad(i / 10.0);
+                    router.setInstalled(INSTALLED.plusDays(i));
+                    return router;
+                })
+                .collect(Collectors.toList());
+        banana.create(Router.class).from(routers.stream());
+    }
+    
+    @After
+    public void shutdown() {
+        jedis.keys("router:*").forEach(jedis::del);
+        jedis.keys("idx:router:*").forEach(jedis::del);
+        jedis.hdel("bananarama:types", "rt-renamed");
+        jedis.close();
+    }
+    
+    @Test
+    public void testStoredAsString() {
+        Assert.assertEquals("string", jedis.type("router:r-1"));
+        
+        // No property names in the value
+        byte[] blob = jedis.get("router:r-1".getBytes());
+        Assert.assertFalse(new String(blob).contains("model"));
+    }
+    
+    @Test
+    public void testRead() {
+        
+        Router router = banana.read(Router.class).fromKeys(Arrays.asList("r-3")).findFirst().get();
+        Assert.assertEquals("r-3", router.getName());
+        Assert.assertEquals("core", router.getModel());
+        Assert.assertEquals(0.3, router.getLoad(), 0);
+        Assert.assertEquals(INSTALLED.plusDays(3), router.getInstalled());
+        
+        Assert.assertEquals(routers.size(), banana.read(Router.class).fromKeys(routers.stream().map(Router::getName).collect(Collectors.toList())).count());
+        Assert.assertEquals(0, banana.read(Router.class).fromKeys(Arrays.asList("missing")).count());
+        
+        Set<String> all = banana.read(Router.class).all().map(Router::getName).collect(Collectors.toSet());
+        Assert.assertEquals(routers.stream().map(Router::getName).collect(Collectors.toSet()), all);
+    }
+    
+    @Test
+    public void testNullProperties() {
+        
+        Router router = new Router("r-null");
+        banana.create(Router.class).from(Stream.of(router));
+        
+        Router read = banana.read(Router.class).fromKeys(Arrays.asList("r-null")).findFirst().get();
+        Assert.assertNull(read.getModel());
+        Assert.assertNull(read.getInstalled());
+    }
+    
+    @Test
+    public void testIndexesAndUpdates() {
+        
+        Assert.assertEquals(routers.size() / 2, banana.read(Router.class).where(equal(MODEL, "core")).count());
+        
+        Router router = routers.get(1);
+        router.setModel("edge");
+        banana.update(Router.class).from(Stream.of(router));
+        Assert.assertEquals(routers.size() / 2 - 1, banana.read(Router.class).where(equal(MODEL, "core")).count());
+        Assert.assertEquals("edge", banana.read(Router.class).fromKeys(Arrays.asList("r-1")).findFirst().get().getModel());
+        
+        banana.delete(Router.class).where(equal(MODEL, "edge"));
+        Assert.assertEquals(routers.size() / 2 - 1, banana.read(Router.class).all().count());
+        Assert.assertFalse(jedis.exists("idx:router:model:edge"));
+        
+        banana.delete(Router.class).from(banana.read(Router.class).all().collect(Collectors.toList()).stream());
+        Assert.assertEquals(0, banana.read(Router.class).all().count());
+        Assert.assertFalse(jedis.exists("idx:router:model:core"));
+    }
+    
+    @Test
+    public void testAlias() throws Exception {
+        
+        // The alias is stored instead of the class name
+        byte[] blob = jedis.get("router:r-1".getBytes());
+        Assert.assertFalse(new String(blob, "UTF-8").contains(Router.class.getName()));
+        Assert.assertEquals("rt", new String(blob, 6, blob[5], "UTF-8"));
+        
+        // An alias that this client does not know is looked up in redis
+        byte[] alias = "rt-renamed".getBytes("UTF-8");
+        byte[] renamed = new byte[blob.length - 2 + alias.length];
+        System.arraycopy(blob, 0, renamed, 0, 5);
+        renamed[5] = (byte) alias.length;
+        System.arraycopy(alias, 0, renamed, 6, alias.length);
+        System.arraycopy(blob, 8, renamed, 6 + alias.length, blob.length - 8);
+        jedis.set("router:r-1".getBytes(), renamed);
+        jedis.hset("bananarama:types", "rt-renamed", Router.class.getName());
+        
+        Router router = banana.read(Router.class).fromKeys(Arrays.asList("r-1")).findFirst().get();
+        Assert.assertEquals("core", router.getModel());
+    }
+    
+    @Test
+    public void testChangedSchema() {
+        
+        // Same class name, but a blob of a different version of the class
+        byte[] blob = jedis.get("router:r-2".getBytes());
+        blob[1]++;
+        jedis.set("router:r-2".getBytes(), blob);
+        
+        Assert.assertEquals(0, banana.read(Router.class).fromKeys(Arrays.asList("r-2")).count());
+        Assert.assertEquals(1, banana.read(Router.class).fromKeys(Arrays.asList("r-2", "r-4")).count());
+    }
+}
@@ -0,0 +1,53 @@
+package org.bananarama.crud.redis.entities;
+
+import org.bananarama.annotation.Banana;
+import org.bananarama.crud.redis.RedisClusterAdapterImpl;
+import org.bananarama.crud.redis.annotations.RedisKey;
+import org.bananarama.crud.redis.annotations.RedisVersion;
+
+/**
+ * Versioned and not indexed, so in a cluster the instances are spread over all the nodes
+ */
+@Banana(adapter = RedisClusterAdapterImpl.class)
+public class Account {
+
+    @RedisKey("account:$")
+    private String id;
+    
+    @RedisVersion
+    private long version;
+    
+    private String owner;
+    
+    public Account() {
+    }
+
+    public Account(String id, String owner) {
+        this.id = id;
+        this.owner = owner;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+}
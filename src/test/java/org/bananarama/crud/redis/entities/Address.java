@@ -0,0 +1,35 @@
+package org.bananarama.crud.redis.entities;
+
+/**
+ * A nested bean, stored in the hash of its owner
+ */
+public class Address {
+
+    private String city;
+    
+    private Double latitude;
+    
+    public Address() {
+    }
+
+    public Address(String city, Double latitude) {
+        this.city = city;
+        this.latitude = latitude;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public void setCity(String city) {
+        this.city = city;
+    }
+
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(Double latitude) {
+        this.latitude = latitude;
+    }
+}
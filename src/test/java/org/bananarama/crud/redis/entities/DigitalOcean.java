@@ -2,12 +2,14 @@ package org.bananarama.crud.redis.entities;
 
 import org.bananarama.annotation.Banana;
 import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.annotations.RedisType;
 
 /**
  * 
  * @author Tommaso Doninelli
  */
 @Banana(adapter = RedisAdapterImpl.class)
+@RedisType("do")
 public class DigitalOcean extends Host{
 
     private String token;
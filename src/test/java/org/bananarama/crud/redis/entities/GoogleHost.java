@@ -2,6 +2,8 @@ package org.bananarama.crud.redis.entities;
 
 import org.bananarama.annotation.Banana;
 import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.annotations.RedisIndex;
+import org.bananarama.crud.redis.annotations.RedisRangeIndex;
 
 /**
  * 
@@ -11,7 +13,9 @@ import org.bananarama.crud.redis.RedisAdapterImpl;
 public class GoogleHost  extends Host {
 
     private String contents;
+    @RedisIndex
     private Double ttl = 983.84;
+    @RedisRangeIndex
     private double sparse = 4230.423;
     
     public GoogleHost() {}
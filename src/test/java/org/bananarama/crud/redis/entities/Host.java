@@ -1,8 +1,12 @@
 package org.bananarama.crud.redis.entities;
 
+import java.time.ZonedDateTime;
+
 import org.bananarama.annotation.Banana;
 import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.annotations.RedisIndex;
 import org.bananarama.crud.redis.annotations.RedisKey;
+import org.bananarama.crud.redis.annotations.RedisRangeIndex;
 
 @Banana(adapter = RedisAdapterImpl.class)
 public class Host {
@@ -11,8 +15,12 @@ public class Host {
     // in Redis we create the key using other methods
 	@RedisKey("host:$")
     private String hostname;
-            
+    
+    @RedisIndex
     private String commonProperty;
+    
+    @RedisRangeIndex
+    private ZonedDateTime updated;
 
     public Host() {
     }
@@ -42,6 +50,14 @@ public class Host {
 //        this.hostname = key.split(":")[1];            
 //    }
 
+    public ZonedDateTime getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(ZonedDateTime updated) {
+        this.updated = updated;
+    }
+
     public String getHostname() {
         return hostname;
     }
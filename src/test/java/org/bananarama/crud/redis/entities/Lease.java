@@ -0,0 +1,68 @@
+package org.bananarama.crud.redis.entities;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bananarama.annotation.Banana;
+import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.annotations.RedisExpireAt;
+import org.bananarama.crud.redis.annotations.RedisKey;
+import org.bananarama.crud.redis.annotations.RedisTtl;
+
+/**
+ * An ephemeral record, that expires after an hour unless it has its own expiration
+ */
+@Banana(adapter = RedisAdapterImpl.class)
+@RedisTtl(value = 1, unit = TimeUnit.HOURS)
+public class Lease {
+
+    @RedisKey("lease:$")
+    private String id;
+    
+    private String holder;
+    
+    private Long expiresAt;
+    
+    private List<String> hosts;
+    
+    public Lease() {
+    }
+
+    public Lease(String id, String holder) {
+        this.id = id;
+        this.holder = holder;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getHolder() {
+        return holder;
+    }
+
+    public void setHolder(String holder) {
+        this.holder = holder;
+    }
+
+    @RedisExpireAt
+    public Long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public List<String> getHosts() {
+        return hosts;
+    }
+
+    public void setHosts(List<String> hosts) {
+        this.hosts = hosts;
+    }
+}
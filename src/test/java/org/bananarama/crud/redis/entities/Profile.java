@@ -0,0 +1,86 @@
+package org.bananarama.crud.redis.entities;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bananarama.annotation.Banana;
+import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.annotations.RedisIndex;
+import org.bananarama.crud.redis.annotations.RedisKey;
+
+/**
+ * Collections stored in companion keys, and a nested bean
+ */
+@Banana(adapter = RedisAdapterImpl.class)
+public class Profile {
+
+    @RedisKey("profile:$")
+    private String id;
+    
+    @RedisIndex
+    private String team;
+    
+    private List<String> tags;
+    
+    private Set<Long> groups;
+    
+    private Map<String, Integer> scores;
+    
+    private Address address;
+    
+    public Profile() {
+    }
+
+    public Profile(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTeam() {
+        return team;
+    }
+
+    public void setTeam(String team) {
+        this.team = team;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public void setTags(List<String> tags) {
+        this.tags = tags;
+    }
+
+    public Set<Long> getGroups() {
+        return groups;
+    }
+
+    public void setGroups(Set<Long> groups) {
+        this.groups = groups;
+    }
+
+    public Map<String, Integer> getScores() {
+        return scores;
+    }
+
+    public void setScores(Map<String, Integer> scores) {
+        this.scores = scores;
+    }
+
+    public Address getAddress() {
+        return address;
+    }
+
+    public void setAddress(Address address) {
+        this.address = address;
+    }
+}
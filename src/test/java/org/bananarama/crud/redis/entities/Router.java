@@ -0,0 +1,68 @@
+package org.bananarama.crud.redis.entities;
+
+import java.time.ZonedDateTime;
+
+import org.bananarama.annotation.Banana;
+import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.annotations.RedisIndex;
+import org.bananarama.crud.redis.annotations.RedisKey;
+import org.bananarama.crud.redis.annotations.RedisStorage;
+import org.bananarama.crud.redis.annotations.RedisType;
+
+/**
+ * A small record stored as a blob
+ */
+@Banana(adapter = RedisAdapterImpl.class)
+@RedisStorage(RedisStorage.Mode.BLOB)
+@RedisType("rt")
+public class Router {
+
+    @RedisKey("router:$")
+    private String name;
+    
+    @RedisIndex
+    private String model;
+    
+    private double load;
+    
+    private ZonedDateTime installed;
+    
+    public Router() {
+    }
+
+    public Router(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public void setModel(String model) {
+        this.model = model;
+    }
+
+    public double getLoad() {
+        return load;
+    }
+
+    public void setLoad(double load) {
+        this.load = load;
+    }
+
+    public ZonedDateTime getInstalled() {
+        return installed;
+    }
+
+    public void setInstalled(ZonedDateTime installed) {
+        this.installed = installed;
+    }
+}
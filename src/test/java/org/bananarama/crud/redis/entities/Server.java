@@ -0,0 +1,43 @@
+package org.bananarama.crud.redis.entities;
+
+import org.bananarama.annotation.Banana;
+import org.bananarama.crud.redis.RedisClusterAdapterImpl;
+import org.bananarama.crud.redis.annotations.RedisIndex;
+import org.bananarama.crud.redis.annotations.RedisKey;
+
+/**
+ * Indexed, so in a cluster the key has a hash tag
+ */
+@Banana(adapter = RedisClusterAdapterImpl.class)
+public class Server {
+
+    @RedisKey("{server}:$")
+    private String name;
+    
+    @RedisIndex
+    private String rack;
+    
+    public Server() {
+    }
+
+    public Server(String name, String rack) {
+        this.name = name;
+        this.rack = rack;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getRack() {
+        return rack;
+    }
+
+    public void setRack(String rack) {
+        this.rack = rack;
+    }
+}
@@ -0,0 +1,41 @@
+package org.bananarama.crud.redis.entities;
+
+import org.bananarama.annotation.Banana;
+import org.bananarama.crud.redis.RedisClusterAdapterImpl;
+import org.bananarama.crud.redis.annotations.RedisKey;
+
+/**
+ * Not indexed, so in a cluster the instances are spread over all the nodes
+ */
+@Banana(adapter = RedisClusterAdapterImpl.class)
+public class Session {
+
+    @RedisKey("session:$")
+    private String id;
+    
+    private String user;
+    
+    public Session() {
+    }
+
+    public Session(String id, String user) {
+        this.id = id;
+        this.user = user;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public void setUser(String user) {
+        this.user = user;
+    }
+}
@@ -0,0 +1,65 @@
+package org.bananarama.crud.redis.entities;
+
+import org.bananarama.annotation.Banana;
+import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.annotations.RedisIndex;
+import org.bananarama.crud.redis.annotations.RedisKey;
+import org.bananarama.crud.redis.annotations.RedisVersion;
+
+/**
+ * Updated concurrently, with optimistic locking
+ */
+@Banana(adapter = RedisAdapterImpl.class)
+public class Ticket {
+
+    @RedisKey("ticket:$")
+    private String id;
+    
+    @RedisVersion
+    private long version;
+    
+    @RedisIndex
+    private String owner;
+    
+    private String title;
+    
+    public Ticket() {
+    }
+
+    public Ticket(String id, String owner) {
+        this.id = id;
+        this.owner = owner;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+}
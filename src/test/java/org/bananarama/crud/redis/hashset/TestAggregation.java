@@ -0,0 +1,98 @@
+package org.bananarama.crud.redis.hashset;
+
+import static com.googlecode.cqengine.query.QueryFactory.equal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.bananarama.crud.redis.Aggregates;
+import org.bananarama.crud.redis.RedisAdapter;
+import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.Utils;
+import org.bananarama.crud.redis.entities.GoogleHost;
+import org.bananarama.crud.redis.entities.Host;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.cqengine.attribute.Attribute;
+import com.googlecode.cqengine.attribute.SimpleAttribute;
+import com.googlecode.cqengine.query.option.QueryOptions;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Aggregates computed on the server
+ */
+public class TestAggregation {
+
+    private static final Attribute<Host, String> COMMON = new SimpleAttribute<Host, String>("commonProperty") {
+        @Override
+        public String getValue(Host host, QueryOptions queryOptions) {
+            return host.getCommonProperty();
+        }
+    };
+
+    private Jedis jedis;
+    private RedisAdapter adapter;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        adapter = new RedisAdapterImpl();
+        
+        GoogleHost a = Utils.generateGoogleHost("agg-1");
+        a.setTtl(10);
+        GoogleHost b = Utils.generateGoogleHost("agg-2");
+        b.setTtl(2.5);
+        GoogleHost c = Utils.generateGoogleHost("agg-3");
+        c.setTtl(-4);
+        c.setCommonProperty("other");
+        adapter.create(Host.class).from(Stream.of(a, b, c, Utils.generateDigitalOceanHost("agg-4")));
+    }
+    
+    @After
+    public void shutdown() {
+        Stream.of("host:*", "idx:host:*").flatMap(pattern -> jedis.keys(pattern).stream()).forEach(jedis::del);
+        jedis.close();
+    }
+    
+    @Test
+    public void testAggregate() {
+        
+        Aggregates ttl = adapter.aggregate(GoogleHost.class, "ttl");
+        Assert.assertEquals(3, ttl.getCount());
+        Assert.assertEquals(8.5, ttl.getSum(), 0);
+        Assert.assertEquals(-4, ttl.getMin(), 0);
+        Assert.assertEquals(10, ttl.getMax(), 0);
+        
+        ttl = adapter.aggregate(GoogleHost.class, "ttl", equal(COMMON, Utils.GOOGLE_COMMONPROPVALUE));
+        Assert.assertEquals(2, ttl.getCount());
+        Assert.assertEquals(12.5, ttl.getSum(), 0);
+        
+        // Not numbers
+        Assert.assertEquals(0, adapter.aggregate(Host.class, "commonProperty").getCount());
+        Assert.assertTrue(Double.isNaN(adapter.aggregate(Host.class, "commonProperty").getMin()));
+    }
+    
+    @Test
+    public void testCountBy() {
+        
+        Map<String, Long> expected = new HashMap<>();
+        expected.put(Utils.GOOGLE_COMMONPROPVALUE, 2L);
+        expected.put("other", 1L);
+        expected.put("ocean-common", 1L);
+        Assert.assertEquals(expected, adapter.countBy(Host.class, "commonProperty"));
+        
+        // Only the subclass
+        expected.remove("ocean-common");
+        Assert.assertEquals(expected, adapter.countBy(GoogleHost.class, "commonProperty"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownProperty() {
+        adapter.aggregate(Host.class, "missing");
+    }
+}
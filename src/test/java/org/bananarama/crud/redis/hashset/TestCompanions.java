@@ -0,0 +1,141 @@
+package org.bananarama.crud.redis.hashset;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bananarama.crud.redis.RedisAdapter;
+import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.entities.Address;
+import org.bananarama.crud.redis.entities.Profile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Collections in companion keys, read lazily, and nested beans
+ */
+public class TestCompanions {
+
+    private Jedis jedis;
+    private RedisAdapter adapter;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        adapter = new RedisAdapterImpl();
+    }
+    
+    @After
+    public void shutdown() {
+        Stream.of("profile:*", "sub:*", "idx:profile:*").flatMap(pattern -> jedis.keys(pattern).stream()).forEach(jedis::del);
+        jedis.close();
+    }
+    
+    private Profile profile(String id) {
+        Profile profile = new Profile(id);
+        profile.setTeam("red");
+        profile.setTags(Arrays.asList("b", "a", "b"));
+        profile.setGroups(new HashSet<>(Arrays.asList(1L, 2L)));
+        Map<String, Integer> scores = new HashMap<>();
+        scores.put("chess", 1200);
+        profile.setScores(scores);
+        profile.setAddress(new Address("Milano", 45.46));
+        return profile;
+    }
+    
+    private Profile read(String id) {
+        return adapter.read(Profile.class).fromKeys(Arrays.asList(id)).collect(Collectors.toList()).get(0);
+    }
+    
+    @Test
+    public void testCreateAndRead() {
+        
+        adapter.create(Profile.class).from(Stream.of(profile("p1")));
+        
+        Assert.assertEquals(Arrays.asList("b", "a", "b"), jedis.lrange("sub:{profile:p1}:tags", 0, -1));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("1", "2")), jedis.smembers("sub:{profile:p1}:groups"));
+        Assert.assertEquals("1200", jedis.hget("sub:{profile:p1}:scores", "chess"));
+        Assert.assertEquals("sub:{profile:p1}:tags", jedis.hget("profile:p1", "tags"));
+        Assert.assertEquals("Milano", jedis.hget("profile:p1", "address.city"));
+        
+        Profile profile = read("p1");
+        Assert.assertEquals("Milano", profile.getAddress().getCity());
+        Assert.assertEquals(45.46, profile.getAddress().getLatitude(), 0);
+        
+        // Read on first use
+        jedis.rpush("sub:{profile:p1}:tags", "c");
+        Assert.assertEquals(Arrays.asList("b", "a", "b", "c"), profile.getTags());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), profile.getGroups());
+        Assert.assertEquals(Integer.valueOf(1200), profile.getScores().get("chess"));
+        
+        // The scan of the instances does not match the companion keys
+        try (Stream<Profile> all = adapter.read(Profile.class).all()) {
+            Assert.assertEquals(1, all.count());
+        }
+    }
+    
+    @Test
+    public void testNulls() {
+        
+        Profile profile = new Profile("p2");
+        adapter.create(Profile.class).from(Stream.of(profile));
+        
+        profile = read("p2");
+        Assert.assertNull(profile.getTags());
+        Assert.assertNull(profile.getScores());
+        Assert.assertNull(profile.getAddress());
+        Assert.assertTrue(jedis.keys("sub:*").isEmpty());
+    }
+    
+    @Test
+    public void testUpdate() {
+        
+        adapter.create(Profile.class).from(Stream.of(profile("p3")));
+        
+        // The collections that have not been used are not written again
+        Profile profile = read("p3");
+        jedis.rpush("sub:{profile:p3}:tags", "concurrent");
+        profile.setTeam("blue");
+        adapter.update(Profile.class).from(Stream.of(profile));
+        Assert.assertEquals(Arrays.asList("b", "a", "b", "concurrent"), jedis.lrange("sub:{profile:p3}:tags", 0, -1));
+        
+        // The ones that changed are written again, and the null ones are deleted
+        profile = read("p3");
+        profile.getTags().remove("concurrent");
+        profile.getGroups().add(3L);
+        profile.setScores(null);
+        profile.getAddress().setCity("Roma");
+        adapter.update(Profile.class).from(Stream.of(profile));
+        
+        Assert.assertEquals(Arrays.asList("b", "a", "b"), jedis.lrange("sub:{profile:p3}:tags", 0, -1));
+        Assert.assertEquals(3, jedis.scard("sub:{profile:p3}:groups").longValue());
+        Assert.assertFalse(jedis.exists("sub:{profile:p3}:scores"));
+        Assert.assertFalse(jedis.hexists("profile:p3", "scores"));
+        
+        profile = read("p3");
+        Assert.assertNull(profile.getScores());
+        Assert.assertEquals("Roma", profile.getAddress().getCity());
+        Assert.assertEquals("blue", profile.getTeam());
+    }
+    
+    @Test
+    public void testDelete() {
+        
+        List<Profile> profiles = Arrays.asList(profile("p4"), profile("p5"), profile("p6"));
+        adapter.create(Profile.class).from(profiles.stream());
+        
+        adapter.delete(Profile.class).from(Stream.of(profiles.get(0)));
+        adapter.delete(Profile.class).fromKeys(Arrays.asList("p5"));
+        
+        Assert.assertEquals(new HashSet<>(Arrays.asList("profile:p6")), jedis.keys("profile:*"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("sub:{profile:p6}:tags", "sub:{profile:p6}:groups", "sub:{profile:p6}:scores")), jedis.keys("sub:*"));
+    }
+}
@@ -1,11 +1,14 @@
 package org.bananarama.crud.redis.hashset;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.bananarama.BananaRama;
+import org.bananarama.crud.redis.RedisAdapterImpl;
 import org.bananarama.crud.redis.Utils;
 import org.bananarama.crud.redis.entities.DigitalOcean;
 import org.bananarama.crud.redis.entities.GoogleHost;
@@ -152,4 +155,59 @@ public class TestCrudSimpleHashSet {
         all.stream().map(s -> "host:" + s).forEach(jedis::del);
     }
 
+    @Test
+    public void testReadMoreThanOneBatch() {
+        
+        jedis.scan("0", new ScanParams().match("host:*")).getResult().forEach(jedis::del);
+        
+        // More keys than the ones sent in a single pipeline, plus some missing ones
+        int size = RedisAdapterImpl.BATCH_SIZE * 2 + 3;
+        List<String> names = IntStream.range(0, size).mapToObj(i -> "batch-" + i).collect(Collectors.toList());
+        banana.create(GoogleHost.class).from(names.stream().map(Utils::generateGoogleHost));
+        
+        List<String> keys = new ArrayList<>(names);
+        keys.add(RedisAdapterImpl.BATCH_SIZE, "missing-01");
+        keys.add("missing-02");
+        
+        List<GoogleHost> hosts;
+        try (Stream<GoogleHost> stream = banana.read(GoogleHost.class).fromKeys(keys)) {
+            hosts = stream.collect(Collectors.toList());
+        }
+        
+        Assert.assertEquals(size, hosts.size());
+        Assert.assertEquals(names, hosts.stream().map(GoogleHost::getHostname).collect(Collectors.toList()));
+        
+        // A stream that is closed before being consumed must release its connection
+        for (int i = 0; i < 20; i++) {
+            banana.read(GoogleHost.class).fromKeys(keys).limit(1).close();
+        }
+        
+        names.stream().map(s -> "host:" + s).forEach(jedis::del);
+    }
+
+    @Test
+    public void testReadAll() {
+        
+        jedis.scan("0", new ScanParams().match("host:*")).getResult().forEach(jedis::del);
+        
+        List<GoogleHost> googles = IntStream.range(0, 40).mapToObj(i -> Utils.generateGoogleHost("all-g-" + i)).collect(Collectors.toList());
+        List<DigitalOcean> oceans = IntStream.range(0, 25).mapToObj(i -> Utils.generateDigitalOceanHost("all-o-" + i)).collect(Collectors.toList());
+        banana.create(GoogleHost.class).from(googles.stream());
+        banana.create(DigitalOcean.class).from(oceans.stream());
+        jedis.set("other:key", "not an host");
+        
+        try (Stream<Host> all = banana.read(Host.class).all()) {
+            Assert.assertEquals(65, all.map(Host::getHostname).distinct().count());
+        }
+        try (Stream<GoogleHost> all = banana.read(GoogleHost.class).all()) {
+            Assert.assertEquals(40, all.map(Host::getHostname).distinct().count());
+        }
+        try (Stream<DigitalOcean> all = banana.read(DigitalOcean.class).all().parallel()) {
+            Assert.assertEquals(25, all.map(Host::getHostname).distinct().count());
+        }
+        
+        jedis.del("other:key");
+        Stream.concat(googles.stream(), oceans.stream()).map(h -> "host:" + h.getHostname()).forEach(jedis::del);
+    }
+
 }
@@ -0,0 +1,104 @@
+package org.bananarama.crud.redis.hashset;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.bananarama.crud.redis.RedisAdapter;
+import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.Utils;
+import org.bananarama.crud.redis.entities.DigitalOcean;
+import org.bananarama.crud.redis.entities.GoogleHost;
+import org.bananarama.crud.redis.entities.Host;
+import org.bananarama.crud.redis.entities.Session;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Deletes by id and by pattern, that do not load the instances
+ */
+public class TestDeleteByKeys {
+
+    private Jedis jedis;
+    private RedisAdapter adapter;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        adapter = new RedisAdapterImpl();
+    }
+    
+    @After
+    public void shutdown() {
+        jedis.keys("host:del-*").forEach(jedis::del);
+        jedis.keys("session:del-*").forEach(jedis::del);
+        jedis.keys("idx:host:*").forEach(jedis::del);
+        jedis.close();
+    }
+    
+    private long unlinks() {
+        String stats = jedis.info("commandstats");
+        int start = stats.indexOf("cmdstat_unlink:calls=");
+        return start < 0 ? 0 : Long.parseLong(stats.substring(start + "cmdstat_unlink:calls=".length(), stats.indexOf(',', start)));
+    }
+    
+    @Test
+    public void testFromKeysWithIndexes() {
+        
+        adapter.create(Host.class).from(Stream.of(
+                Utils.generateGoogleHost("del-g1"), 
+                Utils.generateGoogleHost("del-g2"), 
+                Utils.generateDigitalOceanHost("del-o1")));
+        
+        // Not a GoogleHost, it is kept
+        adapter.delete(GoogleHost.class).fromKeys(Arrays.asList("del-g1", "del-missing", "del-o1"));
+        
+        Assert.assertFalse(jedis.exists("host:del-g1"));
+        Assert.assertTrue(jedis.exists("host:del-g2"));
+        Assert.assertTrue(jedis.exists("host:del-o1"));
+        Assert.assertFalse(jedis.sismember("idx:host:commonProperty:" + Utils.GOOGLE_COMMONPROPVALUE, "del-g1"));
+        Assert.assertTrue(jedis.sismember("idx:host:commonProperty:" + Utils.GOOGLE_COMMONPROPVALUE, "del-g2"));
+        Assert.assertNull(jedis.zscore("idx:host:sparse", "del-g1"));
+        
+        adapter.delete(DigitalOcean.class).fromKeys(Arrays.asList("del-o1"));
+        Assert.assertFalse(jedis.exists("host:del-o1"));
+    }
+    
+    @Test
+    public void testMatching() {
+        
+        List<GoogleHost> stale = IntStream.range(0, RedisAdapterImpl.BATCH_SIZE * 3)
+                .mapToObj(i -> Utils.generateGoogleHost("del-stale-" + i))
+                .collect(Collectors.toList());
+        adapter.create(GoogleHost.class).from(Stream.concat(stale.stream(), Stream.of(Utils.generateGoogleHost("del-fresh"))));
+        
+        adapter.delete(GoogleHost.class).matching("del-stale-*");
+        
+        Assert.assertEquals(Arrays.asList("host:del-fresh"), jedis.keys("host:del-*").stream().collect(Collectors.toList()));
+        Assert.assertEquals(1, jedis.zcard("idx:host:sparse").longValue());
+    }
+    
+    @Test
+    public void testWithoutIndexes() {
+        
+        adapter.create(Session.class).from(IntStream.range(0, 20).mapToObj(i -> new Session("del-" + i, "user")));
+        long unlinks = unlinks();
+        
+        adapter.delete(Session.class).fromKeys(Arrays.asList("del-0", "del-1"));
+        Assert.assertFalse(jedis.exists("session:del-0"));
+        Assert.assertTrue(jedis.exists("session:del-2"));
+        
+        adapter.delete(Session.class).matching("del-1*");
+        Assert.assertEquals(8, jedis.keys("session:del-*").size());
+        Assert.assertTrue(unlinks() > unlinks);
+        
+        adapter.delete(Session.class).matching("*");
+        Assert.assertTrue(jedis.keys("session:del-*").isEmpty());
+    }
+}
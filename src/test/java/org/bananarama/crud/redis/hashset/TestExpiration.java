@@ -0,0 +1,107 @@
+package org.bananarama.crud.redis.hashset;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.bananarama.crud.redis.RedisAdapter;
+import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.annotations.RedisIndex;
+import org.bananarama.crud.redis.annotations.RedisKey;
+import org.bananarama.crud.redis.annotations.RedisTtl;
+import org.bananarama.crud.redis.entities.Lease;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Instances that expire, with the TTL of their class or their own expiration
+ */
+public class TestExpiration {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private Jedis jedis;
+    private RedisAdapter adapter;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        adapter = new RedisAdapterImpl();
+    }
+    
+    @After
+    public void shutdown() {
+        Stream.of("lease:*", "sub:{lease:*").flatMap(pattern -> jedis.keys(pattern).stream()).forEach(jedis::del);
+        jedis.close();
+    }
+    
+    @Test
+    public void testTtlOfTheClass() {
+        
+        Lease lease = new Lease("l1", "me");
+        lease.setHosts(Arrays.asList("a", "b"));
+        adapter.create(Lease.class).from(Stream.of(lease));
+        
+        long ttl = jedis.pttl("lease:l1");
+        Assert.assertTrue(ttl > HOUR - 60000 && ttl <= HOUR);
+        
+        // The collections expire with their instance
+        ttl = jedis.pttl("sub:{lease:l1}:hosts");
+        Assert.assertTrue(ttl > HOUR - 60000 && ttl <= HOUR);
+    }
+    
+    @Test
+    public void testExpireAt() {
+        
+        Lease lease = new Lease("l2", "me");
+        lease.setExpiresAt(System.currentTimeMillis() + 60000);
+        adapter.create(Lease.class).from(Stream.of(lease));
+        
+        long ttl = jedis.pttl("lease:l2");
+        Assert.assertTrue(ttl > 50000 && ttl <= 60000);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testIndexedClassesCanNotExpire() {
+        adapter.countBy(IndexedLease.class, "holder");
+    }
+    
+    @Test
+    public void testUpdateSetsTheTtlAgain() {
+        
+        Lease lease = new Lease("l3", "me");
+        adapter.create(Lease.class).from(Stream.of(lease));
+        jedis.persist("lease:l3");
+        
+        lease.setHolder("you");
+        adapter.update(Lease.class).from(Stream.of(lease));
+        Assert.assertEquals("you", jedis.hget("lease:l3", "holder"));
+        Assert.assertTrue(jedis.pttl("lease:l3") > HOUR - 60000);
+    }
+    
+    @RedisTtl(60)
+    public static class IndexedLease {
+        
+        @RedisKey("ilease:$")
+        private String id;
+        
+        @RedisIndex
+        private String holder;
+        
+        public String getId() {
+            return id;
+        }
+        
+        public String getHolder() {
+            return holder;
+        }
+        
+        public void setHolder(String holder) {
+            this.holder = holder;
+        }
+    }
+}
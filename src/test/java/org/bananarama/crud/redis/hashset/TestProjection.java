@@ -0,0 +1,97 @@
+package org.bananarama.crud.redis.hashset;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bananarama.crud.redis.Projection;
+import org.bananarama.crud.redis.RedisAdapter;
+import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.Snapshots;
+import org.bananarama.crud.redis.Utils;
+import org.bananarama.crud.redis.entities.Address;
+import org.bananarama.crud.redis.entities.GoogleHost;
+import org.bananarama.crud.redis.entities.Host;
+import org.bananarama.crud.redis.entities.Profile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.cqengine.query.QueryFactory;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Reads of some properties only
+ */
+public class TestProjection {
+
+    private Jedis jedis;
+    private RedisAdapter adapter;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        adapter = new RedisAdapterImpl();
+    }
+    
+    @After
+    public void shutdown() {
+        Stream.of("host:proj-*", "profile:proj-*", "sub:*", "idx:host:*", "idx:profile:*").flatMap(pattern -> jedis.keys(pattern).stream()).forEach(jedis::del);
+        jedis.close();
+    }
+    
+    @Test
+    public void testFromKeys() {
+        
+        adapter.create(Host.class).from(Stream.of(Utils.generateGoogleHost("proj-1"), Utils.generateDigitalOceanHost("proj-2")));
+        
+        long before = calls("hgetall");
+        List<Host> hosts = adapter.read(Host.class)
+                .fromKeys(Arrays.asList("proj-1", "proj-missing", "proj-2"), QueryFactory.queryOptions(new Projection("commonProperty")))
+                .collect(Collectors.toList());
+        Assert.assertEquals(0, calls("hgetall") - before);
+        
+        Assert.assertEquals(2, hosts.size());
+        Assert.assertEquals("proj-1", hosts.get(0).getHostname());
+        Assert.assertEquals(Utils.GOOGLE_COMMONPROPVALUE, hosts.get(0).getCommonProperty());
+        Assert.assertNull(((GoogleHost) hosts.get(0)).getCredentialFile());
+        Assert.assertEquals("ocean-common", hosts.get(1).getCommonProperty());
+    }
+    
+    @Test
+    public void testNestedBean() {
+        
+        Profile profile = new Profile("proj-3");
+        profile.setTeam("red");
+        profile.setTags(Arrays.asList("a"));
+        profile.setAddress(new Address("Milano", 45.46));
+        adapter.create(Profile.class).from(Stream.of(profile));
+        
+        try (Stream<Profile> all = adapter.read(Profile.class).all(QueryFactory.queryOptions(new Projection("address")))) {
+            Profile read = all.collect(Collectors.toList()).get(0);
+            Assert.assertEquals("Milano", read.getAddress().getCity());
+            Assert.assertEquals(45.46, read.getAddress().getLatitude(), 0);
+            Assert.assertNull(read.getTeam());
+            Assert.assertNull(read.getTags());
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownProperty() {
+        adapter.read(Host.class).fromKeys(Arrays.asList("proj-1"), QueryFactory.queryOptions(new Projection("missing")));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testWithSnapshots() {
+        adapter.read(Host.class).fromKeys(Arrays.asList("proj-1"), QueryFactory.queryOptions(new Projection("commonProperty"), new Snapshots()));
+    }
+    
+    private long calls(String command) {
+        String stats = jedis.info("commandstats");
+        int start = stats.indexOf("cmdstat_" + command + ":calls=");
+        return start < 0 ? 0 : Long.parseLong(stats.substring(start + ("cmdstat_" + command + ":calls=").length(), stats.indexOf(',', start)));
+    }
+}
@@ -0,0 +1,160 @@
+package org.bananarama.crud.redis.hashset;
+
+import static com.googlecode.cqengine.query.QueryFactory.and;
+import static com.googlecode.cqengine.query.QueryFactory.between;
+import static com.googlecode.cqengine.query.QueryFactory.equal;
+import static com.googlecode.cqengine.query.QueryFactory.greaterThan;
+import static com.googlecode.cqengine.query.QueryFactory.greaterThanOrEqualTo;
+import static com.googlecode.cqengine.query.QueryFactory.in;
+import static com.googlecode.cqengine.query.QueryFactory.lessThan;
+import static com.googlecode.cqengine.query.QueryFactory.not;
+import static com.googlecode.cqengine.query.QueryFactory.or;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.bananarama.BananaRama;
+import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.Utils;
+import org.bananarama.crud.redis.entities.GoogleHost;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.cqengine.attribute.Attribute;
+import com.googlecode.cqengine.attribute.SimpleAttribute;
+import com.googlecode.cqengine.query.Query;
+import com.googlecode.cqengine.query.option.QueryOptions;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Range queries resolved with the sorted sets of the properties annotated with @RedisRangeIndex
+ */
+public class TestRangeIndexes {
+
+    private static final ZonedDateTime NOW = ZonedDateTime.parse("2016-06-01T10:15:30+02:00[Europe/Rome]");
+    
+    private static final Attribute<GoogleHost, String> COMMON = new SimpleAttribute<GoogleHost, String>("commonProperty") {
+        @Override
+        public String getValue(GoogleHost host, QueryOptions queryOptions) {
+            return host.getCommonProperty();
+        }
+    };
+    
+    private static final Attribute<GoogleHost, Double> SPARSE = new SimpleAttribute<GoogleHost, Double>("sparse") {
+        @Override
+        public Double getValue(GoogleHost host, QueryOptions queryOptions) {
+            return host.getSparse();
+        }
+    };
+    
+    // Dates are queried by epoch millis
+    private static final Attribute<GoogleHost, Long> UPDATED = new SimpleAttribute<GoogleHost, Long>("updated") {
+        @Override
+        public Long getValue(GoogleHost host, QueryOptions queryOptions) {
+            return host.getUpdated().toInstant().toEpochMilli();
+        }
+    };
+
+    private Jedis jedis;
+    private BananaRama banana;
+    private List<GoogleHost> hosts;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        banana = new BananaRama();
+        
+        hosts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            GoogleHost host = Utils.generateGoogleHost("range-" + i);
+            host.setSparse(i * 10);
+            host.setUpdated(NOW.plusHours(i));
+            host.setCommonProperty(i % 2 == 0 ? "even" : "odd");
+            hosts.add(host);
+        }
+        
+        banana.create(GoogleHost.class).from(hosts.stream());
+    }
+    
+    @After
+    public void shutdown() {
+        jedis.keys("host:range-*").forEach(jedis::del);
+        jedis.keys("idx:host:*").forEach(jedis::del);
+        jedis.close();
+    }
+    
+    private List<String> where(Query<GoogleHost> query) {
+        try (Stream<GoogleHost> result = banana.read(GoogleHost.class).where(query)) {
+            return result.map(GoogleHost::getHostname).collect(Collectors.toList());
+        }
+    }
+    
+    private static Set<String> names(int... ids) {
+        return Arrays.stream(ids).mapToObj(i -> "range-" + i).collect(Collectors.toSet());
+    }
+    
+    @Test
+    public void testRanges() {
+        
+        // A single range is read in score order
+        Assert.assertEquals(Arrays.asList("range-2", "range-3", "range-4"), where(between(SPARSE, 20.0, 40.0)));
+        Assert.assertEquals(Arrays.asList("range-3"), where(between(SPARSE, 20.0, false, 40.0, false)));
+        Assert.assertEquals(Arrays.asList("range-8", "range-9"), where(greaterThan(UPDATED, NOW.plusHours(7).toInstant().toEpochMilli())));
+        Assert.assertEquals(Arrays.asList("range-0", "range-1"), where(lessThan(SPARSE, 20.0)));
+        Assert.assertEquals(Arrays.asList("range-5"), where(equal(SPARSE, 50.0)));
+        
+        Assert.assertEquals(names(1, 3), new java.util.HashSet<>(where(and(equal(COMMON, "odd"), lessThan(SPARSE, 50.0)))));
+        Assert.assertEquals(names(2, 4), new java.util.HashSet<>(where(and(between(SPARSE, 15.0, 45.0), not(equal(COMMON, "odd"))))));
+        Assert.assertEquals(names(0, 1, 9), new java.util.HashSet<>(where(or(lessThan(SPARSE, 15.0), greaterThan(SPARSE, 85.0)))));
+        Assert.assertEquals(names(0, 2, 4, 9), new java.util.HashSet<>(where(or(and(equal(COMMON, "even"), lessThan(SPARSE, 50.0)), greaterThanOrEqualTo(SPARSE, 90.0)))));
+        Assert.assertEquals(names(5, 6), new java.util.HashSet<>(where(and(greaterThan(SPARSE, 40.0), lessThan(UPDATED, NOW.plusHours(7).toInstant().toEpochMilli())))));
+        Assert.assertEquals(names(3, 7), new java.util.HashSet<>(where(in(SPARSE, 30.0, 70.0))));
+        Assert.assertEquals(names(3), new java.util.HashSet<>(where(and(equal(COMMON, "odd"), in(SPARSE, 30.0, 40.0, 35.0)))));
+        Assert.assertEquals(names(5, 8), new java.util.HashSet<>(where(and(greaterThan(SPARSE, 40.0), or(equal(SPARSE, 50.0), in(SPARSE, 80.0, 20.0))))));
+        Assert.assertTrue(where(in(SPARSE, 35.0, 65.0)).isEmpty());
+        
+        Assert.assertTrue(jedis.keys("idx:tmp:*").isEmpty());
+    }
+    
+    @Test
+    public void testScoresAreUpdated() {
+        
+        GoogleHost host = hosts.get(0);
+        host.setSparse(1000);
+        banana.create(GoogleHost.class).from(Stream.of(host));
+        Assert.assertEquals(Arrays.asList("range-9", "range-0"), where(greaterThan(SPARSE, 85.0)));
+        
+        banana.delete(GoogleHost.class).from(Stream.of(host));
+        Assert.assertEquals(Arrays.asList("range-9"), where(greaterThan(SPARSE, 85.0)));
+    }
+    
+    @Test
+    public void testPagesWithTheSameScore() {
+        
+        // More results than a page, all with the same score 
+        List<GoogleHost> same = IntStream.range(0, RedisAdapterImpl.BATCH_SIZE * 3 + 2)
+                .mapToObj(i -> Utils.generateGoogleHost("range-same-" + i))
+                .collect(Collectors.toList());
+        same.forEach(h -> h.setSparse(55));
+        banana.create(GoogleHost.class).from(same.stream());
+        
+        List<String> found = where(between(SPARSE, 50.0, false, 60.0, true));
+        Assert.assertEquals(same.size() + 1, found.size());
+        Assert.assertEquals(same.size() + 1, found.stream().distinct().count());
+        Assert.assertEquals("range-6", found.get(found.size() - 1));
+    }
+    
+    @Test(expected = UnsupportedOperationException.class)
+    public void testNegatedRange() {
+        banana.read(GoogleHost.class).where(and(equal(COMMON, "odd"), not(lessThan(SPARSE, 50.0))));
+    }
+}
@@ -0,0 +1,144 @@
+package org.bananarama.crud.redis.hashset;
+
+import static com.googlecode.cqengine.query.QueryFactory.and;
+import static com.googlecode.cqengine.query.QueryFactory.equal;
+import static com.googlecode.cqengine.query.QueryFactory.in;
+import static com.googlecode.cqengine.query.QueryFactory.not;
+import static com.googlecode.cqengine.query.QueryFactory.or;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bananarama.BananaRama;
+import org.bananarama.crud.redis.Utils;
+import org.bananarama.crud.redis.entities.DigitalOcean;
+import org.bananarama.crud.redis.entities.GoogleHost;
+import org.bananarama.crud.redis.entities.Host;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.cqengine.attribute.Attribute;
+import com.googlecode.cqengine.attribute.SimpleAttribute;
+import com.googlecode.cqengine.query.Query;
+import com.googlecode.cqengine.query.option.QueryOptions;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+
+/**
+ * Where clauses resolved with the indexes of the properties annotated with @RedisIndex
+ */
+public class TestSecondaryIndexes {
+
+    private static final Attribute<Host, String> COMMON = new SimpleAttribute<Host, String>("commonProperty") {
+        @Override
+        public String getValue(Host host, QueryOptions queryOptions) {
+            return host.getCommonProperty();
+        }
+    };
+    
+    private static final Attribute<Host, String> HOSTNAME = new SimpleAttribute<Host, String>("hostname") {
+        @Override
+        public String getValue(Host host, QueryOptions queryOptions) {
+            return host.getHostname();
+        }
+    };
+
+    private Jedis jedis;
+    private BananaRama banana;
+    private List<Host> hosts;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        banana = new BananaRama();
+        
+        GoogleHost g1 = Utils.generateGoogleHost("idx-g1");
+        g1.setCommonProperty("red");
+        GoogleHost g2 = Utils.generateGoogleHost("idx-g2");
+        g2.setCommonProperty("blue");
+        DigitalOcean o1 = Utils.generateDigitalOceanHost("idx-o1");
+        o1.setCommonProperty("red");
+        DigitalOcean o2 = Utils.generateDigitalOceanHost("idx-o2");
+        o2.setCommonProperty("green");
+        hosts = Arrays.asList(g1, g2, o1, o2);
+        
+        banana.create(Host.class).from(hosts.stream());
+    }
+    
+    @After
+    public void shutdown() {
+        hosts.forEach(h -> jedis.del("host:" + h.getHostname()));
+        jedis.keys("idx:host:*").forEach(jedis::del);
+        jedis.close();
+    }
+    
+    private Set<String> where(Class<? extends Host> type, Query<Host> query) {
+        try (Stream<? extends Host> result = banana.read(type).where(query)) {
+            return result.map(Host::getHostname).collect(Collectors.toSet());
+        }
+    }
+    
+    private static Set<String> names(String... names) {
+        return Arrays.stream(names).collect(Collectors.toSet());
+    }
+    
+    @Test
+    public void testWhere() {
+        
+        Assert.assertEquals(names("idx-g1", "idx-o1"), where(Host.class, equal(COMMON, "red")));
+        Assert.assertEquals(names("idx-g1"), where(GoogleHost.class, equal(COMMON, "red")));
+        Assert.assertEquals(names(), where(Host.class, equal(COMMON, "yellow")));
+        
+        Assert.assertEquals(names("idx-g2", "idx-o2"), where(Host.class, in(COMMON, "blue", "green")));
+        Assert.assertEquals(names("idx-g1", "idx-o1", "idx-o2"), where(Host.class, or(equal(COMMON, "red"), equal(COMMON, "green"))));
+        Assert.assertEquals(names("idx-g1", "idx-o1"), where(Host.class, and(in(COMMON, "red", "green"), not(equal(COMMON, "green")))));
+        Assert.assertEquals(names("idx-o1"), where(DigitalOcean.class, and(equal(COMMON, "red"), not(equal(COMMON, "green")))));
+        
+        // No temporary result is left behind
+        Assert.assertTrue(jedis.keys("idx:tmp:*").isEmpty());
+    }
+    
+    @Test
+    public void testIndexIsUpdated() {
+        
+        GoogleHost g1 = (GoogleHost) hosts.get(0);
+        g1.setCommonProperty("green");
+        banana.create(GoogleHost.class).from(Stream.of(g1));
+        
+        Assert.assertEquals(names("idx-o1"), where(Host.class, equal(COMMON, "red")));
+        Assert.assertEquals(names("idx-g1", "idx-o2"), where(Host.class, equal(COMMON, "green")));
+        
+        banana.delete(Host.class).from(Stream.of(hosts.get(3)));
+        Assert.assertEquals(names("idx-g1"), where(Host.class, equal(COMMON, "green")));
+        Assert.assertFalse(jedis.exists("host:idx-o2"));
+    }
+    
+    @Test
+    public void testDeleteWhere() {
+        
+        // Only the instances of the requested type are deleted
+        banana.delete(DigitalOcean.class).where(equal(COMMON, "red"));
+        Assert.assertEquals(names("idx-g1"), where(Host.class, equal(COMMON, "red")));
+        Assert.assertFalse(jedis.exists("host:idx-o1"));
+        
+        banana.delete(Host.class).where(in(COMMON, "red", "blue"));
+        Assert.assertEquals(names("idx-o2"), where(Host.class, or(equal(COMMON, "red"), equal(COMMON, "blue"), equal(COMMON, "green"))));
+        Assert.assertEquals(1, jedis.scan("0", new ScanParams().match("host:idx-*").count(1000)).getResult().size());
+    }
+    
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPropertyNotIndexed() {
+        banana.read(Host.class).where(equal(HOSTNAME, "idx-g1"));
+    }
+    
+    @Test(expected = UnsupportedOperationException.class)
+    public void testNegationOnly() {
+        banana.read(Host.class).where(not(equal(COMMON, "red")));
+    }
+}
@@ -0,0 +1,78 @@
+package org.bananarama.crud.redis.hashset;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bananarama.crud.redis.RedisAdapter;
+import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.Utils;
+import org.bananarama.crud.redis.entities.DigitalOcean;
+import org.bananarama.crud.redis.entities.GoogleHost;
+import org.bananarama.crud.redis.entities.Host;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Classes stored with a short alias instead of their name
+ */
+public class TestTypeAliases {
+
+    private Jedis jedis;
+    private RedisAdapter adapter;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        adapter = new RedisAdapterImpl();
+    }
+    
+    @After
+    public void shutdown() {
+        jedis.keys("host:alias-*").forEach(jedis::del);
+        jedis.keys("idx:host:*").forEach(jedis::del);
+        jedis.hdel("bananarama:types", "gh-renamed");
+        jedis.close();
+    }
+    
+    @Test
+    public void testAlias() {
+        
+        adapter.create(Host.class).from(Stream.of(Utils.generateDigitalOceanHost("alias-1"), Utils.generateGoogleHost("alias-2")));
+        
+        Assert.assertEquals("do", jedis.hget("host:alias-1", "class"));
+        Assert.assertEquals(GoogleHost.class.getName(), jedis.hget("host:alias-2", "class"));
+        Assert.assertEquals(DigitalOcean.class.getName(), jedis.hget("bananarama:types", "do"));
+        
+        List<Host> hosts = adapter.read(Host.class).fromKeys(Arrays.asList("alias-1", "alias-2")).collect(Collectors.toList());
+        Assert.assertTrue(hosts.get(0) instanceof DigitalOcean);
+        Assert.assertTrue(hosts.get(1) instanceof GoogleHost);
+        
+        // Subclasses are still told apart
+        Assert.assertEquals(Arrays.asList("alias-1"), adapter.read(DigitalOcean.class).fromKeys(Arrays.asList("alias-1", "alias-2"))
+                .map(Host::getHostname).collect(Collectors.toList()));
+    }
+    
+    @Test
+    public void testAliasRecordedInRedis() {
+        
+        // An alias that this client does not know, eg of a class that has not been loaded yet
+        jedis.hset("bananarama:types", "gh-renamed", GoogleHost.class.getName());
+        jedis.hset("host:alias-3", "class", "gh-renamed");
+        jedis.hset("host:alias-3", "commonProperty", "renamed");
+        
+        List<Host> hosts = adapter.read(Host.class).fromKeys(Arrays.asList("alias-3")).collect(Collectors.toList());
+        Assert.assertEquals(1, hosts.size());
+        Assert.assertTrue(hosts.get(0) instanceof GoogleHost);
+        Assert.assertEquals("renamed", hosts.get(0).getCommonProperty());
+        
+        // The same for the deletes, that read the records to update the indexes
+        adapter.delete(Host.class).fromKeys(Arrays.asList("alias-3"));
+        Assert.assertFalse(jedis.exists("host:alias-3"));
+    }
+}
@@ -0,0 +1,98 @@
+package org.bananarama.crud.redis.hashset;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bananarama.crud.redis.RedisAdapter;
+import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.Utils;
+import org.bananarama.crud.redis.entities.DigitalOcean;
+import org.bananarama.crud.redis.entities.GoogleHost;
+import org.bananarama.crud.redis.entities.Host;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Subclasses read among the instances of other classes with the same key pattern
+ */
+public class TestTypeFilter {
+
+    private Jedis jedis;
+    private RedisAdapter adapter;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        adapter = new RedisAdapterImpl();
+    }
+    
+    @After
+    public void shutdown() {
+        jedis.keys("host:filter-*").forEach(jedis::del);
+        jedis.keys("idx:host:*").forEach(jedis::del);
+        jedis.hdel("bananarama:types", "gh-filtered");
+        jedis.close();
+    }
+    
+    @Test
+    public void testOnlyMatchingHashesAreSent() {
+        
+        adapter.create(Host.class).from(Stream.of(
+                Utils.generateDigitalOceanHost("filter-1"), 
+                Utils.generateGoogleHost("filter-2"), 
+                Utils.generateDigitalOceanHost("filter-3"), 
+                new Host("filter-4")));
+        
+        long before = hgetall();
+        List<String> read = adapter.read(DigitalOcean.class).fromKeys(Arrays.asList("filter-1", "filter-2", "filter-3", "filter-4", "filter-5"))
+                .map(Host::getHostname)
+                .collect(Collectors.toList());
+        
+        Assert.assertEquals(Arrays.asList("filter-1", "filter-3"), read);
+        Assert.assertEquals(2, hgetall() - before);
+    }
+    
+    @Test
+    public void testUnknownAlias() {
+        
+        // A subclass known only by redis is read with a second round trip
+        jedis.hset("bananarama:types", "gh-filtered", GoogleHost.class.getName());
+        jedis.hset("host:filter-6", "class", "gh-filtered");
+        jedis.hset("host:filter-6", "commonProperty", "filtered");
+        adapter.create(Host.class).from(Stream.of(Utils.generateDigitalOceanHost("filter-7")));
+        
+        List<GoogleHost> read = adapter.read(GoogleHost.class).fromKeys(Arrays.asList("filter-6", "filter-7")).collect(Collectors.toList());
+        Assert.assertEquals(1, read.size());
+        Assert.assertEquals("filtered", read.get(0).getCommonProperty());
+    }
+    
+    @Test
+    public void testScriptLoadedAgain() {
+        
+        adapter.create(Host.class).from(Stream.of(Utils.generateDigitalOceanHost("filter-8")));
+        
+        // Sent with EVALSHA, the script is loaded again after the server forgets it
+        long evals = commands("eval");
+        jedis.scriptFlush();
+        Assert.assertEquals(1, adapter.read(DigitalOcean.class).fromKeys(Arrays.asList("filter-8")).count());
+        Assert.assertEquals(1, adapter.read(DigitalOcean.class).fromKeys(Arrays.asList("filter-8")).count());
+        Assert.assertEquals(evals, commands("eval"));
+    }
+    
+    private long hgetall() {
+        return commands("hgetall");
+    }
+    
+    private long commands(String command) {
+        String stats = jedis.info("commandstats");
+        String prefix = "cmdstat_" + command + ":calls=";
+        int start = stats.indexOf(prefix);
+        return start < 0 ? 0 : Long.parseLong(stats.substring(start + prefix.length(), stats.indexOf(',', start)));
+    }
+}
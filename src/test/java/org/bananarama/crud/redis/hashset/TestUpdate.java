@@ -0,0 +1,117 @@
+package org.bananarama.crud.redis.hashset;
+
+import static com.googlecode.cqengine.query.QueryFactory.equal;
+import static com.googlecode.cqengine.query.QueryFactory.queryOptions;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bananarama.BananaRama;
+import org.bananarama.crud.redis.Snapshots;
+import org.bananarama.crud.redis.Utils;
+import org.bananarama.crud.redis.entities.GoogleHost;
+import org.bananarama.crud.redis.entities.Host;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.cqengine.attribute.Attribute;
+import com.googlecode.cqengine.attribute.SimpleAttribute;
+import com.googlecode.cqengine.query.option.QueryOptions;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Updates write only the properties that differ from the snapshot of the instance
+ */
+public class TestUpdate {
+
+    private static final Attribute<Host, String> COMMON = new SimpleAttribute<Host, String>("commonProperty") {
+        @Override
+        public String getValue(Host host, QueryOptions queryOptions) {
+            return host.getCommonProperty();
+        }
+    };
+
+    private Jedis jedis;
+    private BananaRama banana;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        banana = new BananaRama();
+        banana.create(GoogleHost.class).from(Stream.of(Utils.generateGoogleHost("upd-1"), Utils.generateGoogleHost("upd-2")));
+    }
+    
+    @After
+    public void shutdown() {
+        jedis.del("host:upd-1", "host:upd-2");
+        jedis.keys("idx:host:*").forEach(jedis::del);
+        jedis.close();
+    }
+    
+    @Test
+    public void testOnlyChangedFieldsAreWritten() {
+        
+        Snapshots snapshots = new Snapshots();
+        QueryOptions options = queryOptions(snapshots);
+        List<GoogleHost> hosts = banana.read(GoogleHost.class).fromKeys(Arrays.asList("upd-1", "upd-2"), options).collect(Collectors.toList());
+        Assert.assertEquals(2, snapshots.size());
+        
+        // Someone else changes a property we did not touch; the update must not overwrite it
+        jedis.hset("host:upd-1", "credentialFile", "changed elsewhere");
+        
+        hosts.get(0).setCommonProperty("updated");
+        hosts.get(1).setCredentialFile(null);
+        banana.update(GoogleHost.class).from(hosts.stream(), options);
+        
+        Assert.assertEquals("updated", jedis.hget("host:upd-1", "commonProperty"));
+        Assert.assertEquals("changed elsewhere", jedis.hget("host:upd-1", "credentialFile"));
+        Assert.assertFalse(jedis.hexists("host:upd-2", "credentialFile"));
+        Assert.assertEquals(Utils.GOOGLE_COMMONPROPVALUE, jedis.hget("host:upd-2", "commonProperty"));
+        
+        // The indexes follow the changed properties
+        Assert.assertEquals(Arrays.asList("upd-1"), banana.read(Host.class).where(equal(COMMON, "updated")).map(Host::getHostname).collect(Collectors.toList()));
+        Assert.assertEquals(Arrays.asList("upd-2"), banana.read(Host.class).where(equal(COMMON, Utils.GOOGLE_COMMONPROPVALUE)).map(Host::getHostname).collect(Collectors.toList()));
+        
+        // The snapshots now hold the written state: an update without changes writes nothing
+        jedis.hset("host:upd-1", "commonProperty", "changed elsewhere");
+        banana.update(GoogleHost.class).from(hosts.stream(), options);
+        Assert.assertEquals("changed elsewhere", jedis.hget("host:upd-1", "commonProperty"));
+    }
+    
+    @Test
+    public void testCapturedSnapshot() {
+        
+        GoogleHost host = Utils.generateGoogleHost("upd-1");
+        Snapshots snapshots = new Snapshots();
+        snapshots.capture(host);
+        
+        jedis.hset("host:upd-1", "credentialFile", "changed elsewhere");
+        host.setTtl(1);
+        banana.update(GoogleHost.class).from(Stream.of(host), queryOptions(snapshots));
+        
+        Assert.assertEquals("1.0", jedis.hget("host:upd-1", "ttl"));
+        Assert.assertEquals("changed elsewhere", jedis.hget("host:upd-1", "credentialFile"));
+    }
+    
+    @Test
+    public void testUpdateWithoutSnapshot() {
+        
+        // A field that is not a property of the class is left as it is
+        jedis.hset("host:upd-2", "legacy", "kept");
+        
+        GoogleHost host = Utils.generateGoogleHost("upd-2");
+        host.setCommonProperty("no snapshot");
+        host.setCredentialFile(null);
+        banana.update(GoogleHost.class).from(Stream.of(host));
+        
+        Assert.assertEquals("no snapshot", jedis.hget("host:upd-2", "commonProperty"));
+        Assert.assertFalse(jedis.hexists("host:upd-2", "credentialFile"));
+        Assert.assertTrue(jedis.hexists("host:upd-2", "legacy"));
+        Assert.assertEquals(Arrays.asList("upd-2"), banana.read(Host.class).where(equal(COMMON, "no snapshot")).map(Host::getHostname).collect(Collectors.toList()));
+    }
+}
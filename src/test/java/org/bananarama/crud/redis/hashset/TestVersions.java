@@ -0,0 +1,120 @@
+package org.bananarama.crud.redis.hashset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bananarama.crud.redis.ChunkedWrites;
+import org.bananarama.crud.redis.RedisAdapter;
+import org.bananarama.crud.redis.RedisAdapterImpl;
+import org.bananarama.crud.redis.VersionConflictException;
+import org.bananarama.crud.redis.entities.Ticket;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.cqengine.query.QueryFactory;
+import com.googlecode.cqengine.query.option.QueryOptions;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Optimistic locking of the versioned classes
+ */
+public class TestVersions {
+
+    private Jedis jedis;
+    private RedisAdapter adapter;
+    private List<String> conflicts;
+    private QueryOptions options;
+    
+    @Before
+    public void startup() {
+        jedis = new Jedis();
+        adapter = new RedisAdapterImpl();
+        conflicts = new ArrayList<>();
+        options = QueryFactory.queryOptions(new ChunkedWrites(100, 1024 * 1024, new ChunkedWrites.Listener() {
+            @Override
+            public void failed(int chunk, List<String> keys, Exception error) {
+                conflicts.addAll(((VersionConflictException) error).getKeys());
+            }
+        }));
+    }
+    
+    @After
+    public void shutdown() {
+        Stream.of("ticket:*", "idx:ticket:*").flatMap(pattern -> jedis.keys(pattern).stream()).forEach(jedis::del);
+        jedis.close();
+    }
+    
+    private Ticket read(String id) {
+        return adapter.read(Ticket.class).fromKeys(Arrays.asList(id)).collect(Collectors.toList()).get(0);
+    }
+    
+    @Test
+    public void testVersionIsIncremented() {
+        
+        Ticket ticket = new Ticket("t1", "ann");
+        adapter.create(Ticket.class).from(Stream.of(ticket));
+        Assert.assertEquals(1, ticket.getVersion());
+        Assert.assertEquals("1", jedis.hget("ticket:t1", "version"));
+        
+        ticket.setTitle("first");
+        adapter.update(Ticket.class).from(Stream.of(ticket));
+        Assert.assertEquals(2, ticket.getVersion());
+        Assert.assertEquals(2, read("t1").getVersion());
+        Assert.assertEquals("first", read("t1").getTitle());
+    }
+    
+    @Test
+    public void testConcurrentUpdates() {
+        
+        adapter.create(Ticket.class).from(Stream.of(new Ticket("t2", "ann"), new Ticket("t3", "ann")));
+        Ticket mine = read("t2");
+        Ticket theirs = read("t2");
+        
+        theirs.setOwner("bob");
+        adapter.update(Ticket.class).from(Stream.of(theirs), options);
+        Assert.assertTrue(conflicts.isEmpty());
+        
+        // The stale object is not written, the others in the same chunk are
+        Ticket other = read("t3");
+        other.setTitle("other");
+        mine.setOwner("carl");
+        adapter.update(Ticket.class).from(Stream.of(mine, other), options);
+        Assert.assertEquals(Arrays.asList("ticket:t2"), conflicts);
+        Assert.assertEquals("bob", jedis.hget("ticket:t2", "owner"));
+        Assert.assertEquals("other", jedis.hget("ticket:t3", "title"));
+        Assert.assertEquals(1, mine.getVersion());
+        
+        // Nor indexed
+        Assert.assertFalse(jedis.exists("idx:ticket:owner:carl"));
+        Assert.assertTrue(jedis.sismember("idx:ticket:owner:bob", "t2"));
+    }
+    
+    @Test
+    public void testCreateOverAnExistingInstance() {
+        
+        adapter.create(Ticket.class).from(Stream.of(new Ticket("t4", "ann")));
+        adapter.create(Ticket.class).from(Stream.of(new Ticket("t4", "bob")), options);
+        Assert.assertEquals(Arrays.asList("ticket:t4"), conflicts);
+        Assert.assertEquals("ann", jedis.hget("ticket:t4", "owner"));
+    }
+    
+    @Test
+    public void testScriptIsLoadedAgain() {
+        
+        Ticket ticket = new Ticket("t5", "ann");
+        adapter.create(Ticket.class).from(Stream.of(ticket));
+        jedis.scriptFlush();
+        
+        ticket.setTitle("after flush");
+        adapter.update(Ticket.class).from(Stream.of(ticket), options);
+        Assert.assertTrue(conflicts.isEmpty());
+        Assert.assertEquals("after flush", jedis.hget("ticket:t5", "title"));
+        Assert.assertEquals(2, ticket.getVersion());
+    }
+}